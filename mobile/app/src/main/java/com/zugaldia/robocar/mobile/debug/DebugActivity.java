@@ -248,4 +248,9 @@ public class DebugActivity extends AppCompatActivity
     return new RobocarResponse(200, String.format(
         "Speed change: %d/%d", speed.getLeft(), speed.getRight()));
   }
+
+  @Override
+  public RobocarResponse onFlightRecorder() {
+    return new RobocarResponse(200, "No flight recorder on the debug server.");
+  }
 }
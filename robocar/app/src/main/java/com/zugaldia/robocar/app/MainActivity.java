@@ -10,9 +10,13 @@ import com.zugaldia.robocar.app.autonomous.TensorFlowTrainer;
 import com.zugaldia.robocar.app.manual.RCDriver;
 import com.zugaldia.robocar.app.manual.LocalhostDriver;
 import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
+import com.zugaldia.robocar.hardware.adafruit2348.MotorListener;
+import com.zugaldia.robocar.software.camera.CameraOperator;
+import com.zugaldia.robocar.software.camera.ImageSaver;
 import com.zugaldia.robocar.software.controller.nes30.Nes30Connection;
 import com.zugaldia.robocar.software.controller.nes30.Nes30Listener;
 import com.zugaldia.robocar.software.controller.nes30.Nes30Manager;
+import com.zugaldia.robocar.software.recorder.FlightRecorder;
 import com.zugaldia.robocar.software.webserver.LocalWebServer;
 import com.zugaldia.robocar.software.webserver.HTTPRequestListener;
 import com.zugaldia.robocar.software.webserver.models.RobocarMove;
@@ -38,6 +42,8 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
   private CameraDriver cameraDriver;
   private TensorFlowTrainer tensorFlowTrainer;
 
+  private FlightRecorder flightRecorder;
+
   // I2C Name
   public static final String I2C_DEVICE_NAME = "I2C1";
   // Adafruit Motor Hat
@@ -51,6 +57,9 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
     // Motors
     motorHat = new AdafruitMotorHat(I2C_DEVICE_NAME, MOTOR_HAT_I2C_ADDRESS, false);
 
+    // Always on, export with button B or the web server
+    setupFlightRecorder();
+
     // Remote control (for RCDriver)
     setupBluetooth();
 
@@ -63,8 +72,26 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
   }
 
 
+  private void setupFlightRecorder() {
+    // Frames are the pipeline ones, stored as NV21
+    flightRecorder = new FlightRecorder(ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER),
+        CameraOperator.IMAGE_WIDTH * CameraOperator.IMAGE_HEIGHT * 3 / 2);
+    motorHat.setMotorListener(new MotorListener() {
+      @Override
+      public void onSpeed(int motor, int speed) {
+        flightRecorder.recordMotorSpeed(motor, speed);
+      }
+
+      @Override
+      public void onRun(int motor, int command) {
+        flightRecorder.recordMotorRun(motor, command);
+      }
+    });
+  }
+
   private void setupWebServer() {
     LocalWebServer localWebServer = new LocalWebServer(this);
+    localWebServer.setFlightRecorder(flightRecorder);
     try {
       localWebServer.start();
     } catch (IOException e) {
@@ -74,6 +101,7 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
 
   private void setupBluetooth() {
     nes30Manager = new Nes30Manager(this);
+    nes30Manager.setFlightRecorder(flightRecorder);
     nes30Connection = new Nes30Connection(this, RobocarConstants.NES30_MAC_ADDRESS);
     Timber.d("BT status: %b", nes30Connection.isEnabled());
     Timber.d("Paired devices: %d", nes30Connection.getPairedDevices().size());
@@ -158,11 +186,13 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
         }
         break;
       case Nes30Manager.BUTTON_B_CODE:
-        Timber.d("Button B pressed.");
+        if (isDown) {
+          Timber.d("Exporting flight recorder: %b", flightRecorder.trigger());
+        }
         break;
       case Nes30Manager.BUTTON_L_CODE:
         if (cameraDriver == null) {
-          cameraDriver = new CameraDriver(this, motorHat);
+          cameraDriver = new CameraDriver(this, motorHat, flightRecorder);
         }
         cameraDriver.start();
         break;
@@ -211,4 +241,13 @@ public class MainActivity extends AppCompatActivity implements Nes30Listener, HT
     localhostDriver.changeSpeed(speed);
     return new RobocarResponse(200, "OK");
   }
+
+  @Override
+  public RobocarResponse onFlightRecorder() {
+    if (!flightRecorder.trigger()) {
+      return new RobocarResponse(409, "Already exporting");
+    }
+
+    return new RobocarResponse(200, "OK");
+  }
 }
@@ -1,61 +1,162 @@
 package com.zugaldia.robocar.app.autonomous;
 
 import android.content.Context;
-import android.media.ImageReader;
+import android.graphics.ImageFormat;
 
+import com.zugaldia.robocar.app.manual.LocalhostDriver;
+import com.zugaldia.robocar.cv.LaneDetectors;
 import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
 import com.zugaldia.robocar.software.camera.CameraOperator;
 import com.zugaldia.robocar.software.camera.CameraOperatorListener;
-import com.zugaldia.robocar.software.camera.ImageSaver;
+import com.zugaldia.robocar.software.camera.FrameDispatcher;
+import com.zugaldia.robocar.software.recorder.FlightRecorder;
 
-import java.io.File;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import timber.log.Timber;
 
 /**
- * Autonomous driving using CV processing on camera photos.
+ * Autonomous driving using CV processing on camera frames. YUV frames are streamed by the
+ * camera at sensor rate and handed in memory to a {@link FramePipeline}. Saving them to disk is
+ * optional, see {@link #setDebugTapEnabled(boolean)}.
+ * <p>
+ * <p>Larger JPEG photos can also be recorded while driving, at a lower rate, on a second
+ * output of the camera session (see {@link #setRecordingEnabled(boolean)}), so that recording
+ * doesn't slow down the analysis.
+ * <p>
+ * <p>Frames are also handed to the {@link FlightRecorder}, if any.
  */
-public class CameraDriver implements CameraOperatorListener, ImageReader.OnImageAvailableListener {
+public class CameraDriver implements CameraOperatorListener {
 
   private final static String PHOTO_FILENAME = "cv.jpg";
+  private final static String PIPELINE_CONSUMER = "pipeline";
+  private final static String RECORDER_CONSUMER = "recorder";
+  private final static String FLIGHT_RECORDER_CONSUMER = "flight";
+
+  // Same rate as TensorFlowTrainer
+  private final static int RECORDING_PERIOD_MS = 250;
 
   private AdafruitMotorHat motorHat;
   private CameraOperator cameraOperator;
+  private FramePipeline pipeline;
+  private FrameDispatcher pipelineDispatcher;
+  private FrameDispatcher recordingDispatcher;
+  private DebugTap debugTap;
+  private boolean debugTapEnabled;
+  private FrameRecorder frameRecorder;
+  private boolean recordingEnabled;
+  private Timer recordingTimer;
+  private FlightRecorder flightRecorder;
 
   public CameraDriver(Context context, AdafruitMotorHat motorHat) {
+    this(context, motorHat, null);
+  }
+
+  public CameraDriver(Context context, AdafruitMotorHat motorHat,
+                      FlightRecorder flightRecorder) {
     this.motorHat = motorHat;
-    cameraOperator = new CameraOperator(context, this);
+    this.flightRecorder = flightRecorder;
+    cameraOperator = new CameraOperator(context, this, ImageFormat.YUV_420_888);
+  }
+
+  /**
+   * Whether to save the latest photo to disk (as Pictures/robocar/cv.jpg) while driving. Takes
+   * effect on the next {@link #start()}.
+   */
+  public void setDebugTapEnabled(boolean debugTapEnabled) {
+    this.debugTapEnabled = debugTapEnabled;
+  }
+
+  /**
+   * Whether to record photos while driving, see {@link FrameRecorder}. Takes effect on the next
+   * {@link #start()}.
+   */
+  public void setRecordingEnabled(boolean recordingEnabled) {
+    this.recordingEnabled = recordingEnabled;
   }
 
   public void start() {
-    cameraOperator.startSession(this);
+    if (pipeline == null) {
+      if (debugTapEnabled) {
+        debugTap = new DebugTap(PHOTO_FILENAME);
+        debugTap.start();
+      }
+      pipeline = new FramePipeline(CameraOperator.IMAGE_WIDTH, CameraOperator.IMAGE_HEIGHT,
+          LaneDetectors.YUV, new LocalhostDriver(motorHat), debugTap);
+      pipeline.start();
+      pipelineDispatcher = new FrameDispatcher();
+      pipelineDispatcher.addConsumer(
+          PIPELINE_CONSUMER, pipeline, FramePipeline.MAX_IMAGES_IN_FLIGHT);
+      if (flightRecorder != null) {
+        pipelineDispatcher.addConsumer(FLIGHT_RECORDER_CONSUMER, flightRecorder);
+      }
+      pipelineDispatcher.start();
+    }
+
+    if (recordingEnabled) {
+      if (frameRecorder == null) {
+        frameRecorder = new FrameRecorder(motorHat);
+        frameRecorder.start();
+        recordingDispatcher = new FrameDispatcher();
+        recordingDispatcher.addConsumer(RECORDER_CONSUMER, frameRecorder);
+        recordingDispatcher.start();
+      }
+      cameraOperator.startSession(pipelineDispatcher, recordingDispatcher,
+          CameraOperator.RECORDING_WIDTH, CameraOperator.RECORDING_HEIGHT);
+    } else {
+      cameraOperator.startSession(pipelineDispatcher);
+    }
   }
 
   public void stop() {
+    if (recordingTimer != null) {
+      recordingTimer.cancel();
+      recordingTimer = null;
+    }
+
+    // The pipeline and the recorder hold the camera images themselves, which closing the
+    // readers (in endSession) would invalidate: stop the captures, then release every frame,
+    // and only then end the session
+    cameraOperator.stopStreaming();
+    if (pipelineDispatcher != null) {
+      pipelineDispatcher.stop();
+      pipelineDispatcher = null;
+    }
+    if (pipeline != null) {
+      pipeline.stop();
+      pipeline = null;
+    }
+    if (debugTap != null) {
+      debugTap.stop();
+      debugTap = null;
+    }
+    if (recordingDispatcher != null) {
+      recordingDispatcher.stop();
+      recordingDispatcher = null;
+      frameRecorder.stop();
+      frameRecorder = null;
+    }
     cameraOperator.endSession();
   }
 
-  @Override
-  public void sessionStarted() {
-    Timber.d("Camera is ready, taking a picture.");
-    cameraOperator.takePicture();
+  public FramePipeline getPipeline() {
+    return pipeline;
   }
 
   @Override
-  public void onImageAvailable(final ImageReader reader) {
-    Timber.d("Picture is available.");
-    new Thread(new Runnable() {
-      @Override
-      public void run() {
-        File root = ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER);
-        new ImageSaver(reader.acquireLatestImage(), root, PHOTO_FILENAME).run();
-        processPhoto(root, PHOTO_FILENAME);
-      }
-    }).start();
-  }
+  public void sessionStarted() {
+    Timber.d("Camera is ready, streaming.");
+    cameraOperator.startStreaming(CameraOperator.DEFAULT_FPS);
 
-  private void processPhoto(File root, String filename) {
-    File path = new File(root, filename);
-    Timber.d("TODO: Process %s", path.getAbsolutePath());
+    if (frameRecorder != null) {
+      recordingTimer = new Timer("CAMERA_RECORDING");
+      recordingTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          cameraOperator.takePicture();
+        }
+      }, RECORDING_PERIOD_MS, RECORDING_PERIOD_MS);
+    }
   }
 }
@@ -0,0 +1,38 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import android.media.Image;
+
+import com.zugaldia.robocar.cv.YuvFrame;
+
+/**
+ * Describes the planes of the YUV_420_888 camera image as a {@link YuvFrame}, without copying
+ * them, and feeds the optional {@link DebugTap}.
+ */
+class ConvertStage extends FrameStage {
+
+  private final DebugTap debugTap;
+
+  ConvertStage(SpscQueue<PipelineFrame> input, SpscQueue<PipelineFrame> output,
+               DebugTap debugTap) {
+    super("convert", input, output);
+    this.debugTap = debugTap;
+  }
+
+  @Override
+  void process(PipelineFrame frame) {
+    if (frame.failed) {
+      return;
+    }
+
+    Image image = frame.image;
+    Image.Plane[] planes = image.getPlanes();
+    frame.yuv = new YuvFrame(image.getWidth(), image.getHeight(),
+        planes[0].getBuffer(), planes[0].getRowStride(),
+        planes[1].getBuffer(), planes[2].getBuffer(),
+        planes[1].getRowStride(), planes[1].getPixelStride());
+
+    if (debugTap != null) {
+      debugTap.offer(frame.yuv);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import com.zugaldia.robocar.cv.YuvFrame;
+
+import com.zugaldia.robocar.software.camera.CameraOperator;
+import com.zugaldia.robocar.software.camera.FrameExecutor;
+import com.zugaldia.robocar.software.camera.ImageSaver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Saves the pipeline frames to disk as JPEG for debugging, on its own single worker so that
+ * encoding and disk latency never reach the control loop, nor delay the consumers of the shared
+ * {@link FrameExecutor}. A frame is skipped if the previous one is still being written, and the
+ * same file is overwritten every time.
+ */
+public class DebugTap {
+
+  private final File destination;
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  private final FrameExecutor executor =
+      new FrameExecutor(1, 1, FrameExecutor.RejectionPolicy.DROP_NEWEST);
+  private volatile boolean running;
+
+  private static final int JPEG_QUALITY = 90;
+
+  // NV21 copy of the frame being written, reused across frames
+  private byte[] nv21 = new byte[0];
+  private int width;
+  private int height;
+
+  private final FrameExecutor.Task writer = new FrameExecutor.Task() {
+    @Override
+    public void run() {
+      FileOutputStream output = null;
+      try {
+        output = new FileOutputStream(destination);
+        YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        image.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, output);
+      } catch (IOException e) {
+        Timber.e(e, "Failed to save frame.");
+      } finally {
+        if (output != null) {
+          try {
+            output.close();
+          } catch (IOException e) {
+            Timber.e(e, "Failed to close file system resources.");
+          }
+        }
+        writing.set(false);
+      }
+    }
+
+    @Override
+    public void onRejected() {
+      writing.set(false);
+    }
+  };
+
+  public DebugTap(String filename) {
+    destination = new File(ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER), filename);
+  }
+
+  public void start() {
+    running = true;
+  }
+
+  /**
+   * Stops accepting frames, the pending write (if any) still finishes.
+   */
+  public void stop() {
+    running = false;
+    executor.shutdown();
+  }
+
+  /**
+   * Copies the frame and schedules it to be written, unless a write is already pending.
+   * Returns whether the frame was accepted.
+   */
+  boolean offer(YuvFrame frame) {
+    if (!running || !writing.compareAndSet(false, true)) {
+      return false;
+    }
+
+    width = frame.getWidth();
+    height = frame.getHeight();
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int size = width * height + 2 * chromaWidth * chromaHeight;
+    if (nv21.length < size) {
+      nv21 = new byte[size];
+    }
+
+    int offset = 0;
+    ByteBuffer luma = frame.getYBuffer();
+    for (int row = 0; row < height; row++) {
+      int src = row * frame.getYRowStride();
+      for (int col = 0; col < width; col++) {
+        nv21[offset++] = luma.get(src + col);
+      }
+    }
+
+    ByteBuffer u = frame.getUBuffer();
+    ByteBuffer v = frame.getVBuffer();
+    for (int row = 0; row < chromaHeight; row++) {
+      int src = row * frame.getUvRowStride();
+      for (int col = 0; col < chromaWidth; col++, src += frame.getUvPixelStride()) {
+        nv21[offset++] = v.get(src);
+        nv21[offset++] = u.get(src);
+      }
+    }
+
+    executor.execute(writer);
+    return true;
+  }
+}
@@ -0,0 +1,176 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import com.zugaldia.robocar.app.manual.LocalhostDriver;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+import com.zugaldia.robocar.software.camera.FrameConsumer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Processes YUV_420_888 camera frames in stages, each one on its own thread, so that frame N+1
+ * is being captured and converted while frame N is in lane detection:
+ * <p>
+ * <p>capture (dispatcher worker) -> convert -> lane detection -> motor commands
+ * <p>
+ * <p>Camera images aren't copied nor written to disk: the lane is looked for straight in the
+ * camera planes (a {@link DebugTap} can optionally save them on the side), and the image is
+ * given back to the camera right after.
+ * <p>
+ * <p>Stages are connected by bounded single-producer/single-consumer queues. A fixed number of
+ * frames is allocated upfront and recycled from the last stage back to the capture one, which
+ * bounds the number of frames in flight: when all of them are busy, new captures are dropped
+ * instead of queuing up latency. See {@link #getStats()} to find the bottleneck.
+ */
+public class FramePipeline implements FrameConsumer {
+
+  // Frames in flight, enough for every stage to work on one
+  static final int FRAME_COUNT = 4;
+
+  // Camera images held at a time (in the convert and lane detection stages), see
+  // com.zugaldia.robocar.software.camera.FrameDispatcher
+  public static final int MAX_IMAGES_IN_FLIGHT = 2;
+
+  // Log the stats every this many frames
+  private static final int STATS_INTERVAL = 100;
+
+  private final int width;
+  private final int height;
+
+  private final SpscQueue<PipelineFrame> freeFrames;
+  private final PipelineFrame[] frames;
+
+  private final StageStats captureStats;
+  private final ConvertStage convertStage;
+  private final LaneStage laneStage;
+  private final MotorStage motorStage;
+
+  private long sequence;
+  private boolean running;
+
+  /**
+   * Allocates the frames and stages to process frames of the given size, with the given lane
+   * detector (see {@link com.zugaldia.robocar.cv.LaneDetectors}). The debug tap is optional.
+   */
+  public FramePipeline(int width, int height, String detectorName, LocalhostDriver driver,
+                       DebugTap debugTap) {
+    this.width = width;
+    this.height = height;
+
+    freeFrames = new SpscQueue<>(FRAME_COUNT);
+    SpscQueue<PipelineFrame> convertQueue = new SpscQueue<>(FRAME_COUNT);
+    SpscQueue<PipelineFrame> laneQueue = new SpscQueue<>(FRAME_COUNT);
+    SpscQueue<PipelineFrame> motorQueue = new SpscQueue<>(FRAME_COUNT);
+
+    frames = new PipelineFrame[FRAME_COUNT];
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      frames[i] = new PipelineFrame();
+      freeFrames.offer(frames[i]);
+    }
+
+    captureStats = new StageStats("capture", null);
+    convertStage = new ConvertStage(convertQueue, laneQueue, debugTap);
+    laneStage = new LaneStage(laneQueue, motorQueue, width, height, detectorName);
+    motorStage = new MotorStage(motorQueue, freeFrames, driver);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+
+    convertStage.start();
+    laneStage.start();
+    motorStage.start();
+    running = true;
+  }
+
+  /**
+   * Stops the stage threads (frames in flight are discarded) and releases the memory held by
+   * the pipeline. It can't be used afterwards.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+
+    running = false;
+    convertStage.stop();
+    laneStage.stop();
+    motorStage.stop();
+    logStats();
+
+    for (PipelineFrame frame : frames) {
+      frame.closeImage();
+    }
+  }
+
+  /**
+   * Capture stage, on a dispatcher worker: hands the frame to the convert stage (releasing
+   * it right away if the pipeline is full).
+   */
+  @Override
+  public void onFrame(DispatchedFrame dispatchedFrame) {
+    if (!capture(dispatchedFrame)) {
+      dispatchedFrame.release();
+    }
+  }
+
+  /**
+   * Wraps the frame in a free pipeline frame and hands it to the convert stage, without
+   * blocking. Must not be called concurrently (the dispatcher never does). Returns false if
+   * the frame was dropped, in which case the caller keeps ownership of it (otherwise the
+   * pipeline releases it once the lane has been found).
+   */
+  public boolean capture(DispatchedFrame dispatchedFrame) {
+    long start = System.nanoTime();
+    PipelineFrame frame = freeFrames.poll();
+    if (frame == null) {
+      captureStats.drop();
+      return false;
+    }
+
+    frame.reset(sequence++, start, dispatchedFrame);
+
+    captureStats.record(System.nanoTime() - start);
+    // Never full: it has room for every frame
+    convertStage.getInput().offer(frame);
+
+    if (sequence % STATS_INTERVAL == 0) {
+      logStats();
+    }
+
+    return true;
+  }
+
+  /**
+   * Frames not in flight, ready for the next capture.
+   */
+  int getFreeFrames() {
+    return freeFrames.size();
+  }
+
+  /**
+   * Stats of every stage in order, followed by the end-to-end ones (capture to actuation).
+   */
+  public List<StageStats> getStats() {
+    return Arrays.asList(captureStats, convertStage.getStats(), laneStage.getStats(),
+        motorStage.getStats(), motorStage.getEndToEndStats());
+  }
+
+  public void logStats() {
+    for (StageStats stats : getStats()) {
+      Timber.d("Pipeline %s", stats);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
+import com.zugaldia.robocar.software.camera.CameraOperator;
+import com.zugaldia.robocar.software.camera.DatasetWriter;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+import com.zugaldia.robocar.software.camera.FrameConsumer;
+import com.zugaldia.robocar.software.camera.ImageSaver;
+
+import java.util.UUID;
+
+/**
+ * Saves the photos of the recording output of a camera session (see
+ * {@link CameraOperator#startSession(android.media.ImageReader.OnImageAvailableListener,
+ * android.media.ImageReader.OnImageAvailableListener, int, int)}), along with the motor speeds,
+ * to dataset segments (see {@link com.zugaldia.robocar.dataset.Segment}). Records carry the
+ * sensor timestamp, which is also the timestamp of the matching analysis frame. Photos are
+ * copied and handed to a {@link DatasetWriter}, so the camera image is released right away;
+ * photos are only dropped if storage falls behind.
+ */
+public class FrameRecorder implements FrameConsumer {
+
+  private final AdafruitMotorHat motorHat;
+  private final DatasetWriter writer;
+  private final int[] speeds = new int[4];
+
+  public FrameRecorder(AdafruitMotorHat motorHat) {
+    this.motorHat = motorHat;
+    String sessionId = UUID.randomUUID().toString().replace("-", "");
+    writer = new DatasetWriter(
+        ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER), "robocar-" + sessionId);
+  }
+
+  public void start() {
+    writer.start();
+  }
+
+  /**
+   * Writes the photos still queued, once the dispatcher has stopped.
+   */
+  public void stop() {
+    writer.stop();
+  }
+
+  public DatasetWriter getWriter() {
+    return writer;
+  }
+
+  @Override
+  public void onFrame(DispatchedFrame frame) {
+    try {
+      for (int motor = 1; motor <= speeds.length; motor++) {
+        speeds[motor - 1] = motorHat.getMotor(motor).getLastSpeed();
+      }
+      writer.append(frame.getTimestamp(), speeds, frame.getImage());
+    } finally {
+      frame.release();
+    }
+  }
+}
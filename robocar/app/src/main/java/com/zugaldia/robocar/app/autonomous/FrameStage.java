@@ -0,0 +1,86 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import timber.log.Timber;
+
+/**
+ * A {@link FramePipeline} stage running on its own thread: takes frames from its input queue,
+ * processes them and hands them to the next stage. Frames that failed in a previous stage are
+ * still passed along, so that they get recycled at the end of the pipeline.
+ */
+abstract class FrameStage implements Runnable {
+
+  private final SpscQueue<PipelineFrame> input;
+  private final SpscQueue<PipelineFrame> output;
+  private final StageStats stats;
+
+  private Thread thread;
+
+  FrameStage(String name, SpscQueue<PipelineFrame> input, SpscQueue<PipelineFrame> output) {
+    this.input = input;
+    this.output = output;
+    stats = new StageStats(name, input);
+  }
+
+  SpscQueue<PipelineFrame> getInput() {
+    return input;
+  }
+
+  StageStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Processes a frame. Implementations should set {@link PipelineFrame#failed} rather than
+   * throw if the frame can't be processed.
+   */
+  abstract void process(PipelineFrame frame);
+
+  /**
+   * Called on the stage thread once it's done, to release per-stage resources.
+   */
+  void release() {
+  }
+
+  void start() {
+    thread = new Thread(this, "PIPELINE_" + stats.getName().toUpperCase());
+    thread.start();
+  }
+
+  void stop() {
+    if (thread == null) {
+      return;
+    }
+
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Timber.e(e, "Interrupted while stopping the %s stage.", stats.getName());
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        PipelineFrame frame = input.take();
+        long start = System.nanoTime();
+        try {
+          process(frame);
+        } catch (RuntimeException e) {
+          Timber.e(e, "Failed to process frame %d in the %s stage.",
+              frame.sequence, stats.getName());
+          frame.failed = true;
+        }
+        stats.record(System.nanoTime() - start);
+        output.put(frame);
+      }
+    } catch (InterruptedException e) {
+      Timber.d("Stage %s stopped.", stats.getName());
+    } finally {
+      release();
+    }
+  }
+}
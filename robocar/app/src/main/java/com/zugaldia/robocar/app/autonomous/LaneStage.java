@@ -0,0 +1,42 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import com.zugaldia.robocar.cv.LaneDetector;
+import com.zugaldia.robocar.cv.LaneDetectors;
+import com.zugaldia.robocar.cv.LaneTracker;
+
+/**
+ * Tracks the lane in the YUV planes of the frame, then gives the image back to the camera.
+ */
+class LaneStage extends FrameStage {
+
+  private final LaneDetector laneDetector;
+  private final LaneTracker laneTracker;
+
+  LaneStage(SpscQueue<PipelineFrame> input, SpscQueue<PipelineFrame> output,
+            int width, int height, String detectorName) {
+    super("lane", input, output);
+    laneDetector = LaneDetectors.create(detectorName, width, height);
+    laneTracker = new LaneTracker(laneDetector);
+  }
+
+  @Override
+  void process(PipelineFrame frame) {
+    try {
+      if (frame.failed) {
+        laneTracker.reset();
+        return;
+      }
+
+      laneTracker.track(frame.yuv);
+      frame.laneFound = laneTracker.isTracking();
+      frame.lanePosition = laneTracker.getPosition();
+    } finally {
+      frame.closeImage();
+    }
+  }
+
+  @Override
+  void release() {
+    laneDetector.release();
+  }
+}
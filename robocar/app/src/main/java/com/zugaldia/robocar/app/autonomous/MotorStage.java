@@ -0,0 +1,59 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import com.zugaldia.robocar.app.manual.LocalhostDriver;
+import com.zugaldia.robocar.cv.LaneMath;
+
+/**
+ * Steers towards the lane found in the frame, or stops the car if there's none. This is the
+ * last stage: the frame goes back to the pool of free frames afterwards.
+ */
+class MotorStage extends FrameStage {
+
+  // Speed when the lane is straight ahead, from 0 (off) to 255 (max speed)
+  private static final int CRUISE_SPEED = 128;
+
+  // Fraction of the cruise speed added to (and removed from) each side at full deflection
+  private static final double STEERING_GAIN = 0.5;
+
+  private static final double CENTER_BIN = (LaneMath.HISTOGRAM_BINS - 1) / 2.0;
+
+  private final LocalhostDriver driver;
+  private final StageStats endToEndStats;
+
+  MotorStage(SpscQueue<PipelineFrame> input, SpscQueue<PipelineFrame> output,
+             LocalhostDriver driver) {
+    super("motor", input, output);
+    this.driver = driver;
+    endToEndStats = new StageStats("total", null);
+  }
+
+  /**
+   * Time from capture to actuation.
+   */
+  StageStats getEndToEndStats() {
+    return endToEndStats;
+  }
+
+  @Override
+  void process(PipelineFrame frame) {
+    if (frame.failed || !frame.laneFound) {
+      driver.setSpeeds(0, 0);
+    } else {
+      // From -1 (lane on the far left) to 1 (lane on the far right)
+      double deflection = (frame.lanePosition - CENTER_BIN) / CENTER_BIN;
+      driver.setSpeeds(getSpeed(1 + STEERING_GAIN * deflection),
+          getSpeed(1 - STEERING_GAIN * deflection));
+    }
+
+    endToEndStats.record(System.nanoTime() - frame.captureNanos);
+  }
+
+  @Override
+  void release() {
+    driver.setSpeeds(0, 0);
+  }
+
+  private static int getSpeed(double factor) {
+    return (int) Math.max(0, Math.min(255, Math.round(CRUISE_SPEED * factor)));
+  }
+}
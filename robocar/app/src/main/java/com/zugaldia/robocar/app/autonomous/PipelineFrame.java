@@ -0,0 +1,53 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import android.media.Image;
+
+import com.zugaldia.robocar.cv.YuvFrame;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+
+/**
+ * A frame travelling through the {@link FramePipeline}, with the output of every stage. Frames
+ * are recycled, and are only accessed by one stage at a time (the queues between stages publish
+ * the writes of the previous one).
+ */
+class PipelineFrame {
+
+  // Set by the capture stage. The camera image is held (not copied) until the lane is found.
+  long sequence;
+  long captureNanos;
+  DispatchedFrame dispatchedFrame;
+  Image image;
+
+  // Set by the convert stage: a view of the image planes
+  YuvFrame yuv;
+
+  // Set by the lane detection stage, in histogram bins
+  boolean laneFound;
+  double lanePosition;
+
+  // Set by any stage that failed to process the frame
+  boolean failed;
+
+  void reset(long sequence, long captureNanos, DispatchedFrame dispatchedFrame) {
+    this.sequence = sequence;
+    this.captureNanos = captureNanos;
+    this.dispatchedFrame = dispatchedFrame;
+    image = dispatchedFrame.getImage();
+    yuv = null;
+    laneFound = false;
+    lanePosition = -1;
+    failed = false;
+  }
+
+  /**
+   * Gives the image back to the camera, the planes can't be accessed afterwards.
+   */
+  void closeImage() {
+    yuv = null;
+    image = null;
+    if (dispatchedFrame != null) {
+      dispatchedFrame.release();
+      dispatchedFrame = null;
+    }
+  }
+}
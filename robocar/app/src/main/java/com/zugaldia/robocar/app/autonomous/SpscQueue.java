@@ -0,0 +1,112 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue for exactly one producer and one consumer at a time. Items are exchanged
+ * through a ring buffer without locks, a thread only parks when the queue is full (producer) or
+ * empty (consumer) and is woken up by the other side. A side may move to another thread as long
+ * as the hand-over publishes its writes (e.g. through a lock).
+ */
+class SpscQueue<T> {
+
+  private final Object[] items;
+
+  // Index of the next item to take, only written by the consumer
+  private final AtomicLong head = new AtomicLong();
+
+  // Index of the next item to put, only written by the producer
+  private final AtomicLong tail = new AtomicLong();
+
+  // Threads parked waiting for the other side, if any
+  private volatile Thread waitingProducer;
+  private volatile Thread waitingConsumer;
+
+  SpscQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive.");
+    }
+
+    items = new Object[capacity];
+  }
+
+  int capacity() {
+    return items.length;
+  }
+
+  /**
+   * Number of items in the queue. Only a snapshot if called from a third thread.
+   */
+  int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * Adds an item without blocking, returning false if the queue is full.
+   */
+  boolean offer(T item) {
+    long index = tail.get();
+    if (index - head.get() == items.length) {
+      return false;
+    }
+
+    items[(int) (index % items.length)] = item;
+    tail.set(index + 1);
+    LockSupport.unpark(waitingConsumer);
+    return true;
+  }
+
+  /**
+   * Adds an item, waiting for room if the queue is full.
+   */
+  void put(T item) throws InterruptedException {
+    while (!offer(item)) {
+      waitingProducer = Thread.currentThread();
+      if (size() == items.length) {
+        LockSupport.park(this);
+      }
+      waitingProducer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Takes an item without blocking, returning null if the queue is empty.
+   */
+  @SuppressWarnings("unchecked")
+  T poll() {
+    long index = head.get();
+    if (index == tail.get()) {
+      return null;
+    }
+
+    int slot = (int) (index % items.length);
+    T item = (T) items[slot];
+    items[slot] = null;
+    head.set(index + 1);
+    LockSupport.unpark(waitingProducer);
+    return item;
+  }
+
+  /**
+   * Takes an item, waiting for one if the queue is empty.
+   */
+  T take() throws InterruptedException {
+    T item;
+    while ((item = poll()) == null) {
+      waitingConsumer = Thread.currentThread();
+      if (size() == 0) {
+        LockSupport.park(this);
+      }
+      waitingConsumer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+
+    return item;
+  }
+}
@@ -0,0 +1,90 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import java.util.Locale;
+
+/**
+ * Latency and queue depth of a {@link FramePipeline} stage. Written by the stage thread only,
+ * and safe to read from any thread.
+ */
+public class StageStats {
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final String name;
+  private final SpscQueue<?> input;
+
+  private volatile long frames;
+  private volatile long dropped;
+  private volatile long lastNanos;
+  private volatile long totalNanos;
+  private volatile long maxNanos;
+
+  StageStats(String name, SpscQueue<?> input) {
+    this.name = name;
+    this.input = input;
+  }
+
+  void record(long nanos) {
+    frames++;
+    lastNanos = nanos;
+    totalNanos += nanos;
+    if (nanos > maxNanos) {
+      maxNanos = nanos;
+    }
+  }
+
+  void drop() {
+    dropped++;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Number of frames processed by the stage.
+   */
+  public long getFrames() {
+    return frames;
+  }
+
+  /**
+   * Number of frames dropped because the pipeline was full (capture stage only).
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  public double getLastLatencyMs() {
+    return lastNanos / NANOS_PER_MILLI;
+  }
+
+  public double getAverageLatencyMs() {
+    long count = frames;
+    return count == 0 ? 0 : totalNanos / NANOS_PER_MILLI / count;
+  }
+
+  public double getMaxLatencyMs() {
+    return maxNanos / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Number of frames waiting to be processed by the stage. A stage that always has a full
+   * queue is the bottleneck of the pipeline.
+   */
+  public int getQueueDepth() {
+    return input == null ? 0 : input.size();
+  }
+
+  public int getQueueCapacity() {
+    return input == null ? 0 : input.capacity();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "%s: %d frames (%d dropped), %.1f ms avg, %.1f ms max, queue %d/%d",
+        name, frames, dropped, getAverageLatencyMs(), getMaxLatencyMs(),
+        getQueueDepth(), getQueueCapacity());
+  }
+}
@@ -1,16 +1,16 @@
 package com.zugaldia.robocar.app.autonomous;
 
 import android.content.Context;
-import android.media.ImageReader;
 
 import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
 import com.zugaldia.robocar.software.camera.CameraOperator;
 import com.zugaldia.robocar.software.camera.CameraOperatorListener;
+import com.zugaldia.robocar.software.camera.DatasetWriter;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+import com.zugaldia.robocar.software.camera.FrameConsumer;
+import com.zugaldia.robocar.software.camera.FrameDispatcher;
 import com.zugaldia.robocar.software.camera.ImageSaver;
 
-import java.io.File;
-import java.util.Date;
-import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
@@ -18,16 +18,21 @@ import java.util.UUID;
 import timber.log.Timber;
 
 /**
- * Captures photos that can be used to train a TensorFlow model.
+ * Captures photos that can be used to train a TensorFlow model. Photos are copied and appended,
+ * with the motor speeds, to dataset segments in the background by a {@link DatasetWriter}, and
+ * only dropped if storage falls behind. See
+ * {@link com.zugaldia.robocar.dataset.DrivingLogConverter} to convert them for training.
  */
-public class TensorFlowTrainer implements
-    CameraOperatorListener, ImageReader.OnImageAvailableListener {
+public class TensorFlowTrainer implements CameraOperatorListener, FrameConsumer {
+
+  private static final String CONSUMER_NAME = "trainer";
 
   private AdafruitMotorHat motorHat;
   private CameraOperator cameraOperator;
+  private FrameDispatcher frameDispatcher;
+  private DatasetWriter datasetWriter;
 
   private String sessionId;
-  private int sessionCount;
   private Timer timer;
 
   public TensorFlowTrainer(Context context, AdafruitMotorHat motorHat) {
@@ -46,8 +51,13 @@ public class TensorFlowTrainer implements
   public void startSession() {
     if (!cameraOperator.isInSession()) {
       sessionId = UUID.randomUUID().toString().replace("-", "");
-      sessionCount = 0;
-      cameraOperator.startSession(this);
+      datasetWriter = new DatasetWriter(
+          ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER), "robocar-" + sessionId);
+      datasetWriter.start();
+      frameDispatcher = new FrameDispatcher();
+      frameDispatcher.addConsumer(CONSUMER_NAME, this);
+      frameDispatcher.start();
+      cameraOperator.startSession(frameDispatcher);
     }
   }
 
@@ -66,28 +76,27 @@ public class TensorFlowTrainer implements
     if (timer != null) {
       timer.cancel();
     }
+
+    // onFrame copies from the camera image, which closing the reader (in endSession) would
+    // invalidate: stop delivering frames first
+    if (frameDispatcher != null) {
+      frameDispatcher.stop();
+      frameDispatcher = null;
+    }
+    if (datasetWriter != null) {
+      datasetWriter.stop();
+      datasetWriter = null;
+    }
     cameraOperator.endSession();
   }
 
   @Override
-  public void onImageAvailable(final ImageReader reader) {
+  public void onFrame(DispatchedFrame frame) {
     Timber.d("Image available.");
-    new Thread(new Runnable() {
-      @Override
-      public void run() {
-        File root = ImageSaver.getRoot(CameraOperator.ROBOCAR_FOLDER);
-        ImageSaver imageSaver = new ImageSaver(reader.acquireLatestImage(), root, getFilename());
-        imageSaver.run();
-      }
-    }).start();
-  }
-
-  private String getFilename() {
-    String timestamp = CameraOperator.DATE_FORMAT.format(new Date());
-    int[] speeds = getSpeeds();
-    String speedState = String.format(Locale.US, "%d-%d-%d-%d",
-        speeds[0], speeds[1], speeds[2], speeds[3]);
-    return String.format(Locale.US, "robocar-%s-%d-%s-%s.jpg",
-        sessionId, sessionCount++, timestamp, speedState);
+    try {
+      datasetWriter.append(frame.getTimestamp(), getSpeeds(), frame.getImage());
+    } finally {
+      frame.release();
+    }
   }
 }
@@ -1,75 +1,99 @@
 package com.zugaldia.robocar.app.manual;
 
-import com.zugaldia.robocar.hardware.adafruit2348.AdafruitDcMotor;
 import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
+import com.zugaldia.robocar.hardware.adafruit2348.MotorFrame;
 import com.zugaldia.robocar.software.webserver.models.RobocarResponse;
 import com.zugaldia.robocar.software.webserver.models.RobocarSpeed;
 
 /**
- * Drives the Robocar using localhost (invoked by the companion app).
+ * Drives the Robocar using localhost (invoked by the companion app). Every request is sent to
+ * the motors as a single {@link MotorFrame}.
  */
 public class LocalhostDriver {
 
   // If speed was set too low, the motor could burn.
   private static final int MIN_SPEED = 64;
 
-  private AdafruitDcMotor motorFrontLeft;
-  private AdafruitDcMotor motorFrontRight;
-  private AdafruitDcMotor motorBackLeft;
-  private AdafruitDcMotor motorBackRight;
+  // Motor numbers on the hat
+  private static final int MOTOR_FRONT_LEFT = 1;
+  private static final int MOTOR_BACK_LEFT = 2;
+  private static final int MOTOR_FRONT_RIGHT = 3;
+  private static final int MOTOR_BACK_RIGHT = 4;
+
+  private AdafruitMotorHat motorHat;
 
   public LocalhostDriver(AdafruitMotorHat motorHat) {
-    motorFrontLeft = motorHat.getMotor(1);
-    motorBackLeft = motorHat.getMotor(2);
-    motorFrontRight = motorHat.getMotor(3);
-    motorBackRight = motorHat.getMotor(4);
+    this.motorHat = motorHat;
   }
 
   public void changeSpeed(RobocarSpeed speed) {
+    MotorFrame frame = new MotorFrame();
     if (speed.getLeft() != null) {
-      setLeftSpeed(speed.getLeft());
+      addLeftSpeed(frame, speed.getLeft());
     }
 
     if (speed.getRight() != null) {
-      setRightSpeed(speed.getRight());
+      addRightSpeed(frame, speed.getRight());
     }
+
+    motorHat.apply(frame);
+  }
+
+  /**
+   * Sets both sides at once.
+   */
+  public void setSpeeds(int leftSpeed, int rightSpeed) {
+    motorHat.apply(addRightSpeed(addLeftSpeed(new MotorFrame(), leftSpeed), rightSpeed));
   }
 
   public void setLeftSpeed(int speed) {
-    int unsignedSpeed = Math.abs(speed);
-    if (unsignedSpeed < MIN_SPEED) {
-      unsignedSpeed = 0;
-    }
+    motorHat.apply(addLeftSpeed(new MotorFrame(), speed));
+  }
 
-    motorBackLeft.setSpeed(unsignedSpeed);
-    motorFrontLeft.setSpeed(unsignedSpeed);
+  public void setRightSpeed(int speed) {
+    motorHat.apply(addRightSpeed(new MotorFrame(), speed));
+  }
+
+  private static MotorFrame addLeftSpeed(MotorFrame frame, int speed) {
+    int unsignedSpeed = getUnsignedSpeed(speed);
+    frame.setSpeed(MOTOR_BACK_LEFT, unsignedSpeed);
+    frame.setSpeed(MOTOR_FRONT_LEFT, unsignedSpeed);
 
     if (speed > 0) { // Positive speed motor directions
-      motorFrontLeft.run(AdafruitMotorHat.FORWARD);
-      motorBackLeft.run(AdafruitMotorHat.BACKWARD);
+      frame.setCommand(MOTOR_FRONT_LEFT, AdafruitMotorHat.FORWARD);
+      frame.setCommand(MOTOR_BACK_LEFT, AdafruitMotorHat.BACKWARD);
     } else { // Negative speed motor directions
-      motorFrontLeft.run(AdafruitMotorHat.BACKWARD);
-      motorBackLeft.run(AdafruitMotorHat.FORWARD);
+      frame.setCommand(MOTOR_FRONT_LEFT, AdafruitMotorHat.BACKWARD);
+      frame.setCommand(MOTOR_BACK_LEFT, AdafruitMotorHat.FORWARD);
     }
-  }
 
-  public void setRightSpeed(int speed) {
-    int unsignedSpeed = Math.abs(speed);
-    if (unsignedSpeed < MIN_SPEED) {
-      unsignedSpeed = 0;
-    }
+    return frame;
+  }
 
-    motorBackRight.setSpeed(unsignedSpeed);
-    motorFrontRight.setSpeed(unsignedSpeed);
+  private static MotorFrame addRightSpeed(MotorFrame frame, int speed) {
+    int unsignedSpeed = getUnsignedSpeed(speed);
+    frame.setSpeed(MOTOR_BACK_RIGHT, unsignedSpeed);
+    frame.setSpeed(MOTOR_FRONT_RIGHT, unsignedSpeed);
 
     if (speed > 0) {
       // Positive speed motor directions
-      motorFrontRight.run(AdafruitMotorHat.BACKWARD);
-      motorBackRight.run(AdafruitMotorHat.FORWARD);
+      frame.setCommand(MOTOR_FRONT_RIGHT, AdafruitMotorHat.BACKWARD);
+      frame.setCommand(MOTOR_BACK_RIGHT, AdafruitMotorHat.FORWARD);
     } else {
       // Negative speed motor directions
-      motorFrontRight.run(AdafruitMotorHat.FORWARD);
-      motorBackRight.run(AdafruitMotorHat.BACKWARD);
+      frame.setCommand(MOTOR_FRONT_RIGHT, AdafruitMotorHat.FORWARD);
+      frame.setCommand(MOTOR_BACK_RIGHT, AdafruitMotorHat.BACKWARD);
     }
+
+    return frame;
+  }
+
+  private static int getUnsignedSpeed(int speed) {
+    int unsignedSpeed = Math.abs(speed);
+    if (unsignedSpeed < MIN_SPEED) {
+      unsignedSpeed = 0;
+    }
+
+    return unsignedSpeed;
   }
 }
@@ -1,13 +1,13 @@
 package com.zugaldia.robocar.app.manual;
 
-import com.zugaldia.robocar.hardware.adafruit2348.AdafruitDcMotor;
 import com.zugaldia.robocar.hardware.adafruit2348.AdafruitMotorHat;
+import com.zugaldia.robocar.hardware.adafruit2348.MotorFrame;
 import com.zugaldia.robocar.software.controller.nes30.Nes30Manager;
 
 import timber.log.Timber;
 
 /**
- * Remote control driver.
+ * Remote control driver. Every key event is sent to the motors as a single {@link MotorFrame}.
  */
 public class RCDriver {
 
@@ -15,10 +15,14 @@ public class RCDriver {
   private static final int MOTOR_SPEED_SLOW = 95;
   private static final int MOTOR_SPEED = 255;
 
-  private AdafruitDcMotor motorFrontLeft;
-  private AdafruitDcMotor motorFrontRight;
-  private AdafruitDcMotor motorBackLeft;
-  private AdafruitDcMotor motorBackRight;
+  // Motor numbers on the hat
+  private static final int MOTOR_FRONT_LEFT = 1;
+  private static final int MOTOR_BACK_LEFT = 2;
+  private static final int MOTOR_FRONT_RIGHT = 3;
+  private static final int MOTOR_BACK_RIGHT = 4;
+
+  private AdafruitMotorHat motorHat;
+  private final MotorFrame frame = new MotorFrame();
 
   private boolean isUpPressed = false;
   private boolean isDownPressed = false;
@@ -30,10 +34,7 @@ public class RCDriver {
   private boolean isMoving = false;
 
   public RCDriver(AdafruitMotorHat motorHat) {
-    motorFrontLeft = motorHat.getMotor(1);
-    motorBackLeft = motorHat.getMotor(2);
-    motorFrontRight = motorHat.getMotor(3);
-    motorBackRight = motorHat.getMotor(4);
+    this.motorHat = motorHat;
   }
 
   public void updateButtonPressedStates(@Nes30Manager.ButtonCode int keyCode, boolean isDown) {
@@ -59,11 +60,17 @@ public class RCDriver {
     allButtonsReleased = !(isUpPressed || isDownPressed || isLeftPressed || isRightPressed);
   }
 
+  /**
+   * Starts a new frame with the speeds (or the release) for the current buttons.
+   */
   private void preCheck(@Nes30Manager.ButtonCode int keyCode, boolean isDown) {
+    frame.clear();
     updateButtonPressedStates(keyCode, isDown);
     if (allButtonsReleased && isMoving) {
       isMoving = false;
-      release();
+      Timber.d("Release.");
+      setCommands(AdafruitMotorHat.RELEASE, AdafruitMotorHat.RELEASE,
+          AdafruitMotorHat.RELEASE, AdafruitMotorHat.RELEASE);
       return;
     }
 
@@ -77,54 +84,55 @@ public class RCDriver {
     preCheck(keyCode, isDown);
 
     Timber.d("Moving forward.");
-    motorFrontLeft.run(AdafruitMotorHat.FORWARD);
-    motorFrontRight.run(AdafruitMotorHat.BACKWARD);
-    motorBackLeft.run(AdafruitMotorHat.BACKWARD);
-    motorBackRight.run(AdafruitMotorHat.FORWARD);
+    setCommands(AdafruitMotorHat.FORWARD, AdafruitMotorHat.BACKWARD,
+        AdafruitMotorHat.BACKWARD, AdafruitMotorHat.FORWARD);
+    motorHat.apply(frame);
   }
 
   public void moveBackward(@Nes30Manager.ButtonCode int keyCode, boolean isDown) {
     preCheck(keyCode, isDown);
 
     Timber.d("Moving backward.");
-    motorFrontLeft.run(AdafruitMotorHat.BACKWARD);
-    motorFrontRight.run(AdafruitMotorHat.FORWARD);
-    motorBackLeft.run(AdafruitMotorHat.FORWARD);
-    motorBackRight.run(AdafruitMotorHat.BACKWARD);
+    setCommands(AdafruitMotorHat.BACKWARD, AdafruitMotorHat.FORWARD,
+        AdafruitMotorHat.FORWARD, AdafruitMotorHat.BACKWARD);
+    motorHat.apply(frame);
   }
 
   public void turnLeft(@Nes30Manager.ButtonCode int keyCode, boolean isDown) {
     preCheck(keyCode, isDown);
-    if (isUpOrDownPressed) {
-      return;
+    if (!isUpOrDownPressed) {
+      Timber.d("Turning left.");
+      setCommands(AdafruitMotorHat.BACKWARD, AdafruitMotorHat.BACKWARD,
+          AdafruitMotorHat.FORWARD, AdafruitMotorHat.FORWARD);
     }
 
-    Timber.d("Turning left.");
-    motorFrontLeft.run(AdafruitMotorHat.BACKWARD);
-    motorFrontRight.run(AdafruitMotorHat.BACKWARD);
-    motorBackLeft.run(AdafruitMotorHat.FORWARD);
-    motorBackRight.run(AdafruitMotorHat.FORWARD);
+    motorHat.apply(frame);
   }
 
   public void turnRight(@Nes30Manager.ButtonCode int keyCode, boolean isDown) {
     preCheck(keyCode, isDown);
-    if (isUpOrDownPressed) {
-      return;
+    if (!isUpOrDownPressed) {
+      Timber.d("Turning right.");
+      setCommands(AdafruitMotorHat.FORWARD, AdafruitMotorHat.FORWARD,
+          AdafruitMotorHat.BACKWARD, AdafruitMotorHat.BACKWARD);
     }
 
-    Timber.d("Turning right.");
-    motorFrontLeft.run(AdafruitMotorHat.FORWARD);
-    motorFrontRight.run(AdafruitMotorHat.FORWARD);
-    motorBackLeft.run(AdafruitMotorHat.BACKWARD);
-    motorBackRight.run(AdafruitMotorHat.BACKWARD);
+    motorHat.apply(frame);
   }
 
   public void release() {
     Timber.d("Release.");
-    motorFrontLeft.run(AdafruitMotorHat.RELEASE);
-    motorFrontRight.run(AdafruitMotorHat.RELEASE);
-    motorBackLeft.run(AdafruitMotorHat.RELEASE);
-    motorBackRight.run(AdafruitMotorHat.RELEASE);
+    frame.clear();
+    setCommands(AdafruitMotorHat.RELEASE, AdafruitMotorHat.RELEASE,
+        AdafruitMotorHat.RELEASE, AdafruitMotorHat.RELEASE);
+    motorHat.apply(frame);
+  }
+
+  private void setCommands(int frontLeft, int frontRight, int backLeft, int backRight) {
+    frame.setCommand(MOTOR_FRONT_LEFT, frontLeft)
+        .setCommand(MOTOR_FRONT_RIGHT, frontRight)
+        .setCommand(MOTOR_BACK_LEFT, backLeft)
+        .setCommand(MOTOR_BACK_RIGHT, backRight);
   }
 
   private void setMotorSpeedsBasedOnButtonsPressed() {
@@ -134,9 +142,9 @@ public class RCDriver {
     int speedLeft = isLowSpeedOnLeft ? MOTOR_SPEED_SLOW : MOTOR_SPEED;
     int speedRight = isLowSpeedOnRight ? MOTOR_SPEED_SLOW : MOTOR_SPEED;
 
-    motorFrontLeft.setSpeed(speedLeft);
-    motorBackLeft.setSpeed(speedLeft);
-    motorFrontRight.setSpeed(speedRight);
-    motorBackRight.setSpeed(speedRight);
+    frame.setSpeed(MOTOR_FRONT_LEFT, speedLeft)
+        .setSpeed(MOTOR_BACK_LEFT, speedLeft)
+        .setSpeed(MOTOR_FRONT_RIGHT, speedRight)
+        .setSpeed(MOTOR_BACK_RIGHT, speedRight);
   }
 }
@@ -0,0 +1,135 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import android.media.Image;
+
+import com.zugaldia.robocar.app.manual.LocalhostDriver;
+import com.zugaldia.robocar.cv.LaneDetectors;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FramePipelineTest {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final long TIMEOUT_MS = 5000;
+
+  private LocalhostDriver driver;
+  private FramePipeline pipeline;
+
+  // Blocks the motor stage until counted down
+  private CountDownLatch motorGate;
+
+  @Before
+  public void setUp() {
+    motorGate = new CountDownLatch(0);
+    driver = mock(LocalhostDriver.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws InterruptedException {
+        motorGate.await();
+        return null;
+      }
+    }).when(driver).setSpeeds(anyInt(), anyInt());
+
+    pipeline = new FramePipeline(WIDTH, HEIGHT, LaneDetectors.YUV, driver, null);
+    pipeline.start();
+  }
+
+  @After
+  public void tearDown() {
+    motorGate.countDown();
+    pipeline.stop();
+  }
+
+  @Test
+  public void testFramesRecycled() throws InterruptedException {
+    // Many more captures than frames, one at a time
+    for (int i = 0; i < 5 * FramePipeline.FRAME_COUNT; i++) {
+      DispatchedFrame frame = newFrame();
+      assertTrue(pipeline.capture(frame));
+      awaitFreeFrames(FramePipeline.FRAME_COUNT);
+      verify(frame, times(1)).release();
+    }
+
+    verify(driver, times(5 * FramePipeline.FRAME_COUNT)).setSpeeds(anyInt(), anyInt());
+    assertEquals(0, pipeline.getStats().get(0).getDropped());
+  }
+
+  @Test
+  public void testCaptureDroppedWhenFull() throws InterruptedException {
+    motorGate = new CountDownLatch(1);
+    DispatchedFrame[] frames = new DispatchedFrame[FramePipeline.FRAME_COUNT];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = newFrame();
+      assertTrue(pipeline.capture(frames[i]));
+    }
+
+    // Every frame is in flight: the capture is dropped, and the caller keeps the image
+    DispatchedFrame dropped = newFrame();
+    assertFalse(pipeline.capture(dropped));
+    assertEquals(0, pipeline.getFreeFrames());
+    assertEquals(1, pipeline.getStats().get(0).getDropped());
+    verify(dropped, times(0)).release();
+
+    // Once the motor stage goes on, every frame comes back, with its image released once
+    motorGate.countDown();
+    awaitFreeFrames(FramePipeline.FRAME_COUNT);
+    for (DispatchedFrame frame : frames) {
+      verify(frame, times(1)).release();
+    }
+    assertTrue(pipeline.capture(newFrame()));
+  }
+
+  private void awaitFreeFrames(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (pipeline.getFreeFrames() != count) {
+      assertTrue("Frames not recycled", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * A frame with a blank I420 image.
+   */
+  private static DispatchedFrame newFrame() {
+    Image.Plane luma = newPlane(WIDTH * HEIGHT, WIDTH, 1);
+    Image.Plane chromaU = newPlane(WIDTH * HEIGHT / 4, WIDTH / 2, 1);
+    Image.Plane chromaV = newPlane(WIDTH * HEIGHT / 4, WIDTH / 2, 1);
+
+    Image image = mock(Image.class);
+    when(image.getWidth()).thenReturn(WIDTH);
+    when(image.getHeight()).thenReturn(HEIGHT);
+    when(image.getPlanes()).thenReturn(new Image.Plane[] {luma, chromaU, chromaV});
+
+    DispatchedFrame frame = mock(DispatchedFrame.class);
+    when(frame.getImage()).thenReturn(image);
+    return frame;
+  }
+
+  private static Image.Plane newPlane(int size, int rowStride, int pixelStride) {
+    Image.Plane plane = mock(Image.Plane.class);
+    when(plane.getBuffer()).thenReturn(ByteBuffer.allocateDirect(size));
+    when(plane.getRowStride()).thenReturn(rowStride);
+    when(plane.getPixelStride()).thenReturn(pixelStride);
+    return plane;
+  }
+}
@@ -0,0 +1,144 @@
+package com.zugaldia.robocar.app.autonomous;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscQueueTest {
+
+  private static final int STRESS_ITEMS = 1000000;
+
+  // What the thread started by startBlocked() threw
+  private final AtomicReference<Throwable> blockingResult = new AtomicReference<>();
+
+  @Test
+  public void testFifoAndWrapAround() {
+    SpscQueue<Integer> queue = new SpscQueue<>(3);
+    assertEquals(3, queue.capacity());
+
+    // Several times around the ring
+    int next = 0;
+    for (int round = 0; round < 10; round++) {
+      assertTrue(queue.offer(next));
+      assertTrue(queue.offer(next + 1));
+      assertEquals(2, queue.size());
+      assertEquals(Integer.valueOf(next), queue.poll());
+      assertEquals(Integer.valueOf(next + 1), queue.poll());
+      assertEquals(0, queue.size());
+      next += 2;
+    }
+  }
+
+  @Test
+  public void testFullAndEmpty() {
+    SpscQueue<String> queue = new SpscQueue<>(2);
+    assertNull(queue.poll());
+    assertTrue(queue.offer("a"));
+    assertTrue(queue.offer("b"));
+    assertFalse(queue.offer("c"));
+    assertEquals(2, queue.size());
+
+    assertEquals("a", queue.poll());
+    assertTrue(queue.offer("c"));
+    assertEquals("b", queue.poll());
+    assertEquals("c", queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new SpscQueue<>(0);
+  }
+
+  @Test
+  public void testStress() throws Exception {
+    final SpscQueue<Integer> queue = new SpscQueue<>(4);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < STRESS_ITEMS; i++) {
+            queue.put(i);
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    });
+    producer.start();
+
+    // Every item arrives, once and in order
+    for (int i = 0; i < STRESS_ITEMS; i++) {
+      assertEquals(i, (int) queue.take());
+    }
+    producer.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(producer.isAlive());
+    assertNull(error.get());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testInterruptTake() throws Exception {
+    final SpscQueue<Integer> queue = new SpscQueue<>(1);
+    Thread consumer = startBlocked(new Blocking() {
+      @Override
+      public void run() throws InterruptedException {
+        queue.take();
+      }
+    });
+    assertInterrupted(consumer);
+  }
+
+  @Test
+  public void testInterruptPut() throws Exception {
+    final SpscQueue<Integer> queue = new SpscQueue<>(1);
+    queue.offer(0);
+    Thread producer = startBlocked(new Blocking() {
+      @Override
+      public void run() throws InterruptedException {
+        queue.put(1);
+      }
+    });
+    assertInterrupted(producer);
+    assertEquals(1, queue.size());
+  }
+
+  private interface Blocking {
+    void run() throws InterruptedException;
+  }
+
+  private Thread startBlocked(final Blocking blocking) throws InterruptedException {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocking.run();
+        } catch (Throwable e) {
+          blockingResult.set(e);
+        }
+      }
+    });
+    thread.start();
+
+    // Wait for the thread to park
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(thread.isAlive());
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  private void assertInterrupted(Thread thread) throws InterruptedException {
+    thread.interrupt();
+    thread.join(TimeUnit.SECONDS.toMillis(5));
+    assertFalse(thread.isAlive());
+    assertTrue(blockingResult.get() instanceof InterruptedException);
+  }
+}
@@ -0,0 +1,57 @@
+package com.zugaldia.robocar.cv.benchmark;
+
+import com.zugaldia.robocar.cv.LaneManager;
+
+import org.bytedeco.javacpp.opencv_core;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Frames used by the benchmarks: either a bundled photo (e.g. "robocar.jpg") or a synthetic
+ * frame of a given size (e.g. "320x240").
+ */
+public class BenchmarkFrames {
+
+  // A pale yellow that falls inside LaneManager's tape colour range (BGR)
+  private static final opencv_core.Scalar TAPE_COLOR = new opencv_core.Scalar(240, 250, 250, 0);
+
+  // Fixed seed, so that every run benchmarks the same frames
+  private static final long SEED = 42;
+
+  /**
+   * Reads a bundled photo, or builds a synthetic frame if the name is a size.
+   */
+  public static opencv_core.Mat read(String frame) {
+    if (frame.matches("\\d+x\\d+")) {
+      String[] size = frame.split("x");
+      return synthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+    }
+
+    URL resource = BenchmarkFrames.class.getResource("/" + frame);
+    if (resource == null) {
+      throw new IllegalArgumentException("Unknown frame: " + frame);
+    }
+
+    return LaneManager.readImage(resource.getPath());
+  }
+
+  /**
+   * Random noise with a strip of tape in the middle of the road, so that every stage of the
+   * pipeline has some work to do.
+   */
+  public static opencv_core.Mat synthetic(int width, int height) {
+    byte[] noise = new byte[width * height * 3];
+    new Random(SEED).nextBytes(noise);
+    opencv_core.Mat frame = new opencv_core.Mat(height, width, opencv_core.CV_8UC3);
+    ByteBuffer buffer = frame.createBuffer();
+    buffer.put(noise);
+
+    LaneManager.drawFilledRectangle(frame,
+        new opencv_core.Point(width / 2 - width / 40, height / 2),
+        new opencv_core.Point(width / 2 + width / 40, height),
+        TAPE_COLOR);
+    return frame;
+  }
+}
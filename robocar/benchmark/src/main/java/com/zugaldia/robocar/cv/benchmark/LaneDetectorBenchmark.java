@@ -0,0 +1,76 @@
+package com.zugaldia.robocar.cv.benchmark;
+
+import com.zugaldia.robocar.cv.HistogramPosition;
+import com.zugaldia.robocar.cv.LaneDetector;
+import com.zugaldia.robocar.cv.LaneDetectors;
+import com.zugaldia.robocar.cv.YuvFrame;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lane detectors on YUV (I420) frames, as delivered by the camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaneDetectorBenchmark {
+
+  @Param({"robocar.jpg", "160x120", "320x240", "640x480"})
+  public String frame;
+
+  @Param({LaneDetectors.OPENCV, LaneDetectors.YUV})
+  public String detector;
+
+  private YuvFrame yuvFrame;
+  private LaneDetector laneDetector;
+
+  @Setup
+  public void setUp() {
+    opencv_core.Mat bgr = BenchmarkFrames.read(frame);
+    opencv_core.Mat i420 = new opencv_core.Mat();
+    opencv_imgproc.cvtColor(bgr, i420, opencv_imgproc.COLOR_BGR2YUV_I420);
+    byte[] data = new byte[(int) i420.total()];
+    ByteBuffer i420Buffer = i420.createBuffer();
+    i420Buffer.get(data);
+
+    yuvFrame = YuvFrame.fromI420(data, bgr.cols(), bgr.rows());
+    laneDetector = LaneDetectors.create(detector, bgr.cols(), bgr.rows());
+  }
+
+  @TearDown
+  public void tearDown() {
+    laneDetector.release();
+  }
+
+  @Benchmark
+  public HistogramPosition findLane() {
+    return laneDetector.findLane(yuvFrame);
+  }
+
+  /**
+   * A LaneTracker search window (the default 4 bins on each side) in the middle of the frame.
+   */
+  @Benchmark
+  public HistogramPosition findLaneWindow() {
+    return laneDetector.findLane(yuvFrame, 12, 21);
+  }
+}
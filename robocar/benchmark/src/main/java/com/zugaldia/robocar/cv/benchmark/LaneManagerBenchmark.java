@@ -0,0 +1,101 @@
+package com.zugaldia.robocar.cv.benchmark;
+
+import com.zugaldia.robocar.cv.ColorLookupTable;
+import com.zugaldia.robocar.cv.HistogramPosition;
+import com.zugaldia.robocar.cv.LaneFinder;
+import com.zugaldia.robocar.cv.LaneManager;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each stage of the lane pipeline, on the bundled photo and on synthetic frames of
+ * different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaneManagerBenchmark {
+
+  @Param({"robocar.jpg", "160x120", "320x240", "640x480"})
+  public String frame;
+
+  private opencv_core.Mat src;
+  private float[] toPoints;
+  private opencv_core.Mat warped;
+  private opencv_core.Mat thresholdBinary;
+  private int[] histogram;
+
+  private LaneFinder laneFinder;
+  private LaneFinder laneFinderLookupTable;
+
+  @Setup
+  public void setUp() {
+    src = BenchmarkFrames.read(frame);
+    toPoints = LaneManager.getToPoints(src.cols(), src.rows());
+    warped = LaneManager.perspectiveTransform(src, LaneManager.SOURCE_POINTS, toPoints);
+    thresholdBinary = LaneManager.thresholdColor(warped);
+    histogram = LaneManager.histogramArray(thresholdBinary);
+
+    laneFinder = new LaneFinder(src.cols(), src.rows());
+    laneFinderLookupTable = new LaneFinder(src.cols(), src.rows());
+    laneFinderLookupTable.setColorLookupTable(ColorLookupTable.getTapeColorTable());
+  }
+
+  @TearDown
+  public void tearDown() {
+    laneFinder.release();
+    laneFinderLookupTable.release();
+  }
+
+  @Benchmark
+  public opencv_core.Mat perspectiveTransform() {
+    return LaneManager.perspectiveTransform(src, LaneManager.SOURCE_POINTS, toPoints);
+  }
+
+  @Benchmark
+  public opencv_core.Mat thresholdColor() {
+    return LaneManager.thresholdColor(warped);
+  }
+
+  @Benchmark
+  public int[] histogramArray() {
+    return LaneManager.histogramArray(thresholdBinary);
+  }
+
+  @Benchmark
+  public HistogramPosition getMaxPosition() {
+    return LaneManager.getMaxPosition(histogram);
+  }
+
+  @Benchmark
+  public HistogramPosition findLane() {
+    return LaneManager.findLane(src);
+  }
+
+  @Benchmark
+  public HistogramPosition laneFinder() {
+    return laneFinder.findLane(src);
+  }
+
+  @Benchmark
+  public HistogramPosition laneFinderLookupTable() {
+    return laneFinderLookupTable.findLane(src);
+  }
+}
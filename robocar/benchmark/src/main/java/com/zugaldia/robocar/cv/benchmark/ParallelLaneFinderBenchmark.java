@@ -0,0 +1,69 @@
+package com.zugaldia.robocar.cv.benchmark;
+
+import com.zugaldia.robocar.cv.ColorLookupTable;
+import com.zugaldia.robocar.cv.HistogramPosition;
+import com.zugaldia.robocar.cv.LaneFinder;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speedup of the striped LaneFinder over the serial one (stripes = 1).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelLaneFinderBenchmark {
+
+  @Param({"320x240", "640x480"})
+  public String frame;
+
+  @Param({"1", "2", "4"})
+  public int stripes;
+
+  @Param({"false", "true"})
+  public boolean lookupTable;
+
+  private opencv_core.Mat src;
+  private ForkJoinPool pool;
+  private LaneFinder laneFinder;
+
+  @Setup
+  public void setUp() {
+    src = BenchmarkFrames.read(frame);
+    pool = new ForkJoinPool(stripes);
+    laneFinder = new LaneFinder(src.cols(), src.rows());
+    laneFinder.setParallelism(pool, stripes);
+    if (lookupTable) {
+      laneFinder.setColorLookupTable(ColorLookupTable.getTapeColorTable());
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    laneFinder.release();
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public HistogramPosition findLane() {
+    return laneFinder.findLane(src);
+  }
+}
@@ -0,0 +1,139 @@
+package com.zugaldia.robocar.cv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a folder of JPEG photos, like the ones saved by the app's TensorFlowTrainer:
+ * robocar-[session]-[sequence]-[yyyyMMddHHmmssSSS]-[speed1]-[speed2]-[speed3]-[speed4].jpg.
+ * <p>
+ * <p>Those are replayed by session and sequence number, with the timestamp and speeds from the
+ * name (the timestamp only has millisecond resolution). Other JPEG files are replayed after
+ * them, in name order, with no timestamp or speeds.
+ */
+public class JpegFolderSource implements ReplaySource {
+
+  private static final Pattern TRAINER_NAME = Pattern.compile(
+      "robocar-([0-9a-f]+)-(\\d+)-(\\d{17})-(-?\\d+)-(-?\\d+)-(-?\\d+)-(-?\\d+)\\.jpg");
+  private static final String DATE_FORMAT = "yyyyMMddHHmmssSSS";
+  private static final int[] UNKNOWN_SPEEDS = new int[] {-1, -1, -1, -1};
+
+  private final List<File> files = new ArrayList<>();
+  private final List<ReplayFrame> frames = new ArrayList<>();
+
+  public JpegFolderSource(File folder) throws IOException {
+    File[] children = folder.listFiles();
+    if (children == null) {
+      throw new IOException("Not a folder: " + folder);
+    }
+
+    List<TrainerPhoto> parsed = new ArrayList<>();
+    List<File> others = new ArrayList<>();
+    SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+    for (File child : children) {
+      String name = child.getName();
+      if (!name.toLowerCase(Locale.US).endsWith(".jpg")) {
+        continue;
+      }
+
+      TrainerPhoto photo = parse(child, dateFormat);
+      if (photo != null) {
+        parsed.add(photo);
+      } else {
+        others.add(child);
+      }
+    }
+
+    Collections.sort(parsed, new Comparator<TrainerPhoto>() {
+      @Override
+      public int compare(TrainerPhoto a, TrainerPhoto b) {
+        int bySession = a.session.compareTo(b.session);
+        return bySession != 0 ? bySession : Long.compare(a.sequence, b.sequence);
+      }
+    });
+    Collections.sort(others);
+
+    for (TrainerPhoto photo : parsed) {
+      add(photo.file, photo.session, photo.timestamp, photo.speeds);
+    }
+    for (File other : others) {
+      add(other, null, 0, UNKNOWN_SPEEDS);
+    }
+  }
+
+  private void add(File file, String session, long timestamp, int[] speeds) {
+    frames.add(new ReplayFrame(frames.size(), file.getName(), session, timestamp, speeds));
+    files.add(file);
+  }
+
+  /**
+   * Returns null if the name isn't one of the trainer's.
+   */
+  static TrainerPhoto parse(File file, SimpleDateFormat dateFormat) {
+    Matcher matcher = TRAINER_NAME.matcher(file.getName());
+    if (!matcher.matches()) {
+      return null;
+    }
+
+    try {
+      long millis = dateFormat.parse(matcher.group(3)).getTime();
+      int[] speeds = new int[4];
+      for (int i = 0; i < speeds.length; i++) {
+        speeds[i] = Integer.parseInt(matcher.group(4 + i));
+      }
+      return new TrainerPhoto(file, matcher.group(1), Long.parseLong(matcher.group(2)),
+          millis * 1000000L, speeds);
+    } catch (ParseException | NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public int size() {
+    return frames.size();
+  }
+
+  @Override
+  public ReplayFrame getFrame(int index) {
+    return frames.get(index);
+  }
+
+  @Override
+  public byte[] readPhoto(int index) throws IOException {
+    return Files.readAllBytes(files.get(index).toPath());
+  }
+
+  @Override
+  public void close() {
+    // Files are only open while being read
+  }
+
+  /**
+   * What the trainer encodes in the file name.
+   */
+  static class TrainerPhoto {
+    final File file;
+    final String session;
+    final long sequence;
+    final long timestamp;
+    final int[] speeds;
+
+    TrainerPhoto(File file, String session, long sequence, long timestamp, int[] speeds) {
+      this.file = file;
+      this.session = session;
+      this.sequence = sequence;
+      this.timestamp = timestamp;
+      this.speeds = speeds;
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package com.zugaldia.robocar.cv;
+
+import com.zugaldia.robocar.dataset.Segment;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs recorded sessions through the lane pipeline ({@link LaneDetector} and
+ * {@link LaneTracker}) offline, to measure it and to compare detectors or parameters on the
+ * same data without the car.
+ * <p>
+ * <p>Photos are read and decoded to I420 (what the camera delivers) on a pool of prefetch
+ * threads, a few frames ahead, so the lane stage, which runs on the calling thread in capture
+ * order, doesn't wait for the JPEG decoder. Frames are replayed as fast as possible, or at the
+ * pace they were recorded at (see {@link RealTimePacer}).
+ * <p>
+ * <p>Usage: ReplayEngine [--detector yuv|opencv] [--realtime] [--threads n] [--trace file.csv]
+ * photo-folder-or-segment...
+ */
+public class ReplayEngine {
+
+  public static final int DEFAULT_WIDTH = 320;
+  public static final int DEFAULT_HEIGHT = 240;
+  public static final int DEFAULT_DECODE_THREADS =
+      Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+  // Frames decoded ahead of the lane stage, per decode thread
+  private static final int PREFETCH_PER_THREAD = 4;
+
+  // Longer than this between two frames of a session, the recording was paused
+  private static final long MAX_PACING_GAP_NANOS = 1000000000L;
+
+  private final String detectorName;
+  private final int width;
+  private final int height;
+  private final int decodeThreads;
+
+  /**
+   * Replays with the named detector (see {@link LaneDetectors}). Photos of another size are
+   * resized to the given one.
+   */
+  public ReplayEngine(String detectorName, int width, int height, int decodeThreads) {
+    if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0 || decodeThreads < 1) {
+      throw new LaneManagerException("Invalid replay parameters.");
+    }
+
+    this.detectorName = detectorName;
+    this.width = width;
+    this.height = height;
+    this.decodeThreads = decodeThreads;
+  }
+
+  /**
+   * Replays every frame of the source. With realTime, frames are spaced like their timestamps
+   * (if they have any, see {@link RealTimePacer}), otherwise they're processed as soon as
+   * they're decoded.
+   */
+  public ReplayReport replay(ReplaySource source, boolean realTime) throws IOException {
+    ExecutorService decoder = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "REPLAY_DECODE_" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    LaneDetector detector = LaneDetectors.create(detectorName, width, height);
+    LaneTracker tracker = new LaneTracker(detector);
+    ReplayReport report = new ReplayReport();
+    ArrayDeque<Future<DecodedFrame>> pending = new ArrayDeque<>();
+    int prefetch = decodeThreads * PREFETCH_PER_THREAD;
+    int size = source.size();
+    int next = 0;
+
+    RealTimePacer pacer = new RealTimePacer();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < size; i++) {
+        while (next < size && next - i < prefetch) {
+          pending.add(decoder.submit(new DecodeTask(source, next++)));
+        }
+
+        Future<DecodedFrame> future = pending.poll();
+        boolean starved = !future.isDone();
+        long waitStart = System.nanoTime();
+        DecodedFrame decoded = await(future);
+        report.addDecodeWait(System.nanoTime() - waitStart, starved);
+        ReplayFrame frame = source.getFrame(i);
+        if (decoded.error != null) {
+          report.addFailedFrame(frame, decoded.error);
+          continue;
+        }
+
+        if (realTime) {
+          pacer.pace(frame);
+        }
+
+        long laneStart = System.nanoTime();
+        boolean found = tracker.track(YuvFrame.fromI420(decoded.i420, width, height));
+        long laneNanos = System.nanoTime() - laneStart;
+        report.addFrame(frame, found, tracker.isTracking(), tracker.getPosition(),
+            laneNanos, decoded.decodeNanos);
+      }
+
+      report.finish(System.nanoTime() - start, tracker);
+    } finally {
+      decoder.shutdownNow();
+      detector.release();
+    }
+
+    return report;
+  }
+
+  private static DecodedFrame await(Future<DecodedFrame> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      return new DecodedFrame(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Replay interrupted");
+    }
+  }
+
+  /**
+   * Sleeps until the given System.nanoTime().
+   */
+  private static void sleepUntil(long target) throws IOException {
+    long delay = target - System.nanoTime();
+    if (delay <= 0) {
+      return;
+    }
+
+    try {
+      Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Replay interrupted");
+    }
+  }
+
+  /**
+   * Decodes a JPEG to I420 at the given size.
+   */
+  static byte[] decode(byte[] photo, int width, int height) {
+    if (photo.length == 0) {
+      throw new LaneManagerException("The photo is empty.");
+    }
+
+    opencv_core.Mat encoded = new opencv_core.Mat(1, photo.length, opencv_core.CV_8UC1);
+    encoded.data().put(photo);
+    opencv_core.Mat bgr = opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR);
+    opencv_core.Mat i420 = new opencv_core.Mat();
+    try {
+      if (bgr.empty()) {
+        throw new LaneManagerException("The photo could not be decoded.");
+      }
+
+      if (bgr.cols() != width || bgr.rows() != height) {
+        opencv_core.Mat resized = new opencv_core.Mat();
+        opencv_imgproc.resize(bgr, resized, new opencv_core.Size(width, height),
+            0, 0, opencv_imgproc.INTER_AREA);
+        bgr.release();
+        bgr = resized;
+      }
+
+      opencv_imgproc.cvtColor(bgr, i420, opencv_imgproc.COLOR_BGR2YUV_I420);
+      byte[] data = new byte[width * height * 3 / 2];
+      ByteBuffer buffer = i420.createBuffer();
+      buffer.get(data);
+      return data;
+    } finally {
+      i420.release();
+      bgr.release();
+      encoded.release();
+    }
+  }
+
+  /**
+   * Spaces frames like their timestamps. Frames without one aren't delayed, and the clock is
+   * re-based (without waiting) on the first frame of a session, when timestamps go backwards, or
+   * when they jump ahead by more than {@link #MAX_PACING_GAP_NANOS}, so that a replay of several
+   * sessions or of a paused recording doesn't stall.
+   */
+  static class RealTimePacer {
+    private boolean started;
+    private String session;
+    private long lastTimestamp;
+    private long baseTimestamp;
+    private long baseNanos;
+
+    void pace(ReplayFrame frame) throws IOException {
+      long timestamp = frame.getTimestamp();
+      if (timestamp == 0) {
+        return;
+      }
+
+      if (!started || !Objects.equals(session, frame.getSession())
+          || timestamp < lastTimestamp || timestamp - lastTimestamp > MAX_PACING_GAP_NANOS) {
+        started = true;
+        session = frame.getSession();
+        baseTimestamp = timestamp;
+        baseNanos = System.nanoTime();
+      } else {
+        sleepUntil(baseNanos + timestamp - baseTimestamp);
+      }
+
+      lastTimestamp = timestamp;
+    }
+  }
+
+  private class DecodeTask implements Callable<DecodedFrame> {
+    private final ReplaySource source;
+    private final int index;
+
+    DecodeTask(ReplaySource source, int index) {
+      this.source = source;
+      this.index = index;
+    }
+
+    @Override
+    public DecodedFrame call() throws IOException {
+      long start = System.nanoTime();
+      byte[] i420 = decode(source.readPhoto(index), width, height);
+      return new DecodedFrame(i420, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * The I420 data of the photo, or why it couldn't be read or decoded.
+   */
+  private static class DecodedFrame {
+    final byte[] i420;
+    final long decodeNanos;
+    final Throwable error;
+
+    DecodedFrame(byte[] i420, long decodeNanos) {
+      this.i420 = i420;
+      this.decodeNanos = decodeNanos;
+      this.error = null;
+    }
+
+    DecodedFrame(Throwable error) {
+      this.i420 = null;
+      this.decodeNanos = 0;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Opens a segment, a folder of segments, or a folder of photos.
+   */
+  static ReplaySource open(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children == null) {
+      return new SegmentSource(Arrays.asList(file));
+    }
+
+    Arrays.sort(children);
+    List<File> segments = new ArrayList<>();
+    for (File child : children) {
+      if (child.getName().endsWith(Segment.EXTENSION)) {
+        segments.add(child);
+      }
+    }
+
+    return segments.isEmpty() ? new JpegFolderSource(file) : new SegmentSource(segments);
+  }
+
+  public static void main(String[] args) throws IOException {
+    String detectorName = LaneDetectors.YUV;
+    boolean realTime = false;
+    int threads = DEFAULT_DECODE_THREADS;
+    String tracePath = null;
+    List<File> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--detector".equals(args[i]) && i + 1 < args.length) {
+        detectorName = args[++i];
+      } else if ("--realtime".equals(args[i])) {
+        realTime = true;
+      } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("--trace".equals(args[i]) && i + 1 < args.length) {
+        tracePath = args[++i];
+      } else {
+        inputs.add(new File(args[i]));
+      }
+    }
+
+    if (inputs.isEmpty()) {
+      System.err.println("Usage: ReplayEngine [--detector yuv|opencv] [--realtime] "
+          + "[--threads n] [--trace file.csv] photo-folder-or-segment...");
+      System.exit(1);
+    }
+
+    ReplayEngine engine = new ReplayEngine(detectorName, DEFAULT_WIDTH, DEFAULT_HEIGHT, threads);
+    for (int i = 0; i < inputs.size(); i++) {
+      ReplaySource source = open(inputs.get(i));
+      try {
+        ReplayReport report = engine.replay(source, realTime);
+        System.out.println(String.format(Locale.US, "%s (%s detector, %d decode threads)%n%s",
+            inputs.get(i), detectorName, threads, report));
+        for (String failure : report.getFailures()) {
+          System.err.println("Skipped " + failure);
+        }
+        if (tracePath != null) {
+          File trace = new File(inputs.size() == 1 ? tracePath : tracePath + "." + i);
+          report.writeTrace(trace);
+          System.out.println("Lane trace written to " + trace);
+        }
+      } finally {
+        source.close();
+      }
+    }
+  }
+}
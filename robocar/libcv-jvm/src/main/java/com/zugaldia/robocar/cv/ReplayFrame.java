@@ -0,0 +1,63 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * A recorded frame to replay: where it comes from, when it was taken (and in which session) and
+ * the motor speeds at the time. The photo itself is read separately, see
+ * {@link ReplaySource#readPhoto(int)}.
+ */
+public class ReplayFrame {
+
+  private final int index;
+  private final String name;
+  private final String session;
+  private final long timestamp;
+  private final int[] speeds;
+
+  /**
+   * The timestamp is in nanoseconds, or 0 if unknown. The session is null if unknown.
+   */
+  public ReplayFrame(int index, String name, String session, long timestamp, int[] speeds) {
+    this.index = index;
+    this.name = name;
+    this.session = session;
+    this.timestamp = timestamp;
+    this.speeds = speeds;
+  }
+
+  /**
+   * Position of the frame in its source.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * The file name, or the segment and record, for the lane trace.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The recording the frame comes from, e.g. the segment file or the trainer session: timestamps
+   * are only comparable between frames of the same session.
+   */
+  public String getSession() {
+    return session;
+  }
+
+  /**
+   * When the photo was taken, in nanoseconds (only the difference between frames matters), or 0
+   * if unknown.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Speeds of motors 1 to 4, -1 if a motor was never set.
+   */
+  public int[] getSpeeds() {
+    return speeds.clone();
+  }
+}
@@ -0,0 +1,234 @@
+package com.zugaldia.robocar.cv;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a {@link ReplayEngine} run measured: throughput, per-frame latencies, how often the
+ * lane stage had to wait for a decoded frame, and the lane position of every frame.
+ */
+public class ReplayReport {
+
+  private static final String TRACE_HEADER =
+      "index,name,timestamp,found,tracking,position,speed1,speed2,speed3,speed4,lane_ms,decode_ms";
+
+  private final List<Entry> trace = new ArrayList<>();
+  private final List<String> failures = new ArrayList<>();
+  private int starvedFrames;
+  private long decodeWaitNanos;
+  private long elapsedNanos;
+  private long windowSearches;
+  private long fullSearches;
+
+  void addFrame(ReplayFrame frame, boolean found, boolean tracking, double position,
+                long laneNanos, long decodeNanos) {
+    trace.add(new Entry(frame, found, tracking, position, laneNanos, decodeNanos));
+  }
+
+  void addFailedFrame(ReplayFrame frame, Throwable error) {
+    failures.add(frame.getName() + ": " + error);
+  }
+
+  void addDecodeWait(long nanos, boolean starved) {
+    decodeWaitNanos += nanos;
+    if (starved) {
+      starvedFrames++;
+    }
+  }
+
+  void finish(long elapsedNanos, LaneTracker tracker) {
+    this.elapsedNanos = elapsedNanos;
+    windowSearches = tracker.getWindowSearches();
+    fullSearches = tracker.getFullSearches();
+  }
+
+  /**
+   * Frames that went through the lane stage.
+   */
+  public int getFrames() {
+    return trace.size();
+  }
+
+  /**
+   * Frames that couldn't be read or decoded, and were skipped.
+   */
+  public int getFailedFrames() {
+    return failures.size();
+  }
+
+  /**
+   * The name of each skipped frame, and why it was skipped.
+   */
+  public List<String> getFailures() {
+    return Collections.unmodifiableList(failures);
+  }
+
+  /**
+   * Frames that weren't decoded yet when the lane stage asked for them.
+   */
+  public int getStarvedFrames() {
+    return starvedFrames;
+  }
+
+  /**
+   * Total time the lane stage spent waiting for decoded frames.
+   */
+  public double getDecodeWaitMs() {
+    return decodeWaitNanos / 1e6;
+  }
+
+  public double getElapsedMs() {
+    return elapsedNanos / 1e6;
+  }
+
+  public double getFramesPerSecond() {
+    return elapsedNanos == 0 ? 0 : trace.size() * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * The given percentile (0 to 100) of the lane stage (detection and tracking) time per frame.
+   */
+  public double getLaneLatencyMs(double percentile) {
+    long[] latencies = new long[trace.size()];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = trace.get(i).laneNanos;
+    }
+    return getPercentile(latencies, percentile) / 1e6;
+  }
+
+  /**
+   * The given percentile (0 to 100) of the read and decode time per frame, on a decode thread.
+   */
+  public double getDecodeLatencyMs(double percentile) {
+    long[] latencies = new long[trace.size()];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = trace.get(i).decodeNanos;
+    }
+    return getPercentile(latencies, percentile) / 1e6;
+  }
+
+  /**
+   * Nearest-rank percentile.
+   */
+  static long getPercentile(long[] values, double percentile) {
+    if (values.length == 0) {
+      return 0;
+    }
+
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+  }
+
+  /**
+   * Frames in which the lane was found.
+   */
+  public int getFoundFrames() {
+    int found = 0;
+    for (Entry entry : trace) {
+      if (entry.found) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  public List<Entry> getTrace() {
+    return Collections.unmodifiableList(trace);
+  }
+
+  /**
+   * Writes the trace as a CSV file, one line per frame.
+   */
+  public void writeTrace(File file) throws IOException {
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    try {
+      writer.println(TRACE_HEADER);
+      for (Entry entry : trace) {
+        int[] speeds = entry.frame.getSpeeds();
+        writer.println(String.format(Locale.US, "%d,%s,%d,%b,%b,%.3f,%d,%d,%d,%d,%.3f,%.3f",
+            entry.frame.getIndex(), entry.frame.getName(), entry.frame.getTimestamp(),
+            entry.found, entry.tracking, entry.position,
+            speeds[0], speeds[1], speeds[2], speeds[3],
+            entry.laneNanos / 1e6, entry.decodeNanos / 1e6));
+      }
+
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + file);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "%d frames (%d failed) in %.1f ms: %.1f FPS, lane found in %d%n"
+            + "Lane ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f "
+            + "(%d window searches, %d full searches)%n"
+            + "Decode ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n"
+            + "Waited %.1f ms for decoded frames (%d starved frames)",
+        getFrames(), getFailedFrames(), getElapsedMs(), getFramesPerSecond(), getFoundFrames(),
+        getLaneLatencyMs(50), getLaneLatencyMs(90), getLaneLatencyMs(99), getLaneLatencyMs(100),
+        windowSearches, fullSearches,
+        getDecodeLatencyMs(50), getDecodeLatencyMs(90), getDecodeLatencyMs(99),
+        getDecodeLatencyMs(100), getDecodeWaitMs(), starvedFrames);
+  }
+
+  /**
+   * The outcome of a frame.
+   */
+  public static class Entry {
+    private final ReplayFrame frame;
+    private final boolean found;
+    private final boolean tracking;
+    private final double position;
+    private final long laneNanos;
+    private final long decodeNanos;
+
+    Entry(ReplayFrame frame, boolean found, boolean tracking, double position,
+          long laneNanos, long decodeNanos) {
+      this.frame = frame;
+      this.found = found;
+      this.tracking = tracking;
+      this.position = position;
+      this.laneNanos = laneNanos;
+      this.decodeNanos = decodeNanos;
+    }
+
+    public ReplayFrame getFrame() {
+      return frame;
+    }
+
+    /**
+     * Whether the lane was found in this frame.
+     */
+    public boolean isFound() {
+      return found;
+    }
+
+    /**
+     * Whether there was a position estimate after this frame, see
+     * {@link LaneTracker#isTracking()}.
+     */
+    public boolean isTracking() {
+      return tracking;
+    }
+
+    /**
+     * The smoothed lane position after this frame, in histogram bins.
+     */
+    public double getPosition() {
+      return position;
+    }
+  }
+}
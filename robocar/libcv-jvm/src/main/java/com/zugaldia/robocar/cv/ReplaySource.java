@@ -0,0 +1,22 @@
+package com.zugaldia.robocar.cv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A recorded session, as a list of frames in capture order.
+ * <p>
+ * <p>{@link #readPhoto(int)} is called from the decode threads of {@link ReplayEngine}, so it
+ * must be thread-safe. The other methods are only called from the replay thread.
+ */
+public interface ReplaySource extends Closeable {
+
+  int size();
+
+  ReplayFrame getFrame(int index);
+
+  /**
+   * The encoded (JPEG) photo of the frame.
+   */
+  byte[] readPhoto(int index) throws IOException;
+}
@@ -0,0 +1,83 @@
+package com.zugaldia.robocar.cv;
+
+import com.zugaldia.robocar.dataset.Segment;
+import com.zugaldia.robocar.dataset.SegmentReader;
+import com.zugaldia.robocar.dataset.SegmentRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays one or more dataset segments (see {@link Segment}), in the given order, with the
+ * sensor timestamps and motor speeds they were recorded with.
+ * <p>
+ * <p>The segments are memory-mapped, and reading a photo is a copy out of the mapping, which
+ * is safe from several threads.
+ */
+public class SegmentSource implements ReplaySource {
+
+  private final List<SegmentReader> readers = new ArrayList<>();
+  private final List<ReplayFrame> frames = new ArrayList<>();
+
+  // Reader and record of each frame
+  private final int[] readerIndexes;
+  private final int[] recordIndexes;
+
+  public SegmentSource(List<File> segments) throws IOException {
+    try {
+      for (File segment : segments) {
+        readers.add(new SegmentReader(segment));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+
+    int total = 0;
+    for (SegmentReader reader : readers) {
+      total += reader.size();
+    }
+
+    readerIndexes = new int[total];
+    recordIndexes = new int[total];
+    for (int r = 0; r < readers.size(); r++) {
+      SegmentReader reader = readers.get(r);
+      for (SegmentRecord record : reader) {
+        int index = frames.size();
+        readerIndexes[index] = r;
+        recordIndexes[index] = record.getIndex();
+        frames.add(new ReplayFrame(index,
+            String.format(Locale.US, "%s#%d", reader.getFile().getName(), record.getIndex()),
+            reader.getFile().getName(), record.getTimestamp(), record.getSpeeds()));
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return frames.size();
+  }
+
+  @Override
+  public ReplayFrame getFrame(int index) {
+    return frames.get(index);
+  }
+
+  @Override
+  public byte[] readPhoto(int index) {
+    SegmentRecord record = readers.get(readerIndexes[index]).get(recordIndexes[index]);
+    byte[] photo = new byte[record.getPhotoSize()];
+    record.getPhoto().get(photo);
+    return photo;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (SegmentReader reader : readers) {
+      reader.close();
+    }
+  }
+}
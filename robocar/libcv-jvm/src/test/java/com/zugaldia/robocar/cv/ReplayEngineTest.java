@@ -0,0 +1,226 @@
+package com.zugaldia.robocar.cv;
+
+import com.zugaldia.robocar.dataset.SegmentWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayEngineTest extends BaseTest {
+
+  private final static double DELTA = 0.0001;
+  private final static String SESSION = "0123456789abcdef0123456789abcdef";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testParseTrainerName() throws Exception {
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmssSSS", Locale.US);
+    JpegFolderSource.TrainerPhoto photo = JpegFolderSource.parse(
+        new File("robocar-" + SESSION + "-12-20170616103000250-128-128--1-64.jpg"), dateFormat);
+    assertNotNull(photo);
+    assertEquals(SESSION, photo.session);
+    assertEquals(12, photo.sequence);
+    assertArrayEquals(new int[] {128, 128, -1, 64}, photo.speeds);
+    assertEquals(dateFormat.parse("20170616103000250").getTime() * 1000000L, photo.timestamp);
+
+    assertNull(JpegFolderSource.parse(new File("robocar.jpg"), dateFormat));
+    assertNull(JpegFolderSource.parse(new File("robocar-lanetest-01.jpg"), dateFormat));
+  }
+
+  @Test
+  public void testJpegFolderOrder() throws IOException {
+    File photos = writePhotos();
+    JpegFolderSource source = new JpegFolderSource(photos);
+
+    // By sequence number (10 after 9), then the other photos by name
+    assertEquals(LANE_TEST_IMAGES.length + 1, source.size());
+    for (int i = 0; i < LANE_TEST_IMAGES.length; i++) {
+      ReplayFrame frame = source.getFrame(i);
+      assertEquals(i, frame.getIndex());
+      assertArrayEquals(getSpeeds(i), frame.getSpeeds());
+      assertEquals(getTrainerName(i), frame.getName());
+    }
+
+    ReplayFrame other = source.getFrame(LANE_TEST_IMAGES.length);
+    assertEquals("other.jpg", other.getName());
+    assertEquals(0, other.getTimestamp());
+    source.close();
+  }
+
+  @Test
+  public void testReplayMatchesTracker() throws IOException {
+    LaneTracker tracker = new LaneTracker(LaneDetectors.create(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+    double[] expected = new double[LANE_TEST_IMAGES.length];
+    for (int i = 0; i < LANE_TEST_IMAGES.length; i++) {
+      byte[] i420 = LaneDetectorTest.toI420(
+          LaneManager.readImage(getResourcePath(LANE_TEST_IMAGES[i])));
+      tracker.track(YuvFrame.fromI420(i420, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      expected[i] = tracker.getPosition();
+    }
+
+    ReplayEngine engine = new ReplayEngine(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, 3);
+    JpegFolderSource source = new JpegFolderSource(writePhotos());
+    ReplayReport report = engine.replay(source, false);
+    source.close();
+
+    // The last photo is a copy of the first one
+    assertEquals(LANE_TEST_IMAGES.length + 1, report.getFrames());
+    assertEquals(0, report.getFailedFrames());
+    List<ReplayReport.Entry> trace = report.getTrace();
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], trace.get(i).getPosition(), DELTA);
+    }
+  }
+
+  @Test
+  public void testSegmentReplay() throws IOException {
+    File segment = new File(folder.getRoot(), "session.seg");
+    SegmentWriter writer = new SegmentWriter(segment);
+    for (int i = 0; i < LANE_TEST_IMAGES.length; i++) {
+      writer.append(1000000L * i, getSpeeds(i), ByteBuffer.wrap(readPhoto(i)));
+    }
+    writer.close();
+
+    ReplayEngine engine = new ReplayEngine(
+        LaneDetectors.OPENCV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, 2);
+    ReplaySource source = ReplayEngine.open(folder.getRoot());
+    ReplayReport fromSegment = engine.replay(source, true);
+    source.close();
+
+    source = new JpegFolderSource(writePhotos());
+    ReplayReport fromPhotos = engine.replay(source, false);
+    source.close();
+
+    assertEquals(LANE_TEST_IMAGES.length, fromSegment.getFrames());
+    for (int i = 0; i < LANE_TEST_IMAGES.length; i++) {
+      ReplayReport.Entry entry = fromSegment.getTrace().get(i);
+      assertEquals(1000000L * i, entry.getFrame().getTimestamp());
+      assertArrayEquals(getSpeeds(i), entry.getFrame().getSpeeds());
+      assertEquals(fromPhotos.getTrace().get(i).getPosition(), entry.getPosition(), DELTA);
+    }
+  }
+
+  @Test
+  public void testRealTimeReplay() throws IOException {
+    // A second session recorded earlier, and a pause within it
+    long second = 1000000000L;
+    writeSegment("a.seg", 100 * second, 100 * second + 100000000L, 100 * second + 200000000L);
+    writeSegment("b.seg", 10 * second, 10 * second + 100000000L, 70 * second);
+
+    ReplayEngine engine = new ReplayEngine(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, 2);
+    ReplaySource source = ReplayEngine.open(folder.getRoot());
+    assertEquals("a.seg", source.getFrame(0).getSession());
+    assertEquals("b.seg", source.getFrame(3).getSession());
+    ReplayReport report = engine.replay(source, true);
+    source.close();
+
+    // 200 ms in the first session and 100 ms in the second one, the pause isn't waited for
+    assertEquals(6, report.getFrames());
+    assertTrue(report.getElapsedMs() >= 300);
+    assertTrue(report.getElapsedMs() < 30000);
+  }
+
+  @Test
+  public void testCorruptPhotoSkipped() throws IOException {
+    File photos = folder.newFolder("corrupt");
+    Files.copy(new File(getResourcePath(TEST_IMAGE)).toPath(), new File(photos, "a.jpg").toPath());
+    FileOutputStream output = new FileOutputStream(new File(photos, "b.jpg"));
+    output.write(new byte[] {(byte) 0xFF, (byte) 0xD8, 1, 2, 3});
+    output.close();
+
+    ReplayEngine engine = new ReplayEngine(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, 1);
+    JpegFolderSource source = new JpegFolderSource(photos);
+    ReplayReport report = engine.replay(source, false);
+    source.close();
+    assertEquals(1, report.getFrames());
+    assertEquals(1, report.getFailedFrames());
+  }
+
+  @Test
+  public void testTrace() throws IOException {
+    ReplayEngine engine = new ReplayEngine(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, 2);
+    JpegFolderSource source = new JpegFolderSource(writePhotos());
+    ReplayReport report = engine.replay(source, false);
+    source.close();
+
+    File trace = folder.newFile("trace.csv");
+    report.writeTrace(trace);
+    List<String> lines = Files.readAllLines(trace.toPath(), Charset.forName("UTF-8"));
+    assertEquals(report.getFrames() + 1, lines.size());
+    assertEquals(12, lines.get(1).split(",").length);
+  }
+
+  @Test
+  public void testPercentile() {
+    long[] values = new long[] {5, 1, 4, 2, 3, 10, 9, 8, 7, 6};
+    assertEquals(5, ReplayReport.getPercentile(values, 50));
+    assertEquals(9, ReplayReport.getPercentile(values, 90));
+    assertEquals(10, ReplayReport.getPercentile(values, 99));
+    assertEquals(1, ReplayReport.getPercentile(values, 0));
+    assertEquals(0, ReplayReport.getPercentile(new long[0], 50));
+    assertEquals(5, values[0]);
+  }
+
+  /**
+   * Copies the lane test photos with TensorFlowTrainer names, and the first one again with
+   * another name.
+   */
+  private File writePhotos() throws IOException {
+    File photos = new File(folder.getRoot(), "photos");
+    if (photos.isDirectory()) {
+      return photos;
+    }
+
+    photos = folder.newFolder("photos");
+    for (int i = 0; i < LANE_TEST_IMAGES.length; i++) {
+      Files.write(new File(photos, getTrainerName(i)).toPath(), readPhoto(i));
+    }
+    Files.write(new File(photos, "other.jpg").toPath(), readPhoto(0));
+    return photos;
+  }
+
+  private void writeSegment(String name, long... timestamps) throws IOException {
+    SegmentWriter writer = new SegmentWriter(new File(folder.getRoot(), name));
+    for (int i = 0; i < timestamps.length; i++) {
+      writer.append(timestamps[i], getSpeeds(i), ByteBuffer.wrap(readPhoto(i)));
+    }
+    writer.close();
+  }
+
+    private byte[] readPhoto(int index) throws IOException {
+    return Files.readAllBytes(new File(getResourcePath(LANE_TEST_IMAGES[index])).toPath());
+  }
+
+  private static String getTrainerName(int index) {
+    int[] speeds = getSpeeds(index);
+    return String.format(Locale.US, "robocar-%s-%d-201706161030%05d-%d-%d-%d-%d.jpg",
+        SESSION, index, index * 250, speeds[0], speeds[1], speeds[2], speeds[3]);
+  }
+
+  private static int[] getSpeeds(int index) {
+    return new int[] {100 + index, 100 - index, -1, 255};
+  }
+}
@@ -0,0 +1,126 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.indexer.UByteRawIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fused BGR to HSV to binary threshold. Instead of converting every frame to HSV and then
+ * calling `inRange`, this precomputes once (per colour range) whether each of the 2^24 BGR
+ * values falls inside the HSV bounds, and stores the answer as a 2 MB bitset. Thresholding a
+ * frame becomes a single sweep over the BGR bytes with one table lookup per pixel.
+ * <p>
+ * <p>The table is built with OpenCV's own `cvtColor` and `inRange`, so the result is exactly
+ * the same as {@link LaneManager#thresholdColor(opencv_core.Mat)}.
+ */
+public class ColorLookupTable {
+
+  private static final int LEVELS = 256;
+
+  private static ColorLookupTable tapeColorTable;
+
+  private final long[] bits = new long[LEVELS * LEVELS * LEVELS / Long.SIZE];
+
+  /**
+   * Builds the table for the given HSV bounds (both inclusive, as in `inRange`).
+   */
+  public ColorLookupTable(opencv_core.Scalar hsvMin, opencv_core.Scalar hsvMax) {
+    // One blue level at a time: a 256x256 image with green on the rows and red on the cols
+    opencv_core.Mat bgr = new opencv_core.Mat(LEVELS, LEVELS, opencv_core.CV_8UC3);
+    opencv_core.Mat hsv = new opencv_core.Mat(LEVELS, LEVELS, opencv_core.CV_8UC3);
+    opencv_core.Mat mask = new opencv_core.Mat(LEVELS, LEVELS, opencv_core.CV_8UC1);
+    opencv_core.Mat lower = LaneManager.scalarBound(hsvMin);
+    opencv_core.Mat upper = LaneManager.scalarBound(hsvMax);
+    UByteRawIndexer bgrIndexer = bgr.createIndexer();
+    UByteRawIndexer maskIndexer = mask.createIndexer();
+
+    for (int green = 0; green < LEVELS; green++) {
+      for (int red = 0; red < LEVELS; red++) {
+        bgrIndexer.put(green, red, 1, green);
+        bgrIndexer.put(green, red, 2, red);
+      }
+    }
+
+    for (int blue = 0; blue < LEVELS; blue++) {
+      for (int green = 0; green < LEVELS; green++) {
+        for (int red = 0; red < LEVELS; red++) {
+          bgrIndexer.put(green, red, 0, blue);
+        }
+      }
+
+      opencv_imgproc.cvtColor(bgr, hsv, opencv_imgproc.COLOR_BGR2HSV);
+      opencv_core.inRange(hsv, lower, upper, mask);
+
+      for (int green = 0; green < LEVELS; green++) {
+        for (int red = 0; red < LEVELS; red++) {
+          if (maskIndexer.get(green, red) != 0) {
+            int index = (blue << 16) | (green << 8) | red;
+            bits[index >>> 6] |= 1L << index;
+          }
+        }
+      }
+    }
+
+    bgrIndexer.release();
+    maskIndexer.release();
+    bgr.release();
+    hsv.release();
+    mask.release();
+    lower.release();
+    upper.release();
+  }
+
+  /**
+   * Shared table for the default tape colour, built on first use.
+   */
+  public static synchronized ColorLookupTable getTapeColorTable() {
+    if (tapeColorTable == null) {
+      tapeColorTable = new ColorLookupTable(
+          LaneManager.TAPE_COLOR_MIN, LaneManager.TAPE_COLOR_MAX);
+    }
+
+    return tapeColorTable;
+  }
+
+  /**
+   * Whether the given BGR colour falls inside the HSV bounds.
+   */
+  public boolean contains(int blue, int green, int red) {
+    int index = (blue << 16) | (green << 8) | red;
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Thresholds a BGR image into a binary (0 or 255) one. The destination is (re)allocated only
+   * if it doesn't already have the right size and type.
+   */
+  public void apply(opencv_core.Mat bgr, opencv_core.Mat dst) {
+    if (bgr.type() != opencv_core.CV_8UC3) {
+      throw new LaneManagerException("Color lookup table expects BGR images.");
+    }
+
+    dst.create(bgr.rows(), bgr.cols(), opencv_core.CV_8UC1);
+    ByteBuffer bgrBuffer = bgr.createBuffer();
+    ByteBuffer dstBuffer = dst.createBuffer();
+    apply(bgrBuffer, (int) bgr.step(), dstBuffer, (int) dst.step(), bgr.rows(), bgr.cols());
+  }
+
+  /**
+   * Same as {@link #apply(opencv_core.Mat, opencv_core.Mat)} but working on buffers that the
+   * caller created once, so that it doesn't allocate.
+   */
+  public void apply(ByteBuffer bgr, int bgrStep, ByteBuffer dst, int dstStep, int rows, int cols) {
+    for (int row = 0; row < rows; row++) {
+      int src = row * bgrStep;
+      int out = row * dstStep;
+      for (int col = 0; col < cols; col++, src += 3) {
+        int index = ((bgr.get(src) & 0xFF) << 16)
+            | ((bgr.get(src + 1) & 0xFF) << 8)
+            | (bgr.get(src + 2) & 0xFF);
+        dst.put(out + col, (bits[index >>> 6] & (1L << index)) != 0 ? (byte) 255 : 0);
+      }
+    }
+  }
+}
@@ -20,4 +20,9 @@ public class HistogramPosition {
   public double getBinValue() {
     return binValue;
   }
+
+  void set(int binIndex, double binValue) {
+    this.binIndex = binIndex;
+    this.binValue = binValue;
+  }
 }
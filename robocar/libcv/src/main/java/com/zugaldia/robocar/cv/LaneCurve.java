@@ -0,0 +1,87 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * A lane fitted in the bird's-eye view as x = a * y^2 + b * y + c, where x is the column and
+ * y is the number of rows above the bottom of the image (so that the car is at y = 0).
+ * <p>
+ * <p>Instances are reused by {@link SlidingWindowSearch}, see
+ * {@link SlidingWindowSearch#search(java.nio.ByteBuffer, int, int)}.
+ */
+public class LaneCurve {
+
+  private boolean found;
+  private int bands;
+  private double a;
+  private double b;
+  private double c;
+  private double offset;
+
+  public LaneCurve() {
+  }
+
+  /**
+   * Whether the lane was found in at least one band.
+   */
+  public boolean isFound() {
+    return found;
+  }
+
+  /**
+   * Number of bands the lane was found in, i.e. the number of points of the fit.
+   */
+  public int getBands() {
+    return bands;
+  }
+
+  public double getA() {
+    return a;
+  }
+
+  public double getB() {
+    return b;
+  }
+
+  public double getC() {
+    return c;
+  }
+
+  /**
+   * Column of the lane at the given height (rows above the bottom of the image).
+   */
+  public double getX(double y) {
+    return (a * y + b) * y + c;
+  }
+
+  /**
+   * Distance in columns from the center of the image to the lane, at the bottom. Positive if
+   * the lane is to the right.
+   */
+  public double getOffset() {
+    return offset;
+  }
+
+  /**
+   * Angle of the lane at the bottom of the image, in radians. Zero if the lane is straight
+   * ahead, positive if it heads to the right.
+   */
+  public double getHeading() {
+    return Math.atan(b);
+  }
+
+  /**
+   * Signed curvature (1 / radius, in 1 / columns) at the bottom of the image. Positive if the
+   * lane bends to the right.
+   */
+  public double getCurvature() {
+    return 2 * a / Math.pow(1 + b * b, 1.5);
+  }
+
+  void set(boolean found, int bands, double a, double b, double c, double offset) {
+    this.found = found;
+    this.bands = bands;
+    this.a = a;
+    this.b = b;
+    this.c = c;
+    this.offset = offset;
+  }
+}
@@ -0,0 +1,33 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * Finds the lane in YUV camera frames. See {@link LaneDetectors} to pick an implementation at
+ * runtime.
+ * <p>
+ * <p>Implementations are not thread-safe, and the returned {@link HistogramPosition} is
+ * overwritten on every call.
+ */
+public interface LaneDetector {
+
+  /**
+   * Same as {@link LaneManager#findLane(org.bytedeco.javacpp.opencv_core.Mat)}, for a frame
+   * of the size the detector was created for.
+   */
+  HistogramPosition findLane(YuvFrame frame);
+
+  /**
+   * Same as {@link #findLane(YuvFrame)}, only looking at the histogram bins [fromBin, toBin).
+   * The other bins of the histogram are left at zero.
+   */
+  HistogramPosition findLane(YuvFrame frame, int fromBin, int toBin);
+
+  /**
+   * The histogram of the last processed frame.
+   */
+  int[] getHistogram();
+
+  /**
+   * Releases any native memory held by the detector. It can't be used afterwards.
+   */
+  void release();
+}
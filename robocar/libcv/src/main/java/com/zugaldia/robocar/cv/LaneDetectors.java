@@ -0,0 +1,32 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * Creates lane detectors by name, e.g. from a setting, so that the implementation can be
+ * chosen at runtime. Only the selected implementation gets loaded: in particular, the pure
+ * Java one never loads JavaCV.
+ */
+public class LaneDetectors {
+
+  /**
+   * Converts frames to BGR and runs the OpenCV pipeline, see {@link OpenCvLaneDetector}.
+   */
+  public static final String OPENCV = "opencv";
+
+  /**
+   * Works directly on the YUV planes, in pure Java, see {@link YuvLaneDetector}.
+   */
+  public static final String YUV = "yuv";
+
+  /**
+   * Creates the named detector for frames of the given size.
+   */
+  public static LaneDetector create(String name, int width, int height) {
+    if (OPENCV.equals(name)) {
+      return new OpenCvLaneDetector(width, height);
+    } else if (YUV.equals(name)) {
+      return new YuvLaneDetector(width, height);
+    }
+
+    throw new LaneManagerException("Unknown lane detector: " + name);
+  }
+}
@@ -0,0 +1,300 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.indexer.IntRawIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stateful version of {@link LaneManager#findLane(opencv_core.Mat)}. All the intermediate
+ * buffers are allocated once for a given frame size and reused across frames, so that no
+ * native or Java memory is allocated per frame once the first one has been processed.
+ * <p>
+ * <p>Optionally, only a band of rows of the bird's-eye view can be warped (at full or half
+ * resolution), so that the per-frame work scales with the useful area rather than with the
+ * sensor size. The warped image always spans the full width, so that histogram bins have the
+ * same meaning in every mode.
+ * <p>
+ * <p>The warp, threshold and column sums can also be split into horizontal stripes processed
+ * in parallel on a {@link ForkJoinPool}, see {@link #setParallelism(ForkJoinPool, int)}.
+ * <p>
+ * <p>Instances are not thread-safe, and the returned {@link HistogramPosition} is overwritten
+ * on every call.
+ */
+public class LaneFinder {
+
+  // Value of the pixels set by inRange() and the colour lookup table
+  private static final int MASK_VALUE = 255;
+
+  private static ForkJoinPool sharedPool;
+
+  // Size of the source frames
+  private final int width;
+  private final int height;
+
+  // Size of the warped region of interest
+  private final int warpedWidth;
+  private final int warpedHeight;
+
+  private final PerspectiveWarp perspectiveWarp;
+  private final opencv_core.Mat warped;
+  private final opencv_core.Mat hsv;
+  private final opencv_core.Mat lower;
+  private final opencv_core.Mat upper;
+  private final opencv_core.Mat thresholdBinary;
+  private final opencv_core.Mat columnSums;
+  private final IntRawIndexer columnSumsIndexer;
+  private final int[] columnBins;
+  private final int[] binColumns;
+  private final ByteBuffer warpedBuffer;
+  private final ByteBuffer thresholdBuffer;
+
+  private ColorLookupTable colorLookupTable;
+
+  // Parallel processing, when enabled
+  private ForkJoinPool pool;
+  private LaneStripe[] stripes;
+  private RecursiveAction stripesTask;
+
+  private final int[] histogram = new int[LaneManager.HISTOGRAM_BINS];
+  private final HistogramPosition position = new HistogramPosition(-1, -1);
+
+  /**
+   * Pre-allocates all the buffers needed to process BGR frames of the given size.
+   */
+  public LaneFinder(int width, int height) {
+    this(width, height, 0, height, false);
+  }
+
+  /**
+   * Pre-allocates all the buffers needed to process BGR frames of the given size, only
+   * looking at rows [roiTop, roiBottom) of the warped image. The trapezoid defined by
+   * SOURCE_POINTS maps to the rows between getToPoints()[1] and the bottom of the frame.
+   */
+  public LaneFinder(int width, int height, int roiTop, int roiBottom, boolean halfResolution) {
+    this.width = width;
+    this.height = height;
+
+    PerspectiveWarp fullWarp = PerspectiveWarp.get(
+        LaneManager.SOURCE_POINTS, LaneManager.getToPoints(width, height), width, height);
+    if (roiTop == 0 && roiBottom == height && !halfResolution) {
+      perspectiveWarp = fullWarp;
+    } else {
+      perspectiveWarp = fullWarp.crop(roiTop, roiBottom, halfResolution ? 0.5 : 1);
+    }
+
+    warpedWidth = perspectiveWarp.getWidth();
+    warpedHeight = perspectiveWarp.getHeight();
+    warped = new opencv_core.Mat(warpedHeight, warpedWidth, opencv_core.CV_8UC3);
+    hsv = new opencv_core.Mat(warpedHeight, warpedWidth, opencv_core.CV_8UC3);
+    lower = LaneManager.scalarBound(LaneManager.TAPE_COLOR_MIN);
+    upper = LaneManager.scalarBound(LaneManager.TAPE_COLOR_MAX);
+    thresholdBinary = new opencv_core.Mat(warpedHeight, warpedWidth, opencv_core.CV_8UC1);
+    columnSums = new opencv_core.Mat(1, warpedWidth, opencv_core.CV_32SC1);
+    columnBins = LaneManager.getColumnBins(warpedWidth);
+    binColumns = LaneMath.getBinColumns(columnBins);
+
+    // The indexer and buffers point to the data of our Mats, which never get reallocated
+    // because they're always written with the same size and type.
+    columnSumsIndexer = columnSums.createIndexer();
+    warpedBuffer = warped.createBuffer();
+    thresholdBuffer = thresholdBinary.createBuffer();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getWarpedWidth() {
+    return warpedWidth;
+  }
+
+  public int getWarpedHeight() {
+    return warpedHeight;
+  }
+
+  /**
+   * The warped image of the last processed frame.
+   */
+  public opencv_core.Mat getWarped() {
+    return warped;
+  }
+
+  /**
+   * The thresholded (binary) image of the last processed frame.
+   */
+  public opencv_core.Mat getThresholdBinary() {
+    return thresholdBinary;
+  }
+
+  /**
+   * The histogram of the last processed frame.
+   */
+  public int[] getHistogram() {
+    return histogram;
+  }
+
+  public ColorLookupTable getColorLookupTable() {
+    return colorLookupTable;
+  }
+
+  /**
+   * When set, the colour threshold is done in a single pass with the lookup table instead of
+   * converting to HSV first. Set to null (default) to use OpenCV's `cvtColor` and `inRange`.
+   */
+  public void setColorLookupTable(ColorLookupTable colorLookupTable) {
+    this.colorLookupTable = colorLookupTable;
+  }
+
+  /**
+   * A pool with one thread per available processor, created on first use and shared by all
+   * the finders that use it.
+   */
+  public static synchronized ForkJoinPool getSharedPool() {
+    if (sharedPool == null) {
+      sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    return sharedPool;
+  }
+
+  /**
+   * Number of stripes the frames are split into (1 when processing serially).
+   */
+  public int getStripes() {
+    return stripes == null ? 1 : stripes.length;
+  }
+
+  /**
+   * Splits the warp, threshold and column sums into the given number of horizontal stripes,
+   * processed in parallel on the given pool (e.g. {@link #getSharedPool()}). The per-stripe
+   * column sums are then merged into the histogram, so the result is the same as when
+   * processing serially. Use 1 stripe (or a null pool) to go back to serial processing.
+   */
+  public void setParallelism(ForkJoinPool pool, int stripeCount) {
+    if (stripeCount < 1 || stripeCount > warpedHeight) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Invalid number of stripes: %d (for %d rows).", stripeCount, warpedHeight));
+    }
+
+    releaseStripes();
+    if (pool == null || stripeCount == 1) {
+      return;
+    }
+
+    final LaneStripe[] newStripes = new LaneStripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      newStripes[i] = new LaneStripe(perspectiveWarp, warped, hsv, thresholdBinary,
+          lower, upper, warpedHeight * i / stripeCount, warpedHeight * (i + 1) / stripeCount);
+    }
+
+    this.pool = pool;
+    this.stripes = newStripes;
+    this.stripesTask = new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(newStripes);
+      }
+    };
+  }
+
+  /**
+   * Same as {@link LaneManager#findLane(opencv_core.Mat)}, without allocating.
+   */
+  public HistogramPosition findLane(opencv_core.Mat src) {
+    if (src.cols() != width || src.rows() != height || src.type() != opencv_core.CV_8UC3) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Expected a %dx%d BGR image, got %dx%d (type %d).",
+          width, height, src.cols(), src.rows(), src.type()));
+    }
+
+    if (stripes != null) {
+      return findLaneParallel(src);
+    }
+
+    perspectiveWarp.remap(src, warped);
+    if (colorLookupTable == null) {
+      opencv_imgproc.cvtColor(warped, hsv, opencv_imgproc.COLOR_BGR2HSV);
+      opencv_core.inRange(hsv, lower, upper, thresholdBinary);
+    } else {
+      colorLookupTable.apply(warpedBuffer, (int) warped.step(),
+          thresholdBuffer, (int) thresholdBinary.step(), warpedHeight, warpedWidth);
+    }
+    LaneManager.columnSums(thresholdBinary, columnSums);
+    LaneManager.histogramArray(columnSumsIndexer, columnBins, MASK_VALUE, histogram);
+    LaneManager.getMaxPosition(histogram, position);
+    return position;
+  }
+
+  private HistogramPosition findLaneParallel(opencv_core.Mat src) {
+    for (LaneStripe stripe : stripes) {
+      stripe.prepare(src, colorLookupTable);
+    }
+
+    stripesTask.reinitialize();
+    pool.invoke(stripesTask);
+
+    // Merge the column sums of every stripe
+    Arrays.fill(histogram, 0);
+    for (LaneStripe stripe : stripes) {
+      IntRawIndexer stripeSums = stripe.getColumnSumsIndexer();
+      for (int col = 0; col < warpedWidth; col++) {
+        histogram[columnBins[col]] += stripeSums.get(0, col) / MASK_VALUE;
+      }
+    }
+
+    LaneManager.getMaxPosition(histogram, position);
+    return position;
+  }
+
+  /**
+   * Fits the lane of the last processed frame with a sliding window search (created for the
+   * warped size, see {@link #getWarpedWidth()}), starting from the middle of the peak bin.
+   */
+  public LaneCurve fitLane(SlidingWindowSearch search) {
+    if (search.getWidth() != warpedWidth || search.getHeight() != warpedHeight) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Expected a %dx%d search, got %dx%d.",
+          warpedWidth, warpedHeight, search.getWidth(), search.getHeight()));
+    }
+
+    int bin = Math.max(0, position.getBinIndex());
+    int startColumn = (binColumns[bin] + binColumns[bin + 1]) / 2;
+    return search.search(thresholdBuffer, (int) thresholdBinary.step(), startColumn);
+  }
+
+  /**
+   * Releases the native memory held by this object. It can't be used afterwards.
+   */
+  public void release() {
+    releaseStripes();
+    columnSumsIndexer.release();
+    warped.release();
+    hsv.release();
+    lower.release();
+    upper.release();
+    thresholdBinary.release();
+    columnSums.release();
+  }
+
+  private void releaseStripes() {
+    if (stripes != null) {
+      for (LaneStripe stripe : stripes) {
+        stripe.release();
+      }
+    }
+
+    pool = null;
+    stripes = null;
+    stripesTask = null;
+  }
+}
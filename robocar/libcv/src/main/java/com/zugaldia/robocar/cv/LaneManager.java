@@ -3,11 +3,14 @@ package com.zugaldia.robocar.cv;
 import org.bytedeco.javacpp.DoublePointer;
 import org.bytedeco.javacpp.FloatPointer;
 import org.bytedeco.javacpp.IntPointer;
-import org.bytedeco.javacpp.indexer.UByteRawIndexer;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.IntRawIndexer;
 import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_imgcodecs;
 import org.bytedeco.javacpp.opencv_imgproc;
 
+import java.util.Arrays;
+
 /**
  * This is a port of the utility methods in Udacity's Lane Finding Project
  * for Self-Driving Car ND to Java/Android.
@@ -19,16 +22,12 @@ public class LaneManager {
   private static final opencv_core.Scalar WHITE = new opencv_core.Scalar(255, 255, 255, 0);
   private static final opencv_core.Scalar BLACK = new opencv_core.Scalar(0, 0, 0, 0);
 
-  private static final opencv_core.Scalar TAPE_COLOR_MIN = new opencv_core.Scalar(25, 0, 0, 0);
-  private static final opencv_core.Scalar TAPE_COLOR_MAX = new opencv_core.Scalar(50, 15, 255, 0);
+  static final opencv_core.Scalar TAPE_COLOR_MIN = new opencv_core.Scalar(25, 0, 0, 0);
+  static final opencv_core.Scalar TAPE_COLOR_MAX = new opencv_core.Scalar(50, 15, 255, 0);
 
-  public static final int HISTOGRAM_BINS = 32;
+  public static final int HISTOGRAM_BINS = LaneMath.HISTOGRAM_BINS;
 
-  public static final float[] SOURCE_POINTS = new float[] {
-      132, 92, // top right
-      184, 92, // top left
-      29, 187, // bottom right
-      305, 187}; // bottom left
+  public static final float[] SOURCE_POINTS = LaneMath.SOURCE_POINTS;
 
   /**
    * Read image path into object.
@@ -109,35 +108,35 @@ public class LaneManager {
   }
 
   /**
-   * Given source and destination points, calculate the perspective transform matrix and warp
-   * the image.
+   * Given source and destination points, warp the image. The perspective transform matrix is
+   * only calculated the first time for a given set of points and image size.
    */
   public static opencv_core.Mat perspectiveTransform(
       opencv_core.Mat image, float[] fromPoints, float[] toPoints) {
+    PerspectiveWarp perspectiveWarp = PerspectiveWarp.get(
+        fromPoints, toPoints, image.cols(), image.rows());
+
+    // Transform the source image
+    opencv_core.Mat warped = new opencv_core.Mat();
+    perspectiveWarp.warp(image, warped);
+    return warped;
+  }
+
+  /**
+   * Calculate the perspective transform matrix for the corresponding 4 point pairs.
+   */
+  public static opencv_core.Mat getPerspectiveTransform(float[] fromPoints, float[] toPoints) {
     // Convert float[] into Point2f
     opencv_core.Point2f fromPointsWrapped = new opencv_core.Point2f(fromPoints.length);
     fromPointsWrapped.put(fromPoints, 0, fromPoints.length);
     opencv_core.Point2f toPointsWrapped = new opencv_core.Point2f(toPoints.length);
     toPointsWrapped.put(toPoints, 0, toPoints.length);
 
-    // Get perspective transformation for the corresponding 4 point pairs
-    opencv_core.Mat matrix = opencv_imgproc.getPerspectiveTransform(
-        fromPointsWrapped, toPointsWrapped);
-
-    // Transform the source image
-    opencv_core.Mat warped = new opencv_core.Mat();
-    opencv_imgproc.warpPerspective(image, warped, matrix, image.size());
-    return warped;
+    return opencv_imgproc.getPerspectiveTransform(fromPointsWrapped, toPointsWrapped);
   }
 
   public static float[] getToPoints(int width, int height) {
-    float offsetX = 50;
-    float offsetY = offsetX * height / width;
-    return new float[] {
-        SOURCE_POINTS[4] + offsetX, offsetY,
-        SOURCE_POINTS[6] - offsetX, offsetY,
-        SOURCE_POINTS[4] + offsetX, height,
-        SOURCE_POINTS[6] - offsetX, height};
+    return LaneMath.getToPoints(width, height);
   }
 
   public static opencv_core.Mat imageToHsv(opencv_core.Mat image) {
@@ -178,34 +177,78 @@ public class LaneManager {
   public static opencv_core.Mat thresholdColor(opencv_core.Mat image, opencv_core.Scalar tapeColorMin, opencv_core.Scalar tapeColorMax) {
     opencv_core.Mat thresholdBinary = new opencv_core.Mat();
     opencv_core.Mat hsv = LaneManager.imageToHsv(image);
-    opencv_core.Mat lower = new opencv_core.Mat(image.rows(), image.cols(), image.type(), tapeColorMin);
-    opencv_core.Mat upper = new opencv_core.Mat(image.rows(), image.cols(), image.type(), tapeColorMax);
-    opencv_core.inRange(hsv, lower, upper, thresholdBinary);
+    opencv_core.inRange(
+        hsv, scalarBound(tapeColorMin), scalarBound(tapeColorMax), thresholdBinary);
     return thresholdBinary;
   }
 
   /**
-   * Compute the histogram manually. edgeColsIgnore sets a number of side cols to ignore to
-   * avoid side noise affect the result.
+   * Wraps a scalar into a 4x1 CV_64F matrix, which `inRange` treats as a bound for every pixel.
+   * This avoids building (and reading) full-frame matrices filled with the same value. Note
+   * that a 1x1 multi-channel matrix wouldn't work: only its first channel would be used.
+   */
+  public static opencv_core.Mat scalarBound(opencv_core.Scalar value) {
+    opencv_core.Mat bound = new opencv_core.Mat(4, 1, opencv_core.CV_64FC1);
+    DoubleIndexer boundIndexer = bound.createIndexer();
+    for (int i = 0; i < 4; i++) {
+      boundIndexer.put(i, 0, value.get(i));
+    }
+
+    boundIndexer.release();
+    return bound;
+  }
+
+  /**
+   * Compute the histogram manually: the number of non-zero pixels in each of the HISTOGRAM_BINS
+   * vertical stripes of the image.
+   * <p>
+   * <p>The image is first reduced natively to a single row holding the count of each column,
+   * in one cache-friendly pass, and the column counts are then added up into bins using a
+   * precomputed column-to-bin table.
    */
   public static int[] histogramArray(opencv_core.Mat image) {
     final int[] result = new int[HISTOGRAM_BINS];
-    final double binSize = image.size().width() / HISTOGRAM_BINS;
-
-    UByteRawIndexer binaryIndex = image.createIndexer();
-    for (int col = 0; col < image.cols(); col++) {
-      int bin = (int) (col / binSize);
-      for (int row = 0; row < image.rows(); row++) {
-        int value = binaryIndex.get(row, col);
-        if (value > 0) {
-          result[bin]++;
-        }
-      }
-    }
 
+    // Make sure every non-zero pixel counts as one
+    opencv_core.Mat unitBinary = new opencv_core.Mat();
+    opencv_imgproc.threshold(image, unitBinary, 0, 1, opencv_imgproc.THRESH_BINARY);
+
+    opencv_core.Mat columnSums = new opencv_core.Mat();
+    columnSums(unitBinary, columnSums);
+    IntRawIndexer columnSumsIndexer = columnSums.createIndexer();
+    histogramArray(columnSumsIndexer, getColumnBins(image.cols()), 1, result);
+    columnSumsIndexer.release();
     return result;
   }
 
+  /**
+   * Reduce a single channel 8-bit image to a 1xN CV_32S row with the sum of each column.
+   */
+  public static void columnSums(opencv_core.Mat image, opencv_core.Mat columnSums) {
+    opencv_core.reduce(image, columnSums, 0 /* to a single row */,
+        opencv_core.REDUCE_SUM, opencv_core.CV_32S);
+  }
+
+  /**
+   * Precompute the histogram bin of every column of an image with the given width.
+   */
+  public static int[] getColumnBins(int cols) {
+    return LaneMath.getColumnBins(cols);
+  }
+
+  /**
+   * Add up column sums (see {@link #columnSums(opencv_core.Mat, opencv_core.Mat)}) into the
+   * result histogram. Each sum is divided by pixelValue, e.g. 255 for the masks returned by
+   * `inRange`, to count pixels. It doesn't allocate, so it can be called on every frame.
+   */
+  public static void histogramArray(
+      IntRawIndexer columnSums, int[] columnBins, int pixelValue, int[] result) {
+    Arrays.fill(result, 0);
+    for (int col = 0; col < columnBins.length; col++) {
+      result[columnBins[col]] += columnSums.get(0, col) / pixelValue;
+    }
+  }
+
   /**
    * Calculates a histogram of an image. Unfortunately, I can't get this to work,
    * the returned values don't make sense.
@@ -253,16 +296,16 @@ public class LaneManager {
    * Workaround while ^^^ gets fixed.
    */
   public static HistogramPosition getMaxPosition(int[] histogram) {
-    int binIndex = -1;
-    double binValue = -1;
-    for (int bin = 0; bin < histogram.length; bin++) {
-      if (binIndex == -1 || histogram[bin] > binValue) {
-        binIndex = bin;
-        binValue = histogram[bin];
-      }
-    }
+    HistogramPosition position = new HistogramPosition(-1, -1);
+    getMaxPosition(histogram, position);
+    return position;
+  }
 
-    return new HistogramPosition(binIndex, binValue);
+  /**
+   * Same as {@link #getMaxPosition(int[])} but updating an existing position object.
+   */
+  public static void getMaxPosition(int[] histogram, HistogramPosition position) {
+    LaneMath.getMaxPosition(histogram, position);
   }
 
   public static HistogramPosition findLane(opencv_core.Mat src ) {
@@ -0,0 +1,147 @@
+package com.zugaldia.robocar.cv;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Pure Java helpers shared by the OpenCV pipeline ({@link LaneManager}, {@link LaneFinder}) and
+ * the pure Java one ({@link YuvLaneDetector}). Nothing here depends on JavaCV, so using this
+ * class doesn't load the native libraries.
+ */
+public class LaneMath {
+
+  public static final int HISTOGRAM_BINS = 32;
+
+  public static final float[] SOURCE_POINTS = new float[] {
+      132, 92, // top right
+      184, 92, // top left
+      29, 187, // bottom right
+      305, 187}; // bottom left
+
+  /**
+   * The points SOURCE_POINTS map to in the bird's-eye view, for a frame of the given size.
+   */
+  public static float[] getToPoints(int width, int height) {
+    float offsetX = 50;
+    float offsetY = offsetX * height / width;
+    return new float[] {
+        SOURCE_POINTS[4] + offsetX, offsetY,
+        SOURCE_POINTS[6] - offsetX, offsetY,
+        SOURCE_POINTS[4] + offsetX, height,
+        SOURCE_POINTS[6] - offsetX, height};
+  }
+
+  /**
+   * Calculate the perspective transform matrix for the corresponding 4 point pairs, as a
+   * row-major 3x3 array. Same result as OpenCV's `getPerspectiveTransform`: the 8x8 linear
+   * system is solved with Gaussian elimination.
+   */
+  public static double[] getPerspectiveTransform(float[] fromPoints, float[] toPoints) {
+    double[][] a = new double[8][9];
+    for (int i = 0; i < 4; i++) {
+      double x = fromPoints[2 * i];
+      double y = fromPoints[2 * i + 1];
+      double u = toPoints[2 * i];
+      double v = toPoints[2 * i + 1];
+      a[i] = new double[] {x, y, 1, 0, 0, 0, -x * u, -y * u, u};
+      a[i + 4] = new double[] {0, 0, 0, x, y, 1, -x * v, -y * v, v};
+    }
+
+    for (int col = 0; col < 8; col++) {
+      // Partial pivoting
+      int pivot = col;
+      for (int row = col + 1; row < 8; row++) {
+        if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+          pivot = row;
+        }
+      }
+
+      if (a[pivot][col] == 0) {
+        throw new LaneManagerException("The points don't define a perspective transform.");
+      }
+
+      double[] swap = a[col];
+      a[col] = a[pivot];
+      a[pivot] = swap;
+
+      for (int row = 0; row < 8; row++) {
+        if (row != col) {
+          double factor = a[row][col] / a[col][col];
+          for (int k = col; k < 9; k++) {
+            a[row][k] -= factor * a[col][k];
+          }
+        }
+      }
+    }
+
+    double[] matrix = new double[9];
+    for (int i = 0; i < 8; i++) {
+      matrix[i] = a[i][8] / a[i][i];
+    }
+
+    matrix[8] = 1;
+    return matrix;
+  }
+
+  /**
+   * Precompute the histogram bin of every column of an image with the given width.
+   */
+  public static int[] getColumnBins(int cols) {
+    // Same bin size as the original implementation, clamping the last bin for widths that
+    // aren't a multiple of HISTOGRAM_BINS.
+    final int binSize = Math.max(1, cols / HISTOGRAM_BINS);
+
+    int[] columnBins = new int[cols];
+    for (int col = 0; col < cols; col++) {
+      columnBins[col] = Math.min(col / binSize, HISTOGRAM_BINS - 1);
+    }
+
+    return columnBins;
+  }
+
+  /**
+   * The inverse of {@link #getColumnBins(int)}: the first column of every bin, plus the number
+   * of columns at the end, so that bin i spans the columns [result[i], result[i + 1]).
+   */
+  public static int[] getBinColumns(int[] columnBins) {
+    int[] binColumns = new int[HISTOGRAM_BINS + 1];
+    Arrays.fill(binColumns, columnBins.length);
+    for (int col = columnBins.length - 1; col >= 0; col--) {
+      binColumns[columnBins[col]] = col;
+    }
+
+    // Bins without columns (very narrow images) start where the next one does
+    for (int bin = HISTOGRAM_BINS - 1; bin >= 0; bin--) {
+      binColumns[bin] = Math.min(binColumns[bin], binColumns[bin + 1]);
+    }
+
+    return binColumns;
+  }
+
+  /**
+   * Validates a window of histogram bins [fromBin, toBin).
+   */
+  public static void checkBins(int fromBin, int toBin) {
+    if (fromBin < 0 || toBin > HISTOGRAM_BINS || fromBin >= toBin) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Invalid histogram bins: %d to %d (of %d).", fromBin, toBin, HISTOGRAM_BINS));
+    }
+  }
+
+  /**
+   * Find the highest bin of a histogram (the first one on ties), updating an existing position
+   * object.
+   */
+  public static void getMaxPosition(int[] histogram, HistogramPosition position) {
+    int binIndex = -1;
+    double binValue = -1;
+    for (int bin = 0; bin < histogram.length; bin++) {
+      if (binIndex == -1 || histogram[bin] > binValue) {
+        binIndex = bin;
+        binValue = histogram[bin];
+      }
+    }
+
+    position.set(binIndex, binValue);
+  }
+}
@@ -0,0 +1,93 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.indexer.IntRawIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A horizontal stripe of the {@link LaneFinder} pipeline: warps, thresholds and sums the
+ * columns of a band of rows of the bird's-eye view. The stripe works on views of the finder's
+ * buffers (and of the warp's lookup table) created once, so running it doesn't allocate.
+ */
+class LaneStripe extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int rows;
+  private final int cols;
+
+  private final opencv_core.Mat map1;
+  private final opencv_core.Mat map2;
+  private final opencv_core.Mat warped;
+  private final opencv_core.Mat hsv;
+  private final opencv_core.Mat thresholdBinary;
+  private final opencv_core.Mat lower;
+  private final opencv_core.Mat upper;
+  private final opencv_core.Mat columnSums;
+  private final IntRawIndexer columnSumsIndexer;
+  private final ByteBuffer warpedBuffer;
+  private final ByteBuffer thresholdBuffer;
+
+  // Input of the current frame
+  private opencv_core.Mat src;
+  private ColorLookupTable colorLookupTable;
+
+  LaneStripe(PerspectiveWarp perspectiveWarp, opencv_core.Mat warped, opencv_core.Mat hsv,
+             opencv_core.Mat thresholdBinary, opencv_core.Mat lower, opencv_core.Mat upper,
+             int fromRow, int toRow) {
+    rows = toRow - fromRow;
+    cols = warped.cols();
+
+    this.map1 = perspectiveWarp.getMap1().rowRange(fromRow, toRow);
+    this.map2 = perspectiveWarp.getMap2().rowRange(fromRow, toRow);
+    this.warped = warped.rowRange(fromRow, toRow);
+    this.hsv = hsv.rowRange(fromRow, toRow);
+    this.thresholdBinary = thresholdBinary.rowRange(fromRow, toRow);
+    this.lower = lower;
+    this.upper = upper;
+
+    columnSums = new opencv_core.Mat(1, cols, opencv_core.CV_32SC1);
+    columnSumsIndexer = columnSums.createIndexer();
+    warpedBuffer = this.warped.createBuffer();
+    thresholdBuffer = this.thresholdBinary.createBuffer();
+  }
+
+  IntRawIndexer getColumnSumsIndexer() {
+    return columnSumsIndexer;
+  }
+
+  /**
+   * Prepares the stripe to process a new frame (a task can only run again once reinitialized).
+   */
+  void prepare(opencv_core.Mat src, ColorLookupTable colorLookupTable) {
+    reinitialize();
+    this.src = src;
+    this.colorLookupTable = colorLookupTable;
+  }
+
+  @Override
+  protected void compute() {
+    opencv_imgproc.remap(src, warped, map1, map2, opencv_imgproc.INTER_LINEAR);
+    if (colorLookupTable == null) {
+      opencv_imgproc.cvtColor(warped, hsv, opencv_imgproc.COLOR_BGR2HSV);
+      opencv_core.inRange(hsv, lower, upper, thresholdBinary);
+    } else {
+      colorLookupTable.apply(warpedBuffer, (int) warped.step(),
+          thresholdBuffer, (int) thresholdBinary.step(), rows, cols);
+    }
+    LaneManager.columnSums(thresholdBinary, columnSums);
+  }
+
+  void release() {
+    columnSumsIndexer.release();
+    columnSums.release();
+    map1.release();
+    map2.release();
+    warped.release();
+    hsv.release();
+    thresholdBinary.release();
+  }
+}
@@ -0,0 +1,178 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * Tracks the lane across frames instead of looking for it from scratch every time.
+ * <p>
+ * <p>Once the lane has been found, only a window of histogram bins around its predicted
+ * position is searched, which is cheaper with detectors that support it (see
+ * {@link YuvLaneDetector}). If the lane isn't found in the window, the whole histogram is
+ * searched again in the same frame. The measured position (the peak bin) is smoothed with an
+ * alpha-beta filter, which also predicts where to search on the next frame and removes the
+ * frame to frame jitter that would otherwise make the steering oscillate.
+ * <p>
+ * <p>Instances are not thread-safe.
+ */
+public class LaneTracker {
+
+  // Search this many bins on each side of the predicted position
+  public static final int DEFAULT_WINDOW_BINS = 4;
+
+  // Minimum number of pixels in the peak bin to consider the lane found
+  public static final int DEFAULT_MIN_BIN_VALUE = 20;
+
+  // Filter gains: the higher, the more the measurement is trusted over the prediction
+  public static final double DEFAULT_ALPHA = 0.5;
+  public static final double DEFAULT_BETA = 0.1;
+
+  // Frames to keep predicting the position after the lane is lost, before giving up
+  public static final int DEFAULT_MAX_LOST_FRAMES = 5;
+
+  private final LaneDetector laneDetector;
+  private final int windowBins;
+  private final int minBinValue;
+  private final double alpha;
+  private final double beta;
+  private final int maxLostFrames;
+
+  // Filter state, in bins and bins per frame
+  private boolean tracking;
+  private double position;
+  private double velocity;
+  private int lostFrames;
+
+  // Statistics
+  private long windowSearches;
+  private long fullSearches;
+
+  /**
+   * Tracks the lane with the default parameters.
+   */
+  public LaneTracker(LaneDetector laneDetector) {
+    this(laneDetector, DEFAULT_WINDOW_BINS, DEFAULT_MIN_BIN_VALUE,
+        DEFAULT_ALPHA, DEFAULT_BETA, DEFAULT_MAX_LOST_FRAMES);
+  }
+
+  /**
+   * Tracks the lane with the given window size (bins on each side of the prediction),
+   * detection threshold, filter gains and tolerance to lost frames.
+   */
+  public LaneTracker(LaneDetector laneDetector, int windowBins, int minBinValue,
+                     double alpha, double beta, int maxLostFrames) {
+    if (windowBins < 0 || minBinValue < 1 || alpha <= 0 || alpha > 1 || beta < 0 || beta > 2
+        || maxLostFrames < 0) {
+      throw new LaneManagerException("Invalid lane tracker parameters.");
+    }
+
+    this.laneDetector = laneDetector;
+    this.windowBins = windowBins;
+    this.minBinValue = minBinValue;
+    this.alpha = alpha;
+    this.beta = beta;
+    this.maxLostFrames = maxLostFrames;
+  }
+
+  /**
+   * Processes a frame, returning whether the lane was found in it. Even if it wasn't, a
+   * position is still predicted for a few frames (see {@link #isTracking()}).
+   */
+  public boolean track(YuvFrame frame) {
+    double predicted = position + velocity;
+    HistogramPosition measurement = null;
+
+    if (tracking) {
+      int center = clampBin((int) Math.round(predicted));
+      int fromBin = Math.max(0, center - windowBins);
+      int toBin = Math.min(LaneMath.HISTOGRAM_BINS, center + windowBins + 1);
+      windowSearches++;
+      measurement = found(laneDetector.findLane(frame, fromBin, toBin));
+    }
+
+    if (measurement == null) {
+      fullSearches++;
+      measurement = found(laneDetector.findLane(frame));
+    }
+
+    if (measurement == null) {
+      // Coast on the prediction for a while
+      if (tracking && ++lostFrames <= maxLostFrames) {
+        position = clampPosition(predicted);
+      } else {
+        reset();
+      }
+
+      return false;
+    }
+
+    int bin = measurement.getBinIndex();
+    if (!tracking) {
+      // (Re)acquired: start from the measurement
+      tracking = true;
+      position = bin;
+      velocity = 0;
+    } else {
+      double residual = bin - predicted;
+      position = clampPosition(predicted + alpha * residual);
+      velocity += beta * residual;
+    }
+
+    lostFrames = 0;
+    return true;
+  }
+
+  /**
+   * Forgets the lane, the next frame will be searched in full.
+   */
+  public void reset() {
+    tracking = false;
+    position = 0;
+    velocity = 0;
+    lostFrames = 0;
+  }
+
+  /**
+   * Whether there's a lane position estimate, i.e. the lane was found recently.
+   */
+  public boolean isTracking() {
+    return tracking;
+  }
+
+  /**
+   * The smoothed lane position, in (fractional) histogram bins.
+   */
+  public double getPosition() {
+    return position;
+  }
+
+  /**
+   * The estimated lane drift, in histogram bins per frame.
+   */
+  public double getVelocity() {
+    return velocity;
+  }
+
+  /**
+   * Number of frames searched only around the predicted position.
+   */
+  public long getWindowSearches() {
+    return windowSearches;
+  }
+
+  /**
+   * Number of frames (or retries after a failed window search) searched in full.
+   */
+  public long getFullSearches() {
+    return fullSearches;
+  }
+
+  private HistogramPosition found(HistogramPosition position) {
+    return position.getBinValue() >= minBinValue ? position : null;
+  }
+
+  private static int clampBin(int bin) {
+    return Math.max(0, Math.min(LaneMath.HISTOGRAM_BINS - 1, bin));
+  }
+
+  private static double clampPosition(double position) {
+    return Math.max(0, Math.min(LaneMath.HISTOGRAM_BINS - 1, position));
+  }
+}
@@ -0,0 +1,59 @@
+package com.zugaldia.robocar.cv;
+
+import java.util.Arrays;
+
+/**
+ * Lane detector that converts YUV frames to BGR (see {@link YuvConverter}) and then runs a
+ * {@link LaneFinder}. Like the latter, it doesn't allocate once constructed.
+ */
+public class OpenCvLaneDetector implements LaneDetector {
+
+  private final LaneFinder laneFinder;
+  private final YuvConverter yuvConverter;
+
+  private final HistogramPosition position = new HistogramPosition(-1, -1);
+
+  /**
+   * Pre-allocates all the buffers needed to process frames of the given size.
+   */
+  public OpenCvLaneDetector(int width, int height) {
+    laneFinder = new LaneFinder(width, height);
+    yuvConverter = new YuvConverter(width, height);
+  }
+
+  public LaneFinder getLaneFinder() {
+    return laneFinder;
+  }
+
+  @Override
+  public int[] getHistogram() {
+    return laneFinder.getHistogram();
+  }
+
+  @Override
+  public HistogramPosition findLane(YuvFrame frame) {
+    return laneFinder.findLane(yuvConverter.toBgr(frame));
+  }
+
+  /**
+   * The whole frame still needs to be converted and warped, so this is only marginally cheaper
+   * than {@link #findLane(YuvFrame)}.
+   */
+  @Override
+  public HistogramPosition findLane(YuvFrame frame, int fromBin, int toBin) {
+    LaneMath.checkBins(fromBin, toBin);
+    findLane(frame);
+
+    int[] histogram = laneFinder.getHistogram();
+    Arrays.fill(histogram, 0, fromBin, 0);
+    Arrays.fill(histogram, toBin, histogram.length, 0);
+    LaneMath.getMaxPosition(histogram, position);
+    return position;
+  }
+
+  @Override
+  public void release() {
+    laneFinder.release();
+    yuvConverter.release();
+  }
+}
@@ -0,0 +1,218 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A calibrated perspective transform for a fixed set of points and frame size. The 3x3
+ * homography is computed once, together with a fixed-point lookup table (the same map1/map2
+ * pair that `initUndistortRectifyMap` produces) so that warping a frame becomes a single
+ * `remap` call.
+ * <p>
+ * <p>Instances are immutable and can be shared across threads.
+ */
+public class PerspectiveWarp {
+
+  // Calibrations are cheap to keep around, but we only expect a handful of them
+  private static final int CACHE_SIZE = 8;
+
+  private static final Map<Key, PerspectiveWarp> cache =
+      new LinkedHashMap<Key, PerspectiveWarp>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PerspectiveWarp> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  // Size of the warped (output) image
+  private final int width;
+  private final int height;
+
+  private final opencv_core.Size size;
+  private final opencv_core.Mat matrix;
+  private final opencv_core.Mat map1;
+  private final opencv_core.Mat map2;
+
+  /**
+   * Calculates the perspective transform for the corresponding 4 point pairs, and the lookup
+   * table to warp frames of the given size.
+   */
+  public PerspectiveWarp(float[] fromPoints, float[] toPoints, int width, int height) {
+    this(LaneManager.getPerspectiveTransform(fromPoints, toPoints), width, height);
+  }
+
+  private PerspectiveWarp(opencv_core.Mat matrix, int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.matrix = matrix;
+
+    size = new opencv_core.Size(width, height);
+    map1 = new opencv_core.Mat();
+    map2 = new opencv_core.Mat();
+    buildMaps();
+  }
+
+  /**
+   * Returns a cached calibration for the given points and frame size, computing it if needed.
+   */
+  public static PerspectiveWarp get(float[] fromPoints, float[] toPoints, int width, int height) {
+    Key key = new Key(fromPoints, toPoints, width, height);
+    synchronized (cache) {
+      PerspectiveWarp warp = cache.get(key);
+      if (warp == null) {
+        warp = new PerspectiveWarp(fromPoints, toPoints, width, height);
+        cache.put(key, warp);
+      }
+
+      return warp;
+    }
+  }
+
+  /**
+   * Derives a calibration that only produces the rows [top, bottom) of the warped image,
+   * optionally scaled (e.g. 0.5 for half resolution). The source frame is the same, only the
+   * output changes, so that the per-frame work scales with the area that's actually needed.
+   */
+  public PerspectiveWarp crop(int top, int bottom, double scale) {
+    if (top < 0 || bottom > height || top >= bottom || scale <= 0) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Invalid region of interest: rows %d to %d (of %d), scale %f.",
+          top, bottom, height, scale));
+    }
+
+    // Translate up by top rows, then scale: M' = S * T * M
+    DoubleIndexer matrixIndexer = matrix.createIndexer();
+    opencv_core.Mat cropped = new opencv_core.Mat(3, 3, opencv_core.CV_64FC1);
+    DoubleIndexer croppedIndexer = cropped.createIndexer();
+    for (int col = 0; col < 3; col++) {
+      croppedIndexer.put(0, col, scale * matrixIndexer.get(0, col));
+      croppedIndexer.put(1, col, scale * (matrixIndexer.get(1, col)
+          - top * matrixIndexer.get(2, col)));
+      croppedIndexer.put(2, col, matrixIndexer.get(2, col));
+    }
+
+    matrixIndexer.release();
+    croppedIndexer.release();
+    return new PerspectiveWarp(cropped,
+        (int) Math.round(width * scale), (int) Math.round((bottom - top) * scale));
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The 3x3 perspective transform matrix.
+   */
+  public opencv_core.Mat getMatrix() {
+    return matrix;
+  }
+
+  /**
+   * The fixed-point lookup table used by {@link #remap(opencv_core.Mat, opencv_core.Mat)}.
+   */
+  opencv_core.Mat getMap1() {
+    return map1;
+  }
+
+  opencv_core.Mat getMap2() {
+    return map2;
+  }
+
+  /**
+   * Warps the image using `warpPerspective` and the cached matrix. The result has the size of
+   * this calibration's output, see {@link #getWidth()} and {@link #getHeight()}.
+   */
+  public void warp(opencv_core.Mat src, opencv_core.Mat dst) {
+    opencv_imgproc.warpPerspective(src, dst, matrix, size);
+  }
+
+  /**
+   * Warps the image using `remap` and the cached lookup table. The result is the same as
+   * {@link #warp(opencv_core.Mat, opencv_core.Mat)} (up to rounding) but cheaper, as the
+   * transform doesn't need to be evaluated for every pixel.
+   */
+  public void remap(opencv_core.Mat src, opencv_core.Mat dst) {
+    opencv_imgproc.remap(src, dst, map1, map2, opencv_imgproc.INTER_LINEAR);
+  }
+
+  /**
+   * For every destination pixel, compute the source coordinates using the inverse transform,
+   * and convert the resulting floating-point maps into the fixed-point representation that
+   * remap() processes fastest.
+   */
+  private void buildMaps() {
+    opencv_core.Mat inverse = new opencv_core.Mat();
+    opencv_core.invert(matrix, inverse);
+    DoubleIndexer inverseIndexer = inverse.createIndexer();
+    double[] m = new double[9];
+    inverseIndexer.get(0, m);
+
+    opencv_core.Mat mapX = new opencv_core.Mat(height, width, opencv_core.CV_32FC1);
+    opencv_core.Mat mapY = new opencv_core.Mat(height, width, opencv_core.CV_32FC1);
+    FloatIndexer mapXIndexer = mapX.createIndexer();
+    FloatIndexer mapYIndexer = mapY.createIndexer();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double w = m[6] * x + m[7] * y + m[8];
+        w = w == 0 ? 0 : 1 / w;
+        mapXIndexer.put(y, x, (float) ((m[0] * x + m[1] * y + m[2]) * w));
+        mapYIndexer.put(y, x, (float) ((m[3] * x + m[4] * y + m[5]) * w));
+      }
+    }
+
+    opencv_imgproc.convertMaps(mapX, mapY, map1, map2, opencv_core.CV_16SC2, false);
+
+    inverseIndexer.release();
+    mapXIndexer.release();
+    mapYIndexer.release();
+    inverse.release();
+    mapX.release();
+    mapY.release();
+  }
+
+  private static class Key {
+    private final float[] fromPoints;
+    private final float[] toPoints;
+    private final int width;
+    private final int height;
+
+    Key(float[] fromPoints, float[] toPoints, int width, int height) {
+      this.fromPoints = fromPoints.clone();
+      this.toPoints = toPoints.clone();
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) other;
+      return width == key.width && height == key.height
+          && Arrays.equals(fromPoints, key.fromPoints) && Arrays.equals(toPoints, key.toPoints);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Arrays.hashCode(fromPoints);
+      result = 31 * result + Arrays.hashCode(toPoints);
+      result = 31 * result + width;
+      result = 31 * result + height;
+      return result;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.zugaldia.robocar.cv;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Sliding window lane search, as in Udacity's Advanced Lane Finding Project. The binary
+ * bird's-eye view is split into horizontal bands; starting from the bottom one, the lane is
+ * looked for in a window centered where it was found in the band below (the histogram peak for
+ * the first band), and the window is re-centered on the mean column of the lane pixels found.
+ * The centers are then fitted with a second order polynomial, see {@link LaneCurve}.
+ * <p>
+ * <p>Only the pixels inside the windows are read, so the cost per frame is bounded by
+ * height * (2 * margin + 1), whatever the content of the image. Nothing is allocated per frame.
+ * Instances are not thread-safe, and the returned {@link LaneCurve} is overwritten on every
+ * call.
+ * <p>
+ * <p>See: https://github.com/udacity/CarND-Advanced-Lane-Lines
+ */
+public class SlidingWindowSearch {
+
+  public static final int DEFAULT_BANDS = 8;
+
+  // Minimum number of lane pixels in a window to re-center it
+  public static final int DEFAULT_MIN_PIXELS = 10;
+
+  // Size of the image to search
+  private final int width;
+  private final int height;
+
+  private final int bands;
+  private final int margin;
+  private final int minPixels;
+
+  // Center of the lane in each band where it was found (with y normalized to [0, 1], to keep
+  // the fit well conditioned)
+  private final double[] bandX;
+  private final double[] bandY;
+
+  private final LaneCurve curve = new LaneCurve();
+
+  /**
+   * Searches images of the given size with the default parameters: 8 bands, and windows a
+   * sixth of the image wide.
+   */
+  public SlidingWindowSearch(int width, int height) {
+    this(width, height, DEFAULT_BANDS, Math.max(1, width / 12), DEFAULT_MIN_PIXELS);
+  }
+
+  /**
+   * Searches images of the given size, with the given number of bands, window half-width
+   * (margin) and minimum number of lane pixels in a window.
+   */
+  public SlidingWindowSearch(int width, int height, int bands, int margin, int minPixels) {
+    if (width <= 0 || height <= 0 || bands <= 0 || bands > height || margin < 0
+        || minPixels < 1) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Invalid sliding window search: %dx%d, %d bands, margin %d, %d pixels.",
+          width, height, bands, margin, minPixels));
+    }
+
+    this.width = width;
+    this.height = height;
+    this.bands = bands;
+    this.margin = margin;
+    this.minPixels = minPixels;
+
+    bandX = new double[bands];
+    bandY = new double[bands];
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Searches a single channel mask (non-zero for lane pixels) with the given row stride,
+   * starting from the given column at the bottom of the image.
+   */
+  public LaneCurve search(ByteBuffer mask, int step, int startColumn) {
+    int center = Math.max(0, Math.min(width - 1, startColumn));
+    int found = 0;
+
+    for (int band = 0; band < bands; band++) {
+      // From the bottom up
+      int bandTop = height * (bands - band - 1) / bands;
+      int bandBottom = height * (bands - band) / bands;
+      int fromCol = Math.max(0, center - margin);
+      int toCol = Math.min(width, center + margin + 1);
+
+      int count = 0;
+      long sumX = 0;
+      for (int row = bandTop; row < bandBottom; row++) {
+        int offset = row * step;
+        for (int col = fromCol; col < toCol; col++) {
+          if (mask.get(offset + col) != 0) {
+            count++;
+            sumX += col;
+          }
+        }
+      }
+
+      if (count >= minPixels) {
+        bandX[found] = (double) sumX / count;
+        bandY[found] = (height - (bandTop + bandBottom) / 2.0) / height;
+        center = (int) Math.round(bandX[found]);
+        found++;
+      }
+    }
+
+    fit(found);
+    return curve;
+  }
+
+  /**
+   * Least squares fit of x = a * y^2 + b * y + c on the band centers, falling back to a line
+   * (or a constant) if there aren't enough of them.
+   */
+  private void fit(int points) {
+    double s0 = points;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    double s4 = 0;
+    double t0 = 0;
+    double t1 = 0;
+    double t2 = 0;
+    for (int i = 0; i < points; i++) {
+      double y = bandY[i];
+      double y2 = y * y;
+      s1 += y;
+      s2 += y2;
+      s3 += y2 * y;
+      s4 += y2 * y2;
+      t0 += bandX[i];
+      t1 += bandX[i] * y;
+      t2 += bandX[i] * y2;
+    }
+
+    double a = 0;
+    double b = 0;
+    double c = points > 0 ? t0 / points : 0;
+
+    double det3 = determinant(s4, s3, s2, s3, s2, s1, s2, s1, s0);
+    double det2 = s2 * s0 - s1 * s1;
+    if (points >= 3 && Math.abs(det3) > 1e-9) {
+      // Cramer's rule
+      a = determinant(t2, s3, s2, t1, s2, s1, t0, s1, s0) / det3;
+      b = determinant(s4, t2, s2, s3, t1, s1, s2, t0, s0) / det3;
+      c = determinant(s4, s3, t2, s3, s2, t1, s2, s1, t0) / det3;
+    } else if (points >= 2 && Math.abs(det2) > 1e-9) {
+      b = (t1 * s0 - s1 * t0) / det2;
+      c = (s2 * t0 - s1 * t1) / det2;
+    }
+
+    curve.set(points > 0, points, a / ((double) height * height), b / height, c,
+        c - width / 2.0);
+  }
+
+  private static double determinant(double m00, double m01, double m02,
+                                    double m10, double m11, double m12,
+                                    double m20, double m21, double m22) {
+    return m00 * (m11 * m22 - m12 * m21)
+        - m01 * (m10 * m22 - m12 * m20)
+        + m02 * (m10 * m21 - m11 * m20);
+  }
+}
@@ -0,0 +1,120 @@
+package com.zugaldia.robocar.cv;
+
+/**
+ * Pure Java counterpart of {@link ColorLookupTable} for YUV input: for each of the 2^24 YUV
+ * values, whether the colour falls inside the HSV bounds, stored as a 2 MB bitset.
+ * <p>
+ * <p>The table is built with integer ports of OpenCV's 8-bit `COLOR_YUV2BGR_I420` and
+ * `COLOR_BGR2HSV` conversions, so thresholding a YUV frame with it gives exactly the same mask
+ * as converting the frame to BGR with OpenCV and calling
+ * {@link LaneManager#thresholdColor(org.bytedeco.javacpp.opencv_core.Mat)}, without loading
+ * JavaCV.
+ */
+public class YuvColorTable {
+
+  // Same bounds (H, S, V) as LaneManager.TAPE_COLOR_MIN and LaneManager.TAPE_COLOR_MAX
+  static final int[] TAPE_COLOR_MIN = new int[] {25, 0, 0};
+  static final int[] TAPE_COLOR_MAX = new int[] {50, 15, 255};
+
+  private static final int LEVELS = 256;
+
+  // Fixed-point ITU-R BT.601 coefficients, as used by OpenCV (also by YuvConverter)
+  static final int YUV_SHIFT = 20;
+  static final int YUV_CY = 1220542;
+  static final int YUV_CUB = 2116026;
+  static final int YUV_CUG = -409993;
+  static final int YUV_CVG = -852492;
+  static final int YUV_CVR = 1673527;
+
+  // Fixed-point divisions used by OpenCV's 8-bit BGR to HSV conversion
+  private static final int HSV_SHIFT = 12;
+  private static final int HSV_HUE_RANGE = 180;
+
+  private static YuvColorTable tapeColorTable;
+
+  private final long[] bits = new long[LEVELS * LEVELS * LEVELS / Long.SIZE];
+
+  /**
+   * Builds the table for the given HSV bounds (H, S, V; both inclusive, as in `inRange`).
+   */
+  public YuvColorTable(int[] hsvMin, int[] hsvMax) {
+    int[] sdivTable = new int[LEVELS];
+    int[] hdivTable = new int[LEVELS];
+    for (int i = 1; i < LEVELS; i++) {
+      sdivTable[i] = (int) Math.round((255 << HSV_SHIFT) / (double) i);
+      hdivTable[i] = (int) Math.round((HSV_HUE_RANGE << HSV_SHIFT) / (6.0 * i));
+    }
+
+    int[] hsv = new int[3];
+    for (int u = 0; u < LEVELS; u++) {
+      for (int v = 0; v < LEVELS; v++) {
+        int ruv = (1 << (YUV_SHIFT - 1)) + YUV_CVR * (v - 128);
+        int guv = (1 << (YUV_SHIFT - 1)) + YUV_CVG * (v - 128) + YUV_CUG * (u - 128);
+        int buv = (1 << (YUV_SHIFT - 1)) + YUV_CUB * (u - 128);
+        for (int y = 0; y < LEVELS; y++) {
+          int luma = Math.max(0, y - 16) * YUV_CY;
+          toHsv(clamp((luma + buv) >> YUV_SHIFT), clamp((luma + guv) >> YUV_SHIFT),
+              clamp((luma + ruv) >> YUV_SHIFT), sdivTable, hdivTable, hsv);
+          if (hsv[0] >= hsvMin[0] && hsv[0] <= hsvMax[0]
+              && hsv[1] >= hsvMin[1] && hsv[1] <= hsvMax[1]
+              && hsv[2] >= hsvMin[2] && hsv[2] <= hsvMax[2]) {
+            int index = (y << 16) | (u << 8) | v;
+            bits[index >>> 6] |= 1L << index;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Shared table for the default tape colour, built on first use.
+   */
+  public static synchronized YuvColorTable getTapeColorTable() {
+    if (tapeColorTable == null) {
+      tapeColorTable = new YuvColorTable(TAPE_COLOR_MIN, TAPE_COLOR_MAX);
+    }
+
+    return tapeColorTable;
+  }
+
+  /**
+   * Whether the given YUV colour falls inside the HSV bounds.
+   */
+  public boolean contains(int y, int u, int v) {
+    int index = (y << 16) | (u << 8) | v;
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Same as {@link #contains(int, int, int)}, with the three (unsigned) samples as read from
+   * the planes.
+   */
+  boolean contains(byte y, byte u, byte v) {
+    int index = ((y & 0xFF) << 16) | ((u & 0xFF) << 8) | (v & 0xFF);
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+
+  private static void toHsv(int blue, int green, int red, int[] sdivTable, int[] hdivTable,
+                            int[] hsv) {
+    int value = Math.max(blue, Math.max(green, red));
+    int diff = value - Math.min(blue, Math.min(green, red));
+
+    int hue;
+    if (value == red) {
+      hue = green - blue;
+    } else if (value == green) {
+      hue = blue - red + 2 * diff;
+    } else {
+      hue = red - green + 4 * diff;
+    }
+
+    hue = (hue * hdivTable[diff] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+    hsv[0] = hue < 0 ? hue + HSV_HUE_RANGE : hue;
+    hsv[1] = (diff * sdivTable[value] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+    hsv[2] = value;
+  }
+}
@@ -0,0 +1,132 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Converts {@link YuvFrame}s to OpenCV Mats by reading the planes in place, whatever their row
+ * and pixel strides, instead of repacking them in a contiguous I420 buffer first:
+ * <p>
+ * <p>- The luma plane can be wrapped as a grayscale Mat without copying anything, see
+ * {@link #wrapLuma(YuvFrame)}.
+ * <p>
+ * <p>- Colour frames are converted to BGR in a single pass, with the same integer arithmetic as
+ * OpenCV's `COLOR_YUV2BGR_I420` (so the output is identical), see {@link #toBgr(YuvFrame)}.
+ * <p>
+ * <p>The BGR Mat is allocated once and reused, so instances don't allocate per frame. They are
+ * not thread-safe.
+ */
+public class YuvConverter {
+
+  private static final int YUV_ROUND = 1 << (YuvColorTable.YUV_SHIFT - 1);
+
+  private final int width;
+  private final int height;
+
+  private final opencv_core.Mat bgr;
+  private final ByteBuffer bgrBuffer;
+  private final int bgrStep;
+
+  // A row of output, written to the Mat in bulk (much faster than pixel by pixel)
+  private final byte[] bgrRow;
+
+  /**
+   * Pre-allocates the BGR image for frames of the given size.
+   */
+  public YuvConverter(int width, int height) {
+    this.width = width;
+    this.height = height;
+
+    bgr = new opencv_core.Mat(height, width, opencv_core.CV_8UC3);
+    bgrBuffer = bgr.createBuffer();
+    bgrStep = (int) bgr.step();
+    bgrRow = new byte[width * 3];
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Wraps the luma plane as a grayscale Mat, without copying it. The plane must be backed by a
+   * direct buffer (as camera images are), and must outlive the returned Mat, which should be
+   * released once done with.
+   */
+  public static opencv_core.Mat wrapLuma(YuvFrame frame) {
+    ByteBuffer yBuffer = frame.getYBuffer();
+    if (!yBuffer.isDirect()) {
+      throw new LaneManagerException("Only direct buffers can be wrapped.");
+    }
+
+    return new opencv_core.Mat(frame.getHeight(), frame.getWidth(), opencv_core.CV_8UC1,
+        new BytePointer(yBuffer), frame.getYRowStride());
+  }
+
+  /**
+   * Converts the frame to BGR. The returned Mat is overwritten on every call.
+   */
+  public opencv_core.Mat toBgr(YuvFrame frame) {
+    if (frame.getWidth() != width || frame.getHeight() != height) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Expected a %dx%d frame, got %dx%d.",
+          width, height, frame.getWidth(), frame.getHeight()));
+    }
+
+    ByteBuffer yBuffer = frame.getYBuffer();
+    ByteBuffer uBuffer = frame.getUBuffer();
+    ByteBuffer vBuffer = frame.getVBuffer();
+    int yRowStride = frame.getYRowStride();
+    int uvRowStride = frame.getUvRowStride();
+    int uvPixelStride = frame.getUvPixelStride();
+
+    for (int row = 0; row < height; row++) {
+      int lumaOffset = row * yRowStride;
+      int chromaOffset = (row >> 1) * uvRowStride;
+      int out = 0;
+      for (int col = 0; col < width; col += 2) {
+        int chroma = chromaOffset + (col >> 1) * uvPixelStride;
+        int u = (uBuffer.get(chroma) & 0xFF) - 128;
+        int v = (vBuffer.get(chroma) & 0xFF) - 128;
+        int ruv = YUV_ROUND + YuvColorTable.YUV_CVR * v;
+        int guv = YUV_ROUND + YuvColorTable.YUV_CVG * v + YuvColorTable.YUV_CUG * u;
+        int buv = YUV_ROUND + YuvColorTable.YUV_CUB * u;
+
+        out = putPixel(yBuffer.get(lumaOffset + col), ruv, guv, buv, out);
+        if (col + 1 < width) {
+          out = putPixel(yBuffer.get(lumaOffset + col + 1), ruv, guv, buv, out);
+        }
+      }
+
+      bgrBuffer.position(row * bgrStep);
+      bgrBuffer.put(bgrRow);
+    }
+
+    return bgr;
+  }
+
+  /**
+   * Releases the native memory held by this object. It can't be used afterwards.
+   */
+  public void release() {
+    bgr.release();
+  }
+
+  private int putPixel(byte y, int ruv, int guv, int buv, int out) {
+    int luma = Math.max(0, (y & 0xFF) - 16) * YuvColorTable.YUV_CY;
+    bgrRow[out] = clamp((luma + buv) >> YuvColorTable.YUV_SHIFT);
+    bgrRow[out + 1] = clamp((luma + guv) >> YuvColorTable.YUV_SHIFT);
+    bgrRow[out + 2] = clamp((luma + ruv) >> YuvColorTable.YUV_SHIFT);
+    return out + 3;
+  }
+
+  private static byte clamp(int value) {
+    return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+  }
+}
@@ -0,0 +1,105 @@
+package com.zugaldia.robocar.cv;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * A 4:2:0 YUV frame, described the same way as an `android.media.Image` in the YUV_420_888
+ * format: three planes, each with a row stride, plus a pixel stride shared by the two chroma
+ * planes (1 for planar layouts such as I420, 2 for semi-planar ones such as NV21). The buffers
+ * are wrapped, not copied.
+ */
+public class YuvFrame {
+
+  private final int width;
+  private final int height;
+
+  private final ByteBuffer yBuffer;
+  private final ByteBuffer uBuffer;
+  private final ByteBuffer vBuffer;
+  private final int yRowStride;
+  private final int uvRowStride;
+  private final int uvPixelStride;
+
+  /**
+   * Wraps the three planes of a frame. The luma plane must have a pixel stride of 1.
+   */
+  public YuvFrame(int width, int height,
+                  ByteBuffer yBuffer, int yRowStride,
+                  ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride) {
+    if (width <= 0 || height <= 0 || yRowStride < width
+        || uvPixelStride < 1 || uvRowStride < ((width + 1) / 2 - 1) * uvPixelStride + 1) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Invalid %dx%d YUV frame (row strides %d and %d, chroma pixel stride %d).",
+          width, height, yRowStride, uvRowStride, uvPixelStride));
+    }
+
+    this.width = width;
+    this.height = height;
+    this.yBuffer = yBuffer;
+    this.uBuffer = uBuffer;
+    this.vBuffer = vBuffer;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  /**
+   * Wraps a planar I420 (YUV420p) array: the Y plane, then the U plane, then the V plane.
+   */
+  public static YuvFrame fromI420(byte[] data, int width, int height) {
+    int chromaWidth = (width + 1) / 2;
+    int chromaSize = chromaWidth * ((height + 1) / 2);
+    return new YuvFrame(width, height,
+        ByteBuffer.wrap(data, 0, width * height).slice(), width,
+        ByteBuffer.wrap(data, width * height, chromaSize).slice(),
+        ByteBuffer.wrap(data, width * height + chromaSize, chromaSize).slice(),
+        chromaWidth, 1);
+  }
+
+  /**
+   * Wraps a semi-planar NV21 array (the default format of the legacy camera API): the Y plane,
+   * then interleaved V and U samples.
+   */
+  public static YuvFrame fromNv21(byte[] data, int width, int height) {
+    int chromaRowStride = (width + 1) / 2 * 2;
+    int chromaSize = chromaRowStride * ((height + 1) / 2);
+    return new YuvFrame(width, height,
+        ByteBuffer.wrap(data, 0, width * height).slice(), width,
+        ByteBuffer.wrap(data, width * height + 1, chromaSize - 1).slice(),
+        ByteBuffer.wrap(data, width * height, chromaSize).slice(),
+        chromaRowStride, 2);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public ByteBuffer getYBuffer() {
+    return yBuffer;
+  }
+
+  public ByteBuffer getUBuffer() {
+    return uBuffer;
+  }
+
+  public ByteBuffer getVBuffer() {
+    return vBuffer;
+  }
+
+  public int getYRowStride() {
+    return yRowStride;
+  }
+
+  public int getUvRowStride() {
+    return uvRowStride;
+  }
+
+  public int getUvPixelStride() {
+    return uvPixelStride;
+  }
+}
@@ -0,0 +1,172 @@
+package com.zugaldia.robocar.cv;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Pure Java lane detector working directly on the Y, U and V planes of a frame, without
+ * JavaCV (and therefore without its startup and APK size costs).
+ * <p>
+ * <p>The bird's-eye view is never materialized: for every pixel of it, the (nearest) source
+ * pixel is precomputed once as offsets into the planes. A frame is then processed with one
+ * colour table lookup and one histogram increment per pixel, using integer math only.
+ * <p>
+ * <p>The histogram is exactly the one OpenCV gives when warping with nearest neighbour
+ * sampling. It's close to, but not the same as, the one of {@link OpenCvLaneDetector}, which
+ * interpolates between source pixels instead.
+ */
+public class YuvLaneDetector implements LaneDetector {
+
+  // Size of the source frames (and of the bird's-eye view)
+  private final int width;
+  private final int height;
+
+  // Source pixel of every warped pixel, as (row << 16 | col), or -1 if outside the frame
+  private final int[] sourcePixels;
+  private final int[] lumaOffsets;
+  private final int[] chromaOffsets;
+  private final int[] columnBins;
+  private final int[] binColumns;
+  private final YuvColorTable colorTable;
+
+  // Layout the offsets were computed for
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+
+  private final int[] histogram = new int[LaneMath.HISTOGRAM_BINS];
+  private final HistogramPosition position = new HistogramPosition(-1, -1);
+
+  /**
+   * Pre-computes the perspective lookup table for frames of the given size, using the default
+   * tape colour.
+   */
+  public YuvLaneDetector(int width, int height) {
+    this(width, height, YuvColorTable.getTapeColorTable());
+  }
+
+  /**
+   * Pre-computes the perspective lookup table for frames of the given size.
+   */
+  public YuvLaneDetector(int width, int height, YuvColorTable colorTable) {
+    if (width > Short.MAX_VALUE || height > Short.MAX_VALUE) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Frame too large: %dx%d.", width, height));
+    }
+
+    this.width = width;
+    this.height = height;
+    this.colorTable = colorTable;
+
+    // Map warped pixels back to the source with the inverse transform (to -> from)
+    double[] m = LaneMath.getPerspectiveTransform(
+        LaneMath.getToPoints(width, height), LaneMath.SOURCE_POINTS);
+    sourcePixels = new int[width * height];
+    for (int y = 0, i = 0; y < height; y++) {
+      for (int x = 0; x < width; x++, i++) {
+        double w = m[6] * x + m[7] * y + m[8];
+        w = w == 0 ? 0 : 1 / w;
+        long col = Math.round((m[0] * x + m[1] * y + m[2]) * w);
+        long row = Math.round((m[3] * x + m[4] * y + m[5]) * w);
+        boolean inside = col >= 0 && col < width && row >= 0 && row < height;
+        sourcePixels[i] = inside ? (int) (row << 16 | col) : -1;
+      }
+    }
+
+    lumaOffsets = new int[width * height];
+    chromaOffsets = new int[width * height];
+    columnBins = LaneMath.getColumnBins(width);
+    binColumns = LaneMath.getBinColumns(columnBins);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int[] getHistogram() {
+    return histogram;
+  }
+
+  @Override
+  public HistogramPosition findLane(YuvFrame frame) {
+    return findLane(frame, 0, LaneMath.HISTOGRAM_BINS);
+  }
+
+  /**
+   * Only the columns of the requested bins are processed, so the cost is proportional to the
+   * width of the window.
+   */
+  @Override
+  public HistogramPosition findLane(YuvFrame frame, int fromBin, int toBin) {
+    LaneMath.checkBins(fromBin, toBin);
+    if (frame.getWidth() != width || frame.getHeight() != height) {
+      throw new LaneManagerException(String.format(Locale.US,
+          "Expected a %dx%d frame, got %dx%d.",
+          width, height, frame.getWidth(), frame.getHeight()));
+    }
+
+    if (frame.getYRowStride() != yRowStride || frame.getUvRowStride() != uvRowStride
+        || frame.getUvPixelStride() != uvPixelStride) {
+      computeOffsets(frame.getYRowStride(), frame.getUvRowStride(), frame.getUvPixelStride());
+    }
+
+    ByteBuffer yBuffer = frame.getYBuffer();
+    ByteBuffer uBuffer = frame.getUBuffer();
+    ByteBuffer vBuffer = frame.getVBuffer();
+
+    int fromCol = binColumns[fromBin];
+    int toCol = binColumns[toBin];
+
+    Arrays.fill(histogram, 0);
+    for (int row = 0; row < height; row++) {
+      for (int col = fromCol, i = row * width + fromCol; col < toCol; col++, i++) {
+        int luma = lumaOffsets[i];
+        if (luma < 0) {
+          continue;
+        }
+
+        int chroma = chromaOffsets[i];
+        if (colorTable.contains(yBuffer.get(luma), uBuffer.get(chroma), vBuffer.get(chroma))) {
+          histogram[columnBins[col]]++;
+        }
+      }
+    }
+
+    LaneMath.getMaxPosition(histogram, position);
+    return position;
+  }
+
+  @Override
+  public void release() {
+    // Nothing native to release
+  }
+
+  /**
+   * Turns the source pixels into offsets for the given plane layout. Camera frames always
+   * share the same layout, so this normally only happens on the first frame.
+   */
+  private void computeOffsets(int yRowStride, int uvRowStride, int uvPixelStride) {
+    for (int i = 0; i < sourcePixels.length; i++) {
+      int pixel = sourcePixels[i];
+      if (pixel < 0) {
+        lumaOffsets[i] = -1;
+        continue;
+      }
+
+      int row = pixel >>> 16;
+      int col = pixel & 0xFFFF;
+      lumaOffsets[i] = row * yRowStride + col;
+      chromaOffsets[i] = (row / 2) * uvRowStride + (col / 2) * uvPixelStride;
+    }
+
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+}
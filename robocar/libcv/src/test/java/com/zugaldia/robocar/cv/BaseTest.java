@@ -10,6 +10,23 @@ import static org.junit.Assert.assertTrue;
 
 public class BaseTest {
 
+  final static String TEST_IMAGE = "/robocar.jpg";
+  final static int TEST_IMAGE_WIDTH = 320;
+  final static int TEST_IMAGE_HEIGHT = 240;
+
+  final static String[] LANE_TEST_IMAGES = new String[] {
+      TEST_IMAGE,
+      "/robocar-lanetest-01.jpg",
+      "/robocar-lanetest-02.jpg",
+      "/robocar-lanetest-03.jpg",
+      "/robocar-lanetest-04.jpg",
+      "/robocar-lanetest-05.jpg",
+      "/robocar-lanetest-06.jpg",
+      "/robocar-lanetest-07.jpg",
+      "/robocar-lanetest-08.jpg",
+      "/robocar-lanetest-09.jpg",
+      "/robocar-lanetest-10.jpg",};
+
   void drawHistogram(int[] histogram, opencv_core.Mat thresholdBinary, String output) {
     final double binSize = thresholdBinary.size().width() / LaneManager.HISTOGRAM_BINS;
     opencv_core.Scalar color = new opencv_core.Scalar(255, 255, 255, 255); // White
@@ -24,4 +41,8 @@ public class BaseTest {
 
     assertTrue(LaneManager.writeImage(output, thresholdBinary));
   }
+
+  String getResourcePath(String filename) {
+    return getClass().getResource(filename).getPath();
+  }
 }
@@ -0,0 +1,85 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColorLookupTableTest extends BaseTest {
+
+  @Test
+  public void testScalarBoundsMatchFullFrameBounds() {
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      assertSameMask(thresholdColorFullFrame(src), LaneManager.thresholdColor(src));
+    }
+  }
+
+  @Test
+  public void testContains() {
+    ColorLookupTable table = ColorLookupTable.getTapeColorTable();
+    assertTrue(table.contains(240, 250, 250)); // Pale yellow (H = 30, S = 10)
+    assertFalse(table.contains(255, 255, 255)); // White (H = 0)
+    assertFalse(table.contains(0, 255, 255)); // Yellow (S = 255)
+    assertFalse(table.contains(255, 0, 0)); // Blue
+  }
+
+  @Test
+  public void testLookupTableMatchesThresholdColor() {
+    ColorLookupTable table = ColorLookupTable.getTapeColorTable();
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      opencv_core.Mat thresholdBinary = new opencv_core.Mat();
+      table.apply(src, thresholdBinary);
+      assertSameMask(LaneManager.thresholdColor(src), thresholdBinary);
+
+      opencv_core.Mat warped = LaneManager.perspectiveTransform(src, LaneManager.SOURCE_POINTS,
+          LaneManager.getToPoints(src.cols(), src.rows()));
+      table.apply(warped, thresholdBinary);
+      assertSameMask(LaneManager.thresholdColor(warped), thresholdBinary);
+    }
+  }
+
+  @Test
+  public void testLaneFinderWithLookupTable() {
+    LaneFinder expected = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    LaneFinder laneFinder = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    laneFinder.setColorLookupTable(ColorLookupTable.getTapeColorTable());
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      expected.findLane(src);
+      laneFinder.findLane(src);
+      assertArrayEquals(expected.getHistogram(), laneFinder.getHistogram());
+    }
+
+    expected.release();
+    laneFinder.release();
+  }
+
+  /**
+   * The original implementation, with the bounds as full-frame matrices.
+   */
+  private static opencv_core.Mat thresholdColorFullFrame(opencv_core.Mat image) {
+    opencv_core.Mat thresholdBinary = new opencv_core.Mat();
+    opencv_core.Mat hsv = LaneManager.imageToHsv(image);
+    opencv_core.Mat lower = new opencv_core.Mat(
+        image.rows(), image.cols(), image.type(), LaneManager.TAPE_COLOR_MIN);
+    opencv_core.Mat upper = new opencv_core.Mat(
+        image.rows(), image.cols(), image.type(), LaneManager.TAPE_COLOR_MAX);
+    opencv_core.inRange(hsv, lower, upper, thresholdBinary);
+    return thresholdBinary;
+  }
+
+  private static void assertSameMask(opencv_core.Mat expected, opencv_core.Mat actual) {
+    assertEquals(expected.rows(), actual.rows());
+    assertEquals(expected.cols(), actual.cols());
+    assertEquals(expected.type(), actual.type());
+
+    opencv_core.Mat diff = new opencv_core.Mat();
+    opencv_core.bitwise_xor(expected, actual, diff);
+    assertEquals(0, opencv_core.countNonZero(diff));
+  }
+}
@@ -0,0 +1,163 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.UByteRawIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LaneDetectorTest extends BaseTest {
+
+  private final static double DELTA = 0.0001;
+
+  @Test
+  public void testTapeColorBounds() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(LaneManager.TAPE_COLOR_MIN.get(i), YuvColorTable.TAPE_COLOR_MIN[i], DELTA);
+      assertEquals(LaneManager.TAPE_COLOR_MAX.get(i), YuvColorTable.TAPE_COLOR_MAX[i], DELTA);
+    }
+  }
+
+  @Test
+  public void testPerspectiveTransform() {
+    float[] toPoints = LaneMath.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    double[] actual = LaneMath.getPerspectiveTransform(LaneMath.SOURCE_POINTS, toPoints);
+    opencv_core.Mat expected = LaneManager.getPerspectiveTransform(
+        LaneMath.SOURCE_POINTS, toPoints);
+    DoubleIndexer expectedIndexer = expected.createIndexer();
+    for (int i = 0; i < 9; i++) {
+      assertEquals(expectedIndexer.get(i / 3, i % 3), actual[i], DELTA);
+    }
+  }
+
+  /**
+   * Every YUV value, converted and thresholded by OpenCV, against the pure Java table.
+   */
+  @Test
+  public void testColorTableMatchesOpenCv() {
+    // For a given V: U changes every 2 columns, Y cycles within each 2x2 block and every 2 rows
+    final int width = 512;
+    final int height = 128;
+    YuvColorTable yuvTable = YuvColorTable.getTapeColorTable();
+    ColorLookupTable bgrTable = ColorLookupTable.getTapeColorTable();
+    byte[] data = new byte[width * height * 3 / 2];
+    opencv_core.Mat bgr = new opencv_core.Mat();
+    int mismatches = 0;
+    int matches = 0;
+
+    for (int v = 0; v < 256; v++) {
+      YuvFrame frame = YuvFrame.fromI420(data, width, height);
+      for (int row = 0; row < height; row++) {
+        for (int col = 0; col < width; col++) {
+          frame.getYBuffer().put(row * width + col, (byte) lumaAt(row, col));
+        }
+      }
+
+      for (int row = 0; row < height / 2; row++) {
+        for (int col = 0; col < width / 2; col++) {
+          frame.getUBuffer().put(row * width / 2 + col, (byte) col);
+          frame.getVBuffer().put(row * width / 2 + col, (byte) v);
+        }
+      }
+
+      opencv_core.Mat i420 = new opencv_core.Mat(height * 3 / 2, width, opencv_core.CV_8UC1);
+      ByteBuffer i420Buffer = i420.createBuffer();
+      i420Buffer.put(data);
+      opencv_imgproc.cvtColor(i420, bgr, opencv_imgproc.COLOR_YUV2BGR_I420);
+
+      UByteRawIndexer bgrIndexer = bgr.createIndexer();
+      for (int row = 0; row < height; row++) {
+        for (int col = 0; col < width; col++) {
+          boolean expected = bgrTable.contains(bgrIndexer.get(row, col, 0),
+              bgrIndexer.get(row, col, 1), bgrIndexer.get(row, col, 2));
+          if (expected != yuvTable.contains(lumaAt(row, col), col / 2, v)) {
+            mismatches++;
+          } else if (expected) {
+            matches++;
+          }
+        }
+      }
+
+      bgrIndexer.release();
+    }
+
+    assertEquals(0, mismatches);
+    assertTrue(matches > 0);
+  }
+
+  /**
+   * The pure Java detector gives exactly the same histogram as OpenCV when the latter samples
+   * the bird's-eye view with the nearest neighbour too.
+   */
+  @Test
+  public void testYuvDetectorMatchesOpenCv() {
+    LaneDetector detector = LaneDetectors.create(
+        LaneDetectors.YUV, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    opencv_core.Mat matrix = LaneManager.getPerspectiveTransform(LaneManager.SOURCE_POINTS,
+        LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+    for (String testImage : LANE_TEST_IMAGES) {
+      byte[] i420 = toI420(LaneManager.readImage(getResourcePath(testImage)));
+      opencv_core.Mat bgr = new opencv_core.Mat();
+      opencv_imgproc.cvtColor(new opencv_core.Mat(TEST_IMAGE_HEIGHT * 3 / 2, TEST_IMAGE_WIDTH,
+          opencv_core.CV_8UC1, new BytePointer(i420)), bgr, opencv_imgproc.COLOR_YUV2BGR_I420);
+      opencv_core.Mat warped = new opencv_core.Mat();
+      opencv_imgproc.warpPerspective(bgr, warped, matrix, bgr.size(),
+          opencv_imgproc.INTER_NEAREST, opencv_core.BORDER_CONSTANT, opencv_core.Scalar.ZERO);
+      int[] expected = LaneManager.histogramArray(LaneManager.thresholdColor(warped));
+
+      HistogramPosition position = detector.findLane(
+          YuvFrame.fromI420(i420, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      assertArrayEquals(testImage, expected, detector.getHistogram());
+      assertEquals(LaneManager.getMaxPosition(expected).getBinIndex(), position.getBinIndex());
+    }
+
+    detector.release();
+  }
+
+  @Test
+  public void testNv21MatchesI420() {
+    byte[] i420 = toI420(LaneManager.readImage(getResourcePath(TEST_IMAGE)));
+    int lumaSize = TEST_IMAGE_WIDTH * TEST_IMAGE_HEIGHT;
+    int chromaSize = lumaSize / 4;
+    byte[] nv21 = new byte[i420.length];
+    System.arraycopy(i420, 0, nv21, 0, lumaSize);
+    for (int i = 0; i < chromaSize; i++) {
+      nv21[lumaSize + 2 * i] = i420[lumaSize + chromaSize + i]; // V
+      nv21[lumaSize + 2 * i + 1] = i420[lumaSize + i]; // U
+    }
+
+    for (String name : new String[] {LaneDetectors.OPENCV, LaneDetectors.YUV}) {
+      LaneDetector detector = LaneDetectors.create(name, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+      detector.findLane(YuvFrame.fromI420(i420, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      int[] expected = detector.getHistogram().clone();
+      detector.findLane(YuvFrame.fromNv21(nv21, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      assertArrayEquals(name, expected, detector.getHistogram());
+      detector.release();
+    }
+  }
+
+  @Test(expected = LaneManagerException.class)
+  public void testUnknownDetector() {
+    LaneDetectors.create("unknown", TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+  }
+
+  private static int lumaAt(int row, int col) {
+    return (row / 2) * 4 + (row % 2) * 2 + (col % 2);
+  }
+
+  static byte[] toI420(opencv_core.Mat bgr) {
+    opencv_core.Mat i420 = new opencv_core.Mat();
+    opencv_imgproc.cvtColor(bgr, i420, opencv_imgproc.COLOR_BGR2YUV_I420);
+    byte[] data = new byte[(int) i420.total()];
+    ByteBuffer i420Buffer = i420.createBuffer();
+    i420Buffer.get(data);
+    return data;
+  }
+}
@@ -0,0 +1,153 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LaneFinderTest extends BaseTest {
+
+  private final static double DELTA = 0.001;
+
+  @Test
+  public void testFindLaneMatchesLaneManager() {
+    LaneFinder laneFinder = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      HistogramPosition expected = LaneManager.findLane(src);
+      HistogramPosition position = laneFinder.findLane(src);
+      assertEquals(expected.getBinIndex(), position.getBinIndex());
+      assertEquals(expected.getBinValue(), position.getBinValue(), DELTA);
+
+      opencv_core.Mat warped = LaneManager.perspectiveTransform(src, LaneManager.SOURCE_POINTS,
+          LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      int[] histogram = LaneManager.histogramArray(LaneManager.thresholdColor(warped));
+      assertArrayEquals(histogram, laneFinder.getHistogram());
+    }
+
+    laneFinder.release();
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    LaneFinder serial = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    LaneFinder parallel = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    for (ColorLookupTable table : new ColorLookupTable[] {
+        null, ColorLookupTable.getTapeColorTable()}) {
+      serial.setColorLookupTable(table);
+      parallel.setColorLookupTable(table);
+      for (int stripes : new int[] {2, 3, 4, 7}) {
+        parallel.setParallelism(LaneFinder.getSharedPool(), stripes);
+        assertEquals(stripes, parallel.getStripes());
+        for (String testImage : LANE_TEST_IMAGES) {
+          opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+          serial.findLane(src);
+          parallel.findLane(src);
+          assertArrayEquals(testImage, serial.getHistogram(), parallel.getHistogram());
+
+          opencv_core.Mat diff = new opencv_core.Mat();
+          opencv_core.bitwise_xor(
+              serial.getThresholdBinary(), parallel.getThresholdBinary(), diff);
+          assertEquals(0, opencv_core.countNonZero(diff));
+        }
+      }
+    }
+
+    parallel.setParallelism(null, 1);
+    assertEquals(1, parallel.getStripes());
+    serial.release();
+    parallel.release();
+  }
+
+  @Test
+  public void testRegionOfInterest() {
+    int roiTop = (int) LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT)[1];
+    LaneFinder fullFinder = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    LaneFinder roiFinder = new LaneFinder(
+        TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, roiTop, TEST_IMAGE_HEIGHT, false);
+    LaneFinder halfFinder = new LaneFinder(
+        TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, roiTop, TEST_IMAGE_HEIGHT, true);
+
+    assertEquals(TEST_IMAGE_WIDTH, roiFinder.getWarpedWidth());
+    assertEquals(TEST_IMAGE_HEIGHT - roiTop, roiFinder.getWarpedHeight());
+    assertEquals(TEST_IMAGE_WIDTH / 2, halfFinder.getWarpedWidth());
+    assertEquals((TEST_IMAGE_HEIGHT - roiTop + 1) / 2, halfFinder.getWarpedHeight());
+
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      fullFinder.findLane(src);
+      roiFinder.findLane(src);
+      HistogramPosition halfPosition = halfFinder.findLane(src);
+
+      // Same as the full frame, restricted to the band
+      opencv_core.Mat band = fullFinder.getThresholdBinary().rowRange(roiTop, TEST_IMAGE_HEIGHT);
+      int[] expected = LaneManager.histogramArray(band);
+      assertArrayEquals(expected, roiFinder.getHistogram());
+
+      // Half resolution can only be off by rounding at the bin edges
+      int expectedBin = LaneManager.getMaxPosition(expected).getBinIndex();
+      assertTrue(Math.abs(expectedBin - halfPosition.getBinIndex()) <= 1);
+    }
+
+    fullFinder.release();
+    roiFinder.release();
+    halfFinder.release();
+  }
+
+  @Test
+  public void testNoAllocationsAfterWarmUp() throws InterruptedException {
+    opencv_core.Mat src = LaneManager.readImage(getResourcePath(TEST_IMAGE));
+    LaneFinder laneFinder = new LaneFinder(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    SlidingWindowSearch search = new SlidingWindowSearch(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+
+    // Warm up
+    HistogramPosition position = laneFinder.findLane(src);
+    LaneCurve curve = laneFinder.fitLane(search);
+    long warpedAddress = laneFinder.getWarped().data().address();
+    long thresholdAddress = laneFinder.getThresholdBinary().data().address();
+
+    laneFinder.setParallelism(LaneFinder.getSharedPool(), 4);
+    laneFinder.findLane(src);
+
+    // Make sure pending deallocations don't interfere with the count
+    long totalBytes = settleNativeMemory();
+
+    for (int i = 0; i < 100; i++) {
+      assertSame(position, laneFinder.findLane(src));
+      assertSame(curve, laneFinder.fitLane(search));
+    }
+
+    laneFinder.setParallelism(null, 1);
+    for (int i = 0; i < 100; i++) {
+      assertSame(position, laneFinder.findLane(src));
+      assertSame(curve, laneFinder.fitLane(search));
+    }
+
+    // No new JavaCPP pointers, and OpenCV didn't reallocate the intermediate buffers
+    assertEquals(totalBytes, Pointer.totalBytes());
+    assertEquals(warpedAddress, laneFinder.getWarped().data().address());
+    assertEquals(thresholdAddress, laneFinder.getThresholdBinary().data().address());
+
+    laneFinder.release();
+  }
+
+  /**
+   * Collects garbage until JavaCPP has no more pending deallocations, and returns the amount of
+   * native memory still in use.
+   */
+  private static long settleNativeMemory() throws InterruptedException {
+    long totalBytes = -1;
+    for (int i = 0; i < 10 && totalBytes != Pointer.totalBytes(); i++) {
+      totalBytes = Pointer.totalBytes();
+      System.gc();
+      Thread.sleep(100);
+      Pointer.deallocateReferences();
+    }
+
+    return Pointer.totalBytes();
+  }
+}
@@ -2,9 +2,11 @@ package com.zugaldia.robocar.cv;
 
 import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.bytedeco.javacpp.indexer.UByteRawIndexer;
 import org.bytedeco.javacpp.opencv_core;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -13,10 +15,6 @@ public class LaneManagerTest extends BaseTest {
 
   private final static double DELTA = 0.001;
 
-  private final static String TEST_IMAGE = "/robocar.jpg";
-  private final static int TEST_IMAGE_WIDTH = 320;
-  private final static int TEST_IMAGE_HEIGHT = 240;
-
   @Test
   public void testReadImage() {
     opencv_core.Mat src = LaneManager.readImage(getResourcePath(TEST_IMAGE));
@@ -145,6 +143,21 @@ public class LaneManagerTest extends BaseTest {
     drawHistogram(histogram, thresholdBinary, "/tmp/robocar_histogramArray.jpg");
   }
 
+  @Test
+  public void testHistogramArrayParity() {
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      opencv_core.Mat saturationChannel = LaneManager.getSaturationChannel(src);
+      opencv_core.Mat thresholdBinary = LaneManager.threshold(saturationChannel, 150);
+      assertArrayEquals(histogramArrayByColumn(thresholdBinary),
+          LaneManager.histogramArray(thresholdBinary));
+
+      // Any non-zero value counts as one, not just 255
+      assertArrayEquals(histogramArrayByColumn(saturationChannel),
+          LaneManager.histogramArray(saturationChannel));
+    }
+  }
+
   @Test
   public void testHistogram() {
     opencv_core.Mat src = LaneManager.readImage(getResourcePath(TEST_IMAGE));
@@ -191,19 +204,7 @@ public class LaneManagerTest extends BaseTest {
 
   @Test
   public void testFindLane() {
-    String[] testImages = new String[] {
-        TEST_IMAGE,
-        "/robocar-lanetest-01.jpg",
-        "/robocar-lanetest-02.jpg",
-        "/robocar-lanetest-03.jpg",
-        "/robocar-lanetest-04.jpg",
-        "/robocar-lanetest-05.jpg",
-        "/robocar-lanetest-06.jpg",
-        "/robocar-lanetest-07.jpg",
-        "/robocar-lanetest-08.jpg",
-        "/robocar-lanetest-09.jpg",
-        "/robocar-lanetest-10.jpg",};
-    for (String testImage: testImages) {
+    for (String testImage: LANE_TEST_IMAGES) {
       opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
       HistogramPosition position = LaneManager.findLane(src);
 
@@ -229,6 +230,27 @@ public class LaneManagerTest extends BaseTest {
     assertTrue(LaneManager.writeImage("/tmp/robocar_line.jpg", src));
   }
 
+  /**
+   * The original (column-major) implementation of histogramArray.
+   */
+  private static int[] histogramArrayByColumn(opencv_core.Mat image) {
+    final int[] result = new int[LaneManager.HISTOGRAM_BINS];
+    final double binSize = image.size().width() / LaneManager.HISTOGRAM_BINS;
+
+    UByteRawIndexer binaryIndex = image.createIndexer();
+    for (int col = 0; col < image.cols(); col++) {
+      int bin = (int) (col / binSize);
+      for (int row = 0; row < image.rows(); row++) {
+        int value = binaryIndex.get(row, col);
+        if (value > 0) {
+          result[bin]++;
+        }
+      }
+    }
+
+    return result;
+  }
+
   @Test
   public void testLaneDetection() {
     opencv_core.Mat original = LaneManager.readImage(getResourcePath(TEST_IMAGE));
@@ -250,8 +272,4 @@ public class LaneManagerTest extends BaseTest {
 
     assertTrue(LaneManager.writeImage("/tmp/robocar_lanes.jpg", original));
   }
-
-  private String getResourcePath(String filename) {
-    return getClass().getResource(filename).getPath();
-  }
 }
@@ -0,0 +1,162 @@
+package com.zugaldia.robocar.cv;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LaneTrackerTest extends BaseTest {
+
+  private final static double DELTA = 0.0001;
+
+  @Test
+  public void testWindowSearch() {
+    FakeLaneDetector detector = new FakeLaneDetector();
+    LaneTracker tracker = new LaneTracker(detector);
+
+    // First frame: full search
+    detector.lane = 10;
+    assertTrue(tracker.track(null));
+    assertEquals(0, detector.fromBin);
+    assertEquals(LaneMath.HISTOGRAM_BINS, detector.toBin);
+    assertEquals(10, tracker.getPosition(), DELTA);
+
+    // Then only around the last position
+    detector.lane = 11;
+    assertTrue(tracker.track(null));
+    assertEquals(10 - LaneTracker.DEFAULT_WINDOW_BINS, detector.fromBin);
+    assertEquals(10 + LaneTracker.DEFAULT_WINDOW_BINS + 1, detector.toBin);
+    assertEquals(1, tracker.getWindowSearches());
+    assertEquals(1, tracker.getFullSearches());
+  }
+
+  @Test
+  public void testFullSearchWhenOutsideWindow() {
+    FakeLaneDetector detector = new FakeLaneDetector();
+    LaneTracker tracker = new LaneTracker(detector);
+    detector.lane = 5;
+    tracker.track(null);
+
+    // Jumped out of the window, found again with a full search in the same frame
+    detector.lane = 25;
+    assertTrue(tracker.track(null));
+    assertEquals(1, tracker.getWindowSearches());
+    assertEquals(2, tracker.getFullSearches());
+    assertTrue(tracker.getPosition() > 5);
+  }
+
+  @Test
+  public void testSmoothing() {
+    FakeLaneDetector detector = new FakeLaneDetector();
+    LaneTracker tracker = new LaneTracker(detector);
+
+    // The lane jitters between two bins, the estimate shouldn't
+    double min = Double.MAX_VALUE;
+    double max = -Double.MAX_VALUE;
+    for (int frame = 0; frame < 100; frame++) {
+      detector.lane = frame % 2 == 0 ? 14 : 16;
+      assertTrue(tracker.track(null));
+      if (frame >= 50) {
+        min = Math.min(min, tracker.getPosition());
+        max = Math.max(max, tracker.getPosition());
+      }
+    }
+
+    assertTrue(max - min < 2);
+    assertEquals(15, (min + max) / 2, 0.5);
+  }
+
+  @Test
+  public void testFollowsDrift() {
+    FakeLaneDetector detector = new FakeLaneDetector();
+    LaneTracker tracker = new LaneTracker(detector);
+    for (int frame = 0; frame < 20; frame++) {
+      detector.lane = 5 + frame;
+      assertTrue(tracker.track(null));
+    }
+
+    assertEquals(24, tracker.getPosition(), 1);
+    assertEquals(1, tracker.getVelocity(), 0.2);
+  }
+
+  @Test
+  public void testLost() {
+    FakeLaneDetector detector = new FakeLaneDetector();
+    LaneTracker tracker = new LaneTracker(detector);
+    detector.lane = 10;
+    tracker.track(null);
+
+    // Coasts for a few frames, then gives up
+    detector.lane = -1;
+    for (int frame = 0; frame < LaneTracker.DEFAULT_MAX_LOST_FRAMES; frame++) {
+      assertFalse(tracker.track(null));
+      assertTrue(tracker.isTracking());
+    }
+
+    assertFalse(tracker.track(null));
+    assertFalse(tracker.isTracking());
+
+    // And starts over
+    detector.lane = 20;
+    assertTrue(tracker.track(null));
+    assertEquals(20, tracker.getPosition(), DELTA);
+  }
+
+  @Test
+  public void testWindowMatchesFullHistogram() {
+    YuvLaneDetector detector = new YuvLaneDetector(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    for (String testImage : LANE_TEST_IMAGES) {
+      YuvFrame frame = YuvFrame.fromI420(LaneDetectorTest.toI420(LaneManager.readImage(
+          getResourcePath(testImage))), TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+      detector.findLane(frame);
+      int[] expected = detector.getHistogram().clone();
+      Arrays.fill(expected, 0, 8, 0);
+      Arrays.fill(expected, 20, expected.length, 0);
+
+      detector.findLane(frame, 8, 20);
+      assertArrayEquals(testImage, expected, detector.getHistogram());
+    }
+  }
+
+  /**
+   * Reports a lane of 100 pixels at a given bin, or no lane if the bin is negative.
+   */
+  private static class FakeLaneDetector implements LaneDetector {
+    private final int[] histogram = new int[LaneMath.HISTOGRAM_BINS];
+    private final HistogramPosition position = new HistogramPosition(-1, -1);
+    int lane;
+    int fromBin;
+    int toBin;
+
+    @Override
+    public HistogramPosition findLane(YuvFrame frame) {
+      return findLane(frame, 0, LaneMath.HISTOGRAM_BINS);
+    }
+
+    @Override
+    public HistogramPosition findLane(YuvFrame frame, int fromBin, int toBin) {
+      this.fromBin = fromBin;
+      this.toBin = toBin;
+      Arrays.fill(histogram, 0);
+      if (lane >= fromBin && lane < toBin) {
+        histogram[lane] = 100;
+      }
+
+      LaneMath.getMaxPosition(histogram, position);
+      return position;
+    }
+
+    @Override
+    public int[] getHistogram() {
+      return histogram;
+    }
+
+    @Override
+    public void release() {
+    }
+  }
+}
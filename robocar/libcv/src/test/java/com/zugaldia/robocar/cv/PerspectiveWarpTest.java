@@ -0,0 +1,72 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PerspectiveWarpTest extends BaseTest {
+
+  private final static double DELTA = 0.001;
+
+  @Test
+  public void testCache() {
+    float[] toPoints = LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    PerspectiveWarp warp = PerspectiveWarp.get(
+        LaneManager.SOURCE_POINTS, toPoints, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+
+    // Same values (even in different arrays) share the calibration
+    assertSame(warp, PerspectiveWarp.get(LaneManager.SOURCE_POINTS.clone(), toPoints.clone(),
+        TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+
+    // A different frame size doesn't
+    assertNotSame(warp, PerspectiveWarp.get(LaneManager.SOURCE_POINTS, toPoints,
+        TEST_IMAGE_WIDTH / 2, TEST_IMAGE_HEIGHT / 2));
+  }
+
+  @Test
+  public void testMatrix() {
+    float[] toPoints = LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    PerspectiveWarp warp = PerspectiveWarp.get(
+        LaneManager.SOURCE_POINTS, toPoints, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    opencv_core.Mat expected = LaneManager.getPerspectiveTransform(
+        LaneManager.SOURCE_POINTS, toPoints);
+    assertEquals(0, opencv_core.norm(expected, warp.getMatrix()), DELTA);
+  }
+
+  @Test
+  public void testRemapMatchesWarp() {
+    for (String testImage : LANE_TEST_IMAGES) {
+      opencv_core.Mat src = LaneManager.readImage(getResourcePath(testImage));
+      PerspectiveWarp warp = PerspectiveWarp.get(LaneManager.SOURCE_POINTS,
+          LaneManager.getToPoints(src.cols(), src.rows()), src.cols(), src.rows());
+
+      opencv_core.Mat warped = new opencv_core.Mat();
+      warp.warp(src, warped);
+      opencv_core.Mat remapped = new opencv_core.Mat();
+      warp.remap(src, remapped);
+
+      assertEquals(warped.rows(), remapped.rows());
+      assertEquals(warped.cols(), remapped.cols());
+      assertEquals(warped.type(), remapped.type());
+
+      // Both use the same fixed-point interpolation, they can only differ by rounding
+      opencv_core.Mat diff = new opencv_core.Mat();
+      opencv_core.absdiff(warped, remapped, diff);
+      DoublePointer maxDiff = new DoublePointer(1);
+      opencv_core.minMaxLoc(diff.reshape(1), null, maxDiff, null, null, null);
+      assertTrue(maxDiff.get() <= 1);
+    }
+
+    opencv_core.Mat src = LaneManager.readImage(getResourcePath(TEST_IMAGE));
+    opencv_core.Mat remapped = new opencv_core.Mat();
+    PerspectiveWarp.get(LaneManager.SOURCE_POINTS,
+        LaneManager.getToPoints(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT),
+        TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT).remap(src, remapped);
+    assertTrue(LaneManager.writeImage("/tmp/robocar_remapped.jpg", remapped));
+  }
+}
@@ -0,0 +1,94 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowSearchTest extends BaseTest {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final int LANE_WIDTH = 6;
+
+  @Test
+  public void testStraightLane() {
+    ByteBuffer mask = drawLane(0, 0, 200);
+    LaneCurve curve = new SlidingWindowSearch(WIDTH, HEIGHT).search(mask, WIDTH, 195);
+    assertTrue(curve.isFound());
+    assertEquals(SlidingWindowSearch.DEFAULT_BANDS, curve.getBands());
+    assertEquals(200 + (LANE_WIDTH - 1) / 2.0, curve.getC(), 0.5);
+    assertEquals(200 + (LANE_WIDTH - 1) / 2.0 - WIDTH / 2, curve.getOffset(), 0.5);
+    assertEquals(0, curve.getHeading(), 0.01);
+    assertEquals(0, curve.getCurvature(), 0.0001);
+  }
+
+  @Test
+  public void testSlantedLane() {
+    // Heading to the left, one column every 4 rows
+    ByteBuffer mask = drawLane(0, -0.25, 200);
+    LaneCurve curve = new SlidingWindowSearch(WIDTH, HEIGHT).search(mask, WIDTH, 200);
+    assertEquals(SlidingWindowSearch.DEFAULT_BANDS, curve.getBands());
+    assertEquals(Math.atan(-0.25), curve.getHeading(), 0.02);
+    assertEquals(0, curve.getCurvature(), 0.0001);
+  }
+
+  @Test
+  public void testCurvedLane() {
+    // Bends to the right
+    double a = 0.002;
+    ByteBuffer mask = drawLane(a, -0.3, 160);
+    LaneCurve curve = new SlidingWindowSearch(WIDTH, HEIGHT).search(mask, WIDTH, 160);
+    assertEquals(SlidingWindowSearch.DEFAULT_BANDS, curve.getBands());
+    assertEquals(a, curve.getA(), 0.0005);
+    assertTrue(curve.getCurvature() > 0);
+    assertEquals(curve.getX(HEIGHT / 2), 160 - 0.3 * HEIGHT / 2 + a * HEIGHT * HEIGHT / 4
+        + (LANE_WIDTH - 1) / 2.0, 3);
+  }
+
+  @Test
+  public void testNoLane() {
+    ByteBuffer mask = ByteBuffer.allocate(WIDTH * HEIGHT);
+    LaneCurve curve = new SlidingWindowSearch(WIDTH, HEIGHT).search(mask, WIDTH, 160);
+    assertFalse(curve.isFound());
+    assertEquals(0, curve.getBands());
+  }
+
+  @Test
+  public void testLaneFinder() {
+    opencv_core.Mat src = LaneManager.readImage(getResourcePath(TEST_IMAGE));
+    LaneFinder laneFinder = new LaneFinder(src.cols(), src.rows());
+    SlidingWindowSearch search = new SlidingWindowSearch(
+        laneFinder.getWarpedWidth(), laneFinder.getWarpedHeight());
+    HistogramPosition position = laneFinder.findLane(src);
+    LaneCurve curve = laneFinder.fitLane(search);
+
+    // The lane is where the histogram said, at the bottom of the image
+    assertTrue(curve.isFound());
+    double binSize = (double) src.cols() / LaneManager.HISTOGRAM_BINS;
+    assertEquals((position.getBinIndex() + 0.5) * binSize, curve.getC(), 2 * binSize);
+    laneFinder.release();
+  }
+
+  /**
+   * Draws a lane x = a * y^2 + b * y + c, with y going up from the bottom of the image.
+   */
+  private static ByteBuffer drawLane(double a, double b, double c) {
+    ByteBuffer mask = ByteBuffer.allocate(WIDTH * HEIGHT);
+    for (int row = 0; row < HEIGHT; row++) {
+      double y = HEIGHT - row - 0.5;
+      int x = (int) Math.round((a * y + b) * y + c);
+      for (int col = x; col < x + LANE_WIDTH; col++) {
+        if (col >= 0 && col < WIDTH) {
+          mask.put(row * WIDTH + col, (byte) 255);
+        }
+      }
+    }
+
+    return mask;
+  }
+}
@@ -0,0 +1,120 @@
+package com.zugaldia.robocar.cv;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.indexer.UByteRawIndexer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_imgproc;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class YuvConverterTest extends BaseTest {
+
+  // Extra bytes at the end of every row, as camera images often have
+  private static final int ROW_PADDING = 16;
+
+  @Test
+  public void testToBgrMatchesOpenCv() {
+    YuvConverter converter = new YuvConverter(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    for (String testImage : LANE_TEST_IMAGES) {
+      byte[] i420 = LaneDetectorTest.toI420(LaneManager.readImage(getResourcePath(testImage)));
+      opencv_core.Mat expected = new opencv_core.Mat();
+      opencv_imgproc.cvtColor(new opencv_core.Mat(TEST_IMAGE_HEIGHT * 3 / 2, TEST_IMAGE_WIDTH,
+          opencv_core.CV_8UC1, new BytePointer(i420)), expected,
+          opencv_imgproc.COLOR_YUV2BGR_I420);
+
+      opencv_core.Mat actual = converter.toBgr(
+          YuvFrame.fromI420(i420, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+      assertEquals(testImage, 0, countDifferences(expected, actual));
+    }
+
+    converter.release();
+  }
+
+  @Test
+  public void testToBgrWithStrides() {
+    byte[] i420 = LaneDetectorTest.toI420(LaneManager.readImage(getResourcePath(TEST_IMAGE)));
+    YuvConverter converter = new YuvConverter(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT);
+    opencv_core.Mat expected = converter.toBgr(
+        YuvFrame.fromI420(i420, TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT)).clone();
+
+    opencv_core.Mat actual = converter.toBgr(toPaddedNv21(i420));
+    assertEquals(0, countDifferences(expected, actual));
+    converter.release();
+  }
+
+  @Test
+  public void testWrapLuma() {
+    byte[] i420 = LaneDetectorTest.toI420(LaneManager.readImage(getResourcePath(TEST_IMAGE)));
+    YuvFrame frame = toPaddedNv21(i420);
+    opencv_core.Mat luma = YuvConverter.wrapLuma(frame);
+    assertEquals(TEST_IMAGE_WIDTH, luma.cols());
+    assertEquals(TEST_IMAGE_HEIGHT, luma.rows());
+    assertEquals(TEST_IMAGE_WIDTH + ROW_PADDING, luma.step());
+
+    // A view of the plane, not a copy
+    frame.getYBuffer().put(TEST_IMAGE_WIDTH + ROW_PADDING + 1, (byte) 42);
+    UByteRawIndexer indexer = luma.createIndexer();
+    assertEquals(42, indexer.get(1, 1));
+    for (int row = 0; row < TEST_IMAGE_HEIGHT; row += 7) {
+      for (int col = 0; col < TEST_IMAGE_WIDTH; col += 5) {
+        if (row != 1 || col != 1) {
+          assertEquals(i420[row * TEST_IMAGE_WIDTH + col] & 0xFF, indexer.get(row, col));
+        }
+      }
+    }
+
+    indexer.release();
+    luma.release();
+  }
+
+  @Test(expected = LaneManagerException.class)
+  public void testWrapLumaRequiresDirectBuffer() {
+    YuvConverter.wrapLuma(YuvFrame.fromI420(
+        new byte[TEST_IMAGE_WIDTH * TEST_IMAGE_HEIGHT * 3 / 2],
+        TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT));
+  }
+
+  /**
+   * Lays out an I420 frame as a camera would: direct buffers, padded rows, and interleaved
+   * chroma samples (V first, as in NV21).
+   */
+  private static YuvFrame toPaddedNv21(byte[] i420) {
+    int lumaStride = TEST_IMAGE_WIDTH + ROW_PADDING;
+    int chromaWidth = TEST_IMAGE_WIDTH / 2;
+    int chromaHeight = TEST_IMAGE_HEIGHT / 2;
+    int chromaStride = TEST_IMAGE_WIDTH + ROW_PADDING;
+    int lumaSize = TEST_IMAGE_WIDTH * TEST_IMAGE_HEIGHT;
+    int chromaSize = chromaWidth * chromaHeight;
+
+    ByteBuffer luma = ByteBuffer.allocateDirect(lumaStride * TEST_IMAGE_HEIGHT);
+    for (int row = 0; row < TEST_IMAGE_HEIGHT; row++) {
+      for (int col = 0; col < TEST_IMAGE_WIDTH; col++) {
+        luma.put(row * lumaStride + col, i420[row * TEST_IMAGE_WIDTH + col]);
+      }
+    }
+
+    ByteBuffer chroma = ByteBuffer.allocateDirect(chromaStride * chromaHeight);
+    for (int row = 0; row < chromaHeight; row++) {
+      for (int col = 0; col < chromaWidth; col++) {
+        int index = row * chromaWidth + col;
+        chroma.put(row * chromaStride + 2 * col, i420[lumaSize + chromaSize + index]);
+        chroma.put(row * chromaStride + 2 * col + 1, i420[lumaSize + index]);
+      }
+    }
+
+    chroma.position(1);
+    ByteBuffer u = chroma.slice();
+    chroma.position(0);
+    return new YuvFrame(TEST_IMAGE_WIDTH, TEST_IMAGE_HEIGHT, luma, lumaStride,
+        u, chroma, chromaStride, 2);
+  }
+
+  private static int countDifferences(opencv_core.Mat expected, opencv_core.Mat actual) {
+    opencv_core.Mat diff = new opencv_core.Mat();
+    opencv_core.absdiff(expected, actual, diff);
+    return opencv_core.countNonZero(diff.reshape(1, 0));
+  }
+}
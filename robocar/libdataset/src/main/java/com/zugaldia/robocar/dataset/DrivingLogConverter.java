@@ -0,0 +1,164 @@
+package com.zugaldia.robocar.dataset;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts dataset segments to the layout expected by training/model.py: the photos in an IMG
+ * folder, and a driving_log.csv with one line per photo (center, left, right, steering,
+ * throttle, brake, speed).
+ * <p>
+ * <p>The car has a single camera, so the left and right columns are left empty. Steering and
+ * throttle are derived from the motor speeds: steering is the difference between the left
+ * (1, 2) and right (3, 4) motors over their sum, from -1 (full left) to 1 (full right), and
+ * throttle their mean over the max speed. Brake is always 0, and speed is the mean motor speed.
+ * <p>
+ * <p>Usage: DrivingLogConverter output-folder segment-or-folder...
+ */
+public class DrivingLogConverter implements Closeable {
+
+  public static final String DRIVING_LOG = "driving_log.csv";
+  public static final String IMAGE_FOLDER = "IMG";
+
+  private static final String HEADER = "center,left,right,steering,throttle,brake,speed";
+  private static final int MAX_SPEED = 255;
+
+  private final File imageFolder;
+  private final PrintWriter log;
+
+  /**
+   * Creates the output folder and the log, overwriting the log if it exists.
+   */
+  public DrivingLogConverter(File output) throws IOException {
+    imageFolder = new File(output, IMAGE_FOLDER);
+    if (!imageFolder.isDirectory() && !imageFolder.mkdirs()) {
+      throw new IOException("Failed to create " + imageFolder);
+    }
+
+    log = new PrintWriter(new FileWriter(new File(output, DRIVING_LOG)));
+    log.println(HEADER);
+  }
+
+  /**
+   * Adds the records of the segment, returns how many.
+   */
+  public int convert(SegmentReader reader) throws IOException {
+    String name = reader.getFile().getName();
+    if (name.endsWith(Segment.EXTENSION)) {
+      name = name.substring(0, name.length() - Segment.EXTENSION.length());
+    }
+
+    for (SegmentRecord record : reader) {
+      String path = String.format(Locale.US, "%s/%s-%d.jpg",
+          IMAGE_FOLDER, name, record.getTimestamp());
+      writePhoto(new File(imageFolder.getParentFile(), path), record.getPhoto());
+
+      int[] speeds = record.getSpeeds();
+      log.println(String.format(Locale.US, "%s,,,%.4f,%.4f,0,%.1f", path,
+          getSteering(speeds), getThrottle(speeds), getThrottle(speeds) * MAX_SPEED));
+    }
+
+    if (log.checkError()) {
+      throw new IOException("Failed to write " + DRIVING_LOG);
+    }
+
+    return reader.size();
+  }
+
+  private static void writePhoto(File file, ByteBuffer photo) throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      FileChannel channel = output.getChannel();
+      while (photo.hasRemaining()) {
+        channel.write(photo);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * From -1 (only the right motors run) to 1 (only the left ones do).
+   */
+  static double getSteering(int[] speeds) {
+    double left = getSpeed(speeds, 0) + getSpeed(speeds, 1);
+    double right = getSpeed(speeds, 2) + getSpeed(speeds, 3);
+    return left + right == 0 ? 0 : (left - right) / (left + right);
+  }
+
+  /**
+   * From 0 to 1.
+   */
+  static double getThrottle(int[] speeds) {
+    double total = 0;
+    for (int i = 0; i < Segment.MOTOR_COUNT; i++) {
+      total += getSpeed(speeds, i);
+    }
+
+    return total / Segment.MOTOR_COUNT / MAX_SPEED;
+  }
+
+  // Motors that were never set report -1
+  private static int getSpeed(int[] speeds, int index) {
+    return Math.max(0, speeds[index]);
+  }
+
+  @Override
+  public void close() {
+    log.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: DrivingLogConverter output-folder segment-or-folder...");
+      System.exit(1);
+    }
+
+    List<File> segments = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      File file = new File(args[i]);
+      File[] children = file.listFiles();
+      if (children == null) {
+        segments.add(file);
+        continue;
+      }
+
+      Arrays.sort(children);
+      for (File child : children) {
+        if (child.getName().endsWith(Segment.EXTENSION)) {
+          segments.add(child);
+        }
+      }
+    }
+
+    int total = 0;
+    DrivingLogConverter converter = new DrivingLogConverter(new File(args[0]));
+    try {
+      for (File segment : segments) {
+        SegmentReader reader = new SegmentReader(segment);
+        try {
+          int count = converter.convert(reader);
+          total += count;
+          System.out.println(String.format(Locale.US, "%s: %d frames%s", segment, count,
+              reader.isIndexed() ? "" : " (not closed properly)"));
+        } finally {
+          reader.close();
+        }
+      }
+    } finally {
+      converter.close();
+    }
+
+    System.out.println(String.format(Locale.US, "%d frames written to %s", total, args[0]));
+  }
+}
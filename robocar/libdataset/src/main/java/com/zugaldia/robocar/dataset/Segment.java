@@ -0,0 +1,39 @@
+package com.zugaldia.robocar.dataset;
+
+/**
+ * Layout of a dataset segment: an append-only file of frame records, so that a recording
+ * session is a handful of large files instead of one small JPEG per frame. All values are big
+ * endian.
+ * <p>
+ * <p>Header: magic ({@link #MAGIC}) and format version, both ints.
+ * <p>
+ * <p>Records, one per frame: the length of the rest of the record (int), the sensor timestamp
+ * in nanoseconds (long), the speeds of the four motors (ints, as reported by the motor hat, -1
+ * if never set) and the JPEG bytes of the photo.
+ * <p>
+ * <p>Index footer, appended when the segment is closed: the offset of every record (longs),
+ * then the number of records (int), the offset of the index (long) and {@link #INDEX_MAGIC}
+ * (int). A segment without the footer (e.g. if the app was killed) is still readable, its
+ * records are found by walking the length prefixes, and a truncated last record is ignored.
+ */
+public final class Segment {
+
+  public static final String EXTENSION = ".seg";
+
+  public static final int MAGIC = 0x52435347; // RCSG
+  public static final int INDEX_MAGIC = 0x52434958; // RCIX
+  public static final int VERSION = 1;
+
+  public static final int MOTOR_COUNT = 4;
+
+  static final int HEADER_SIZE = 8;
+
+  // Length prefix, timestamp and motor speeds
+  static final int RECORD_HEADER_SIZE = 4 + 8 + 4 * MOTOR_COUNT;
+
+  // Record count, index offset and magic
+  static final int TRAILER_SIZE = 4 + 8 + 4;
+
+  private Segment() {
+  }
+}
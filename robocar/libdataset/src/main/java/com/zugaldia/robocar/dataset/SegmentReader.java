@@ -0,0 +1,165 @@
+package com.zugaldia.robocar.dataset;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a {@link Segment} by memory-mapping it: records are accessed in place, without a read
+ * per frame, and photos are views of the mapping rather than copies. Uses the index footer when
+ * present, otherwise walks the records once on open.
+ */
+public class SegmentReader implements Closeable, Iterable<SegmentRecord> {
+
+  private final File file;
+  private final RandomAccessFile input;
+  private final MappedByteBuffer buffer;
+  private final long[] offsets;
+  private final boolean indexed;
+
+  public SegmentReader(File file) throws IOException {
+    this.file = file;
+    input = new RandomAccessFile(file, "r");
+    try {
+      long length = input.length();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Segment too large to map: " + file);
+      }
+
+      buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      if (length < Segment.HEADER_SIZE || buffer.getInt(0) != Segment.MAGIC) {
+        throw new IOException("Not a dataset segment: " + file);
+      }
+      if (buffer.getInt(4) != Segment.VERSION) {
+        throw new IOException("Unsupported segment version " + buffer.getInt(4) + ": " + file);
+      }
+
+      long[] index = readIndex();
+      indexed = index != null;
+      offsets = indexed ? index : scanRecords();
+    } catch (IOException | RuntimeException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the record offsets from the footer, or null if there's no valid footer.
+   */
+  private long[] readIndex() {
+    int length = buffer.limit();
+    if (length < Segment.HEADER_SIZE + Segment.TRAILER_SIZE
+        || buffer.getInt(length - 4) != Segment.INDEX_MAGIC) {
+      return null;
+    }
+
+    int count = buffer.getInt(length - Segment.TRAILER_SIZE);
+    long indexOffset = buffer.getLong(length - Segment.TRAILER_SIZE + 4);
+    if (count < 0 || indexOffset < Segment.HEADER_SIZE
+        || indexOffset + 8L * count + Segment.TRAILER_SIZE != length) {
+      return null;
+    }
+
+    long[] index = new long[count];
+    for (int i = 0; i < count; i++) {
+      index[i] = buffer.getLong((int) indexOffset + 8 * i);
+    }
+
+    return index;
+  }
+
+  /**
+   * Finds the records by walking the length prefixes, up to the first incomplete one.
+   */
+  private long[] scanRecords() {
+    long[] found = new long[256];
+    int count = 0;
+    int offset = Segment.HEADER_SIZE;
+    int length = buffer.limit();
+    while (length - offset >= Segment.RECORD_HEADER_SIZE) {
+      int recordLength = buffer.getInt(offset);
+      if (recordLength < Segment.RECORD_HEADER_SIZE - 4 || recordLength > length - offset - 4) {
+        break;
+      }
+
+      if (count == found.length) {
+        found = Arrays.copyOf(found, 2 * found.length);
+      }
+      found[count++] = offset;
+      offset += 4 + recordLength;
+    }
+
+    return Arrays.copyOf(found, count);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Whether the segment was closed properly, i.e. its index footer was found.
+   */
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  public int size() {
+    return offsets.length;
+  }
+
+  public SegmentRecord get(int index) {
+    int offset = (int) offsets[index];
+    int recordLength = buffer.getInt(offset);
+    long timestamp = buffer.getLong(offset + 4);
+    int[] speeds = new int[Segment.MOTOR_COUNT];
+    for (int motor = 0; motor < Segment.MOTOR_COUNT; motor++) {
+      speeds[motor] = buffer.getInt(offset + 12 + 4 * motor);
+    }
+
+    ByteBuffer photo = buffer.asReadOnlyBuffer();
+    photo.limit(offset + 4 + recordLength);
+    photo.position(offset + Segment.RECORD_HEADER_SIZE);
+    return new SegmentRecord(index, timestamp, speeds, photo.slice());
+  }
+
+  @Override
+  public Iterator<SegmentRecord> iterator() {
+    return new Iterator<SegmentRecord>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < offsets.length;
+      }
+
+      @Override
+      public SegmentRecord next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return get(next++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Closes the file. The mapping (and the photos of the records) stays valid until it's
+   * garbage collected, but shouldn't be used anymore.
+   */
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
@@ -0,0 +1,58 @@
+package com.zugaldia.robocar.dataset;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame of a {@link Segment}: its timestamp, the motor speeds when it was taken and the photo.
+ * The photo is a view of the segment, only valid while its {@link SegmentReader} is open.
+ */
+public class SegmentRecord {
+
+  private final int index;
+  private final long timestamp;
+  private final int[] speeds;
+  private final ByteBuffer photo;
+
+  SegmentRecord(int index, long timestamp, int[] speeds, ByteBuffer photo) {
+    this.index = index;
+    this.timestamp = timestamp;
+    this.speeds = speeds;
+    this.photo = photo;
+  }
+
+  /**
+   * Position of the record in its segment.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * The sensor timestamp of the photo, in nanoseconds.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Speed of the given motor (1 to 4, as numbered on the motor hat).
+   */
+  public int getSpeed(int motor) {
+    return speeds[motor - 1];
+  }
+
+  public int[] getSpeeds() {
+    return speeds.clone();
+  }
+
+  /**
+   * The JPEG bytes of the photo, as a read-only buffer positioned at the first one.
+   */
+  public ByteBuffer getPhoto() {
+    return photo.duplicate();
+  }
+
+  public int getPhotoSize() {
+    return photo.remaining();
+  }
+}
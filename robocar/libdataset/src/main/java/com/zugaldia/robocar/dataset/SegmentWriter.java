@@ -0,0 +1,164 @@
+package com.zugaldia.robocar.dataset;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Appends frame records to a new {@link Segment} file. Each record is a single gathering write
+ * of its header and the photo bytes, nothing is flushed to storage until {@link #sync()} or
+ * {@link #close()}, which also writes the index footer. A record that fails to be written
+ * (e.g. storage is full) is truncated away, so the segment stays valid and can be appended to.
+ * Not thread safe.
+ */
+public class SegmentWriter implements Closeable {
+
+  private static final int INITIAL_INDEX_SIZE = 256;
+
+  private final File file;
+  private final FileOutputStream output;
+  private final FileChannel channel;
+
+  private final ByteBuffer recordHeader = ByteBuffer.allocateDirect(Segment.RECORD_HEADER_SIZE);
+  private final ByteBuffer[] record = new ByteBuffer[2];
+
+  private long[] offsets = new long[INITIAL_INDEX_SIZE];
+  private int recordCount;
+  private long size;
+  private boolean closed;
+
+  /**
+   * Creates the segment file (overwriting it if it exists) and writes its header.
+   */
+  public SegmentWriter(File file) throws IOException {
+    this.file = file;
+    output = new FileOutputStream(file);
+    channel = output.getChannel();
+
+    ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE);
+    header.putInt(Segment.MAGIC).putInt(Segment.VERSION).flip();
+    writeFully(header);
+    record[0] = recordHeader;
+  }
+
+  /**
+   * Appends a record with the remaining bytes of the photo (its position is left untouched).
+   * If this throws, the record wasn't appended.
+   */
+  public void append(long timestamp, int[] speeds, ByteBuffer photo) throws IOException {
+    if (closed) {
+      throw new IOException("Segment already closed: " + file);
+    }
+    if (speeds.length != Segment.MOTOR_COUNT) {
+      throw new IllegalArgumentException("Expected the speeds of " + Segment.MOTOR_COUNT
+          + " motors, got " + speeds.length + ".");
+    }
+
+    ByteBuffer image = photo.duplicate();
+    recordHeader.clear();
+    recordHeader.putInt(Segment.RECORD_HEADER_SIZE - 4 + image.remaining());
+    recordHeader.putLong(timestamp);
+    for (int speed : speeds) {
+      recordHeader.putInt(speed);
+    }
+    recordHeader.flip();
+    record[1] = image;
+
+    if (recordCount == offsets.length) {
+      offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+    }
+    offsets[recordCount] = size;
+
+    long length = recordHeader.remaining() + image.remaining();
+    long written = 0;
+    try {
+      while (written < length) {
+        written += write(record);
+      }
+    } catch (IOException e) {
+      discardPartialRecord(e);
+      throw e;
+    } finally {
+      record[1] = null;
+    }
+
+    size += length;
+    recordCount++;
+  }
+
+  /**
+   * Writes as much of the buffers as possible, returns the number of bytes written.
+   */
+  long write(ByteBuffer[] buffers) throws IOException {
+    return channel.write(buffers);
+  }
+
+  /**
+   * Cuts the bytes of a record that failed midway, otherwise the offsets of the following
+   * records would be off and the length-prefixed scan would stop there.
+   */
+  private void discardPartialRecord(IOException cause) {
+    try {
+      channel.truncate(size);
+      channel.position(size);
+    } catch (IOException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Forces the records appended so far to storage.
+   */
+  public void sync() throws IOException {
+    channel.force(false);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Size of the segment so far, in bytes (without the index footer).
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Writes the index footer, syncs and closes the segment.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    try {
+      ByteBuffer footer = ByteBuffer.allocate(8 * recordCount + Segment.TRAILER_SIZE);
+      for (int i = 0; i < recordCount; i++) {
+        footer.putLong(offsets[i]);
+      }
+      footer.putInt(recordCount).putLong(size).putInt(Segment.INDEX_MAGIC).flip();
+      writeFully(footer);
+      channel.force(false);
+    } finally {
+      output.close();
+    }
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    size += buffer.remaining();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
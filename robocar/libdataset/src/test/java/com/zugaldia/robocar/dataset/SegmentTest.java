@@ -0,0 +1,212 @@
+package com.zugaldia.robocar.dataset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTest {
+
+  private static final int RECORD_COUNT = 300;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File file = writeSegment(RECORD_COUNT, true);
+    SegmentReader reader = new SegmentReader(file);
+    assertTrue(reader.isIndexed());
+    assertRecords(reader, RECORD_COUNT);
+    reader.close();
+  }
+
+  @Test
+  public void testWithoutIndex() throws IOException {
+    File file = writeSegment(RECORD_COUNT, false);
+    SegmentReader reader = new SegmentReader(file);
+    assertFalse(reader.isIndexed());
+    assertRecords(reader, RECORD_COUNT);
+    reader.close();
+  }
+
+  @Test
+  public void testTruncatedRecordIgnored() throws IOException {
+    File file = writeSegment(RECORD_COUNT, false);
+    RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+    truncated.setLength(truncated.length() - 1);
+    truncated.close();
+
+    SegmentReader reader = new SegmentReader(file);
+    assertFalse(reader.isIndexed());
+    assertRecords(reader, RECORD_COUNT - 1);
+    reader.close();
+  }
+
+  @Test
+  public void testFailedWriteDiscarded() throws IOException {
+    File file = new File(folder.getRoot(), "session" + Segment.EXTENSION);
+    final int failingRecord = 2;
+    SegmentWriter writer = new SegmentWriter(file) {
+      private int writes;
+
+      @Override
+      long write(ByteBuffer[] buffers) throws IOException {
+        // Only the record header makes it, as if storage filled up
+        if (writes++ == failingRecord) {
+          super.write(new ByteBuffer[] {buffers[0]});
+          throw new IOException("No space left on device");
+        }
+        return super.write(buffers);
+      }
+    };
+
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      try {
+        writer.append(getTimestamp(i), getSpeeds(i), ByteBuffer.wrap(getPhoto(i)));
+        assertTrue(i != failingRecord);
+      } catch (IOException e) {
+        assertEquals(failingRecord, i);
+      }
+    }
+    assertEquals(RECORD_COUNT - 1, writer.getRecordCount());
+    assertEquals(writer.getSize(), file.length());
+
+    // The records after the failed one are found both without and with the index
+    writer.sync();
+    SegmentReader reader = new SegmentReader(file);
+    assertFalse(reader.isIndexed());
+    assertRecordsWithout(reader, failingRecord);
+    reader.close();
+
+    writer.close();
+    reader = new SegmentReader(file);
+    assertTrue(reader.isIndexed());
+    assertRecordsWithout(reader, failingRecord);
+    reader.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotASegment() throws IOException {
+    File file = folder.newFile("photo.jpg");
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0, 0, 0});
+    output.close();
+    new SegmentReader(file);
+  }
+
+  @Test
+  public void testDrivingLog() throws IOException {
+    File output = folder.newFolder("data");
+    DrivingLogConverter converter = new DrivingLogConverter(output);
+    SegmentReader reader = new SegmentReader(writeSegment(3, true));
+    assertEquals(3, converter.convert(reader));
+    reader.close();
+    converter.close();
+
+    List<String> lines = Files.readAllLines(
+        new File(output, DrivingLogConverter.DRIVING_LOG).toPath(), Charset.forName("UTF-8"));
+    assertEquals(4, lines.size());
+    assertEquals("center,left,right,steering,throttle,brake,speed", lines.get(0));
+    String[] columns = lines.get(2).split(",", -1);
+    assertEquals(7, columns.length);
+    assertEquals("IMG/session-1001.jpg", columns[0]);
+    assertEquals("", columns[1]);
+    assertEquals("", columns[2]);
+
+    byte[] photo = Files.readAllBytes(new File(output, columns[0]).toPath());
+    assertArrayEquals(getPhoto(1), photo);
+  }
+
+  @Test
+  public void testSteering() {
+    assertEquals(0, DrivingLogConverter.getSteering(new int[] {-1, -1, -1, -1}), 0);
+    assertEquals(0, DrivingLogConverter.getSteering(new int[] {128, 128, 128, 128}), 0);
+    assertEquals(1, DrivingLogConverter.getSteering(new int[] {128, 128, 0, 0}), 0);
+    assertEquals(-1, DrivingLogConverter.getSteering(new int[] {0, 0, 128, 128}), 0);
+    assertEquals(0.5, DrivingLogConverter.getThrottle(new int[] {255, 255, 0, 0}), 1e-9);
+  }
+
+  private File writeSegment(int count, boolean close) throws IOException {
+    File file = new File(folder.getRoot(), "session" + Segment.EXTENSION);
+    SegmentWriter writer = new SegmentWriter(file);
+    for (int i = 0; i < count; i++) {
+      ByteBuffer photo = ByteBuffer.wrap(getPhoto(i));
+      writer.append(getTimestamp(i), getSpeeds(i), photo);
+      assertEquals(0, photo.position());
+    }
+    assertEquals(count, writer.getRecordCount());
+
+    if (close) {
+      writer.close();
+    } else {
+      writer.sync();
+    }
+
+    return file;
+  }
+
+  private static void assertRecords(SegmentReader reader, int count) {
+    assertEquals(count, reader.size());
+    int index = 0;
+    for (SegmentRecord record : reader) {
+      assertEquals(index, record.getIndex());
+      assertEquals(getTimestamp(index), record.getTimestamp());
+      assertArrayEquals(getSpeeds(index), record.getSpeeds());
+      assertEquals(getSpeeds(index)[2], record.getSpeed(3));
+
+      byte[] photo = new byte[record.getPhotoSize()];
+      record.getPhoto().get(photo);
+      assertArrayEquals(getPhoto(index), photo);
+      index++;
+    }
+    assertEquals(count, index);
+  }
+
+  /**
+   * Checks the reader has all the records but the given one.
+   */
+  private static void assertRecordsWithout(SegmentReader reader, int missing) {
+    assertEquals(RECORD_COUNT - 1, reader.size());
+    for (int i = 0; i < reader.size(); i++) {
+      int index = i < missing ? i : i + 1;
+      SegmentRecord record = reader.get(i);
+      assertEquals(getTimestamp(index), record.getTimestamp());
+      assertArrayEquals(getSpeeds(index), record.getSpeeds());
+
+      byte[] photo = new byte[record.getPhotoSize()];
+      record.getPhoto().get(photo);
+      assertArrayEquals(getPhoto(index), photo);
+    }
+  }
+
+  private static long getTimestamp(int index) {
+    return 1000 + index;
+  }
+
+  private static int[] getSpeeds(int index) {
+    return new int[] {index % 256, 255 - index % 256, -1, 64};
+  }
+
+  // Photos of varying sizes, including empty ones
+  private static byte[] getPhoto(int index) {
+    byte[] photo = new byte[(index * 37) % 1000];
+    for (int i = 0; i < photo.length; i++) {
+      photo[i] = (byte) (index + i);
+    }
+    return photo;
+  }
+}
@@ -58,6 +58,11 @@ public class AdafruitDcMotor {
       mc.setPin(in1Pin, 0);
       mc.setPin(in2Pin, 0);
     }
+
+    MotorListener listener = mc.getMotorListener();
+    if (listener != null) {
+      listener.onRun(motornum + 1, command);
+    }
   }
 
   /**
@@ -71,12 +76,58 @@ public class AdafruitDcMotor {
       speed = 255;
     }
 
-    // Set the speed only if it has changed, otherwise the motor will be jittery.
-    if (lastSpeed == -1 || lastSpeed != speed) {
-      mc.getPwm().setPwm(pwmPin, 0, speed * 16);
+    // An unchanged speed isn't written again (see AdafruitPwm), otherwise the motor would be
+    // jittery.
+    mc.getPwm().setPwm(pwmPin, 0, speed * 16);
+    lastSpeed = speed;
+
+    MotorListener listener = mc.getMotorListener();
+    if (listener != null) {
+      listener.onSpeed(motornum + 1, speed);
     }
+  }
 
-    lastSpeed = speed;
+  /**
+   * Adds the channel values for the command and speed of this motor in the frame, if any, to
+   * the given ones (indexed by PWM channel), and marks the channels to write.
+   */
+  void stage(MotorFrame frame, int[] on, int[] off, boolean[] channels) {
+    int speed = frame.getSpeed(motornum + 1);
+    if (speed != MotorFrame.UNCHANGED) {
+      speed = Math.max(0, Math.min(255, speed));
+      stageChannel(pwmPin, 0, speed * 16, on, off, channels);
+      lastSpeed = speed;
+    }
+
+    int command = frame.getCommand(motornum + 1);
+    if (command == AdafruitMotorHat.FORWARD) {
+      stagePin(in2Pin, 0, on, off, channels);
+      stagePin(in1Pin, 1, on, off, channels);
+    } else if (command == AdafruitMotorHat.BACKWARD) {
+      stagePin(in1Pin, 0, on, off, channels);
+      stagePin(in2Pin, 1, on, off, channels);
+    } else if (command == AdafruitMotorHat.RELEASE) {
+      stagePin(in1Pin, 0, on, off, channels);
+      stagePin(in2Pin, 0, on, off, channels);
+    }
+  }
+
+  /**
+   * Same values as {@link AdafruitMotorHat#setPin(int, int)}.
+   */
+  private static void stagePin(int pin, int value, int[] on, int[] off, boolean[] channels) {
+    if (value == 0) {
+      stageChannel(pin, 0, 4096, on, off, channels);
+    } else {
+      stageChannel(pin, 4096, 0, on, off, channels);
+    }
+  }
+
+  private static void stageChannel(int channel, int onValue, int offValue,
+                                   int[] on, int[] off, boolean[] channels) {
+    on[channel] = onValue;
+    off[channel] = offValue;
+    channels[channel] = true;
   }
 
   public int getLastSpeed() {
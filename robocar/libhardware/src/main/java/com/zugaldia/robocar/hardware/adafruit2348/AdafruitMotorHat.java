@@ -1,5 +1,7 @@
 package com.zugaldia.robocar.hardware.adafruit2348;
 
+import java.util.Arrays;
+
 /**
  * A port of `Adafruit_MotorHAT` to Android Things.
  * <p>
@@ -22,12 +24,25 @@ public class AdafruitMotorHat {
 
   private AdafruitPwm pwm;
   private AdafruitDcMotor[] motors;
+  private volatile MotorListener motorListener;
+
+  // Channel values of the frame being applied, indexed by PWM channel
+  private final int[] frameOn = new int[AdafruitPwm.CHANNEL_COUNT];
+  private final int[] frameOff = new int[AdafruitPwm.CHANNEL_COUNT];
+  private final boolean[] frameChannels = new boolean[AdafruitPwm.CHANNEL_COUNT];
 
   /**
    * Public constructor.
    */
   public AdafruitMotorHat(String i2cName, int i2cAddress, boolean debug) {
-    pwm = new AdafruitPwm(i2cName, i2cAddress, debug);
+    this(new AdafruitPwm(i2cName, i2cAddress, debug));
+  }
+
+  /**
+   * Drives the motors through an already open PWM driver (e.g. a fake one in tests).
+   */
+  AdafruitMotorHat(AdafruitPwm pwm) {
+    this.pwm = pwm;
     pwm.setPwmFreq(MOTOR_FREQUENCY);
     motors = new AdafruitDcMotor[]{
             new AdafruitDcMotor(this, 0),
@@ -62,6 +77,48 @@ public class AdafruitMotorHat {
     }
   }
 
+  /**
+   * Sets the commands and speeds of all the motors in the frame at once, with the same result
+   * as calling {@link AdafruitDcMotor#setSpeed(int)} and then {@link AdafruitDcMotor#run(int)}
+   * on each of them. The channels they affect are computed first, and then written with as few
+   * I2C transactions as possible: one per run of consecutive channels, which is a single one
+   * when all four motors change (and none for the channels that didn't change, see
+   * {@link AdafruitPwm}).
+   */
+  public synchronized void apply(MotorFrame frame) {
+    Arrays.fill(frameChannels, false);
+    for (AdafruitDcMotor motor : motors) {
+      motor.stage(frame, frameOn, frameOff, frameChannels);
+    }
+
+    int channel = 0;
+    while (channel < AdafruitPwm.CHANNEL_COUNT) {
+      if (!frameChannels[channel]) {
+        channel++;
+        continue;
+      }
+
+      int last = channel;
+      while (last + 1 < AdafruitPwm.CHANNEL_COUNT && frameChannels[last + 1]) {
+        last++;
+      }
+      pwm.setPwmRange(channel, last, frameOn, frameOff);
+      channel = last + 1;
+    }
+
+    MotorListener listener = motorListener;
+    if (listener != null) {
+      for (int num = 1; num <= motors.length; num++) {
+        if (frame.getSpeed(num) != MotorFrame.UNCHANGED) {
+          listener.onSpeed(num, motors[num - 1].getLastSpeed());
+        }
+        if (frame.getCommand(num) != MotorFrame.UNCHANGED) {
+          listener.onRun(num, frame.getCommand(num));
+        }
+      }
+    }
+  }
+
   /**
    * Get the specific motor.
    */
@@ -72,6 +129,17 @@ public class AdafruitMotorHat {
     return motors[num - 1];
   }
 
+  public MotorListener getMotorListener() {
+    return motorListener;
+  }
+
+  /**
+   * Set a listener of the commands sent to the motors, or null to remove it.
+   */
+  public void setMotorListener(MotorListener motorListener) {
+    this.motorListener = motorListener;
+  }
+
   public void close() {
     pwm.close();
   }
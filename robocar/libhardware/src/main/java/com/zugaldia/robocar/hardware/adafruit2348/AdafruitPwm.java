@@ -12,6 +12,12 @@ import timber.log.Timber;
  * Driver) to Android Things. Instead of using `Adafruit_I2C` we're using the
  * `I2cDevice` class shipped with Android Things.
  * <p>
+ * <p>Unlike the Python driver, the register auto-increment (AI) bit of MODE1 is enabled, so that
+ * the four registers of a channel are written in a single I2C transaction instead of four.
+ * <p>
+ * <p>The driver also keeps a shadow copy of the LEDn ON/OFF registers, and only writes the bytes
+ * that changed: setting a channel to its current value doesn't use the bus at all.
+ * <p>
  * <p>https://github.com/adafruit/Adafruit-Motor-HAT-Python-Library/blob/master/Adafruit_MotorHAT/Adafruit_PWM_Servo_Driver.py
  * https://developer.android.com/things/sdk/pio/i2c.html
  */
@@ -36,14 +42,32 @@ public class AdafruitPwm {
 
   // Bits
   private static final int __RESTART = 0x80;
+  private static final int __AI = 0x20;
   private static final int __SLEEP = 0x10;
   private static final int __ALLCALL = 0x01;
   private static final int __INVRT = 0x10;
   private static final int __OUTDRV = 0x04;
 
+  public static final int CHANNEL_COUNT = 16;
+
+  // Bytes per channel: ON_L, ON_H, OFF_L, OFF_H
+  private static final int CHANNEL_SIZE = 4;
+
   private I2cDevice i2c;
   private boolean debug;
 
+  // The registers of one or more consecutive channels, written in a single transaction
+  private final byte[] channelBuffer = new byte[CHANNEL_COUNT * CHANNEL_SIZE];
+
+  // Last values written to the LEDn registers, only valid for the known channels (a failed
+  // write leaves the channels in an unknown state)
+  private final byte[] shadowRegisters = new byte[CHANNEL_COUNT * CHANNEL_SIZE];
+  private final boolean[] shadowKnown = new boolean[CHANNEL_COUNT];
+
+  // Statistics
+  private long skippedWrites;
+  private long skippedBytes;
+
   /**
    * Public constructor.
    */
@@ -55,17 +79,28 @@ public class AdafruitPwm {
    * Public constructor.
    */
   public AdafruitPwm(String deviceName, int address, boolean debug) {
+    this(openI2cDevice(deviceName, address), debug);
+  }
+
+  /**
+   * Drives an already open device (e.g. a fake one in tests).
+   */
+  AdafruitPwm(I2cDevice i2c, boolean debug) {
+    this.i2c = i2c;
+    this.debug = debug;
+    reset();
+  }
+
+  private static I2cDevice openI2cDevice(String deviceName, int address) {
     try {
       // Attempt to access the I2C device
       Timber.d("Connecting to I2C device %s @ 0x%02X.", deviceName, address);
       PeripheralManagerService manager = new PeripheralManagerService();
-      i2c = manager.openI2cDevice(deviceName, address);
+      return manager.openI2cDevice(deviceName, address);
     } catch (IOException e) {
       Timber.e(e, "Unable to access I2C device.");
+      return null;
     }
-
-    this.debug = debug;
-    reset();
   }
 
   private void reset() {
@@ -73,9 +108,12 @@ public class AdafruitPwm {
       Timber.d("Resetting PCA9685 MODE1 (without SLEEP) and MODE2.");
     }
 
+    // Enable auto-increment first (leaving the other bits alone), so that all channels can be
+    // turned off right away with a single transaction
+    writeRegByteWrapped(__MODE1, (byte) (readRegByteWrapped(__MODE1) | __AI));
     setAllPwm(0, 0);
     writeRegByteWrapped(__MODE2, (byte) __OUTDRV);
-    writeRegByteWrapped(__MODE1, (byte) __ALLCALL);
+    writeRegByteWrapped(__MODE1, (byte) (__ALLCALL | __AI));
     sleepWrapped(0.005); // wait for oscillator
 
     byte mode1 = readRegByteWrapped(__MODE1);
@@ -126,23 +164,126 @@ public class AdafruitPwm {
   }
 
   /**
-   * Sets a single PWM channel.
+   * Sets a single PWM channel, in a single I2C transaction.
+   */
+  public synchronized void setPwm(int channel, int on, int off) {
+    fillChannel(0, on, off);
+    writeLedsWrapped(channel, 1);
+  }
+
+  /**
+   * Sets the consecutive PWM channels fromChannel to toChannel (inclusive), in a single I2C
+   * transaction. The on and off values are indexed by channel.
+   */
+  public synchronized void setPwmRange(int fromChannel, int toChannel, int[] on, int[] off) {
+    if (fromChannel < 0 || toChannel >= CHANNEL_COUNT || fromChannel > toChannel) {
+      throw new RuntimeException("PWM channels must be between 0 and 15 inclusive");
+    }
+
+    for (int channel = fromChannel; channel <= toChannel; channel++) {
+      fillChannel(channel - fromChannel, on[channel], off[channel]);
+    }
+    writeLedsWrapped(fromChannel, toChannel - fromChannel + 1);
+  }
+
+  /**
+   * Sets a all PWM channels, in a single I2C transaction.
+   */
+  private synchronized void setAllPwm(int on, int off) {
+    fillChannel(0, on, off);
+    boolean written = writeChannelsWrapped(__ALL_LED_ON_L, 0, CHANNEL_SIZE);
+
+    // The ALL_LED registers load every LEDn register
+    for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+      System.arraycopy(channelBuffer, 0, shadowRegisters, CHANNEL_SIZE * channel, CHANNEL_SIZE);
+      shadowKnown[channel] = written;
+    }
+  }
+
+  /**
+   * Number of channel updates that didn't need an I2C transaction at all, because none of
+   * their registers changed.
    */
-  public void setPwm(int channel, int on, int off) {
-    writeRegByteWrapped(__LED0_ON_L + 4 * channel, (byte) (on & 0xFF));
-    writeRegByteWrapped(__LED0_ON_H + 4 * channel, (byte) (on >> 8));
-    writeRegByteWrapped(__LED0_OFF_L + 4 * channel, (byte) (off & 0xFF));
-    writeRegByteWrapped(__LED0_OFF_H + 4 * channel, (byte) (off >> 8));
+  public synchronized long getSkippedWrites() {
+    return skippedWrites;
   }
 
   /**
-   * Sets a all PWM channels.
+   * Number of register bytes that didn't need to be written, because they didn't change.
    */
-  private void setAllPwm(int on, int off) {
-    writeRegByteWrapped(__ALL_LED_ON_L, (byte) (on & 0xFF));
-    writeRegByteWrapped(__ALL_LED_ON_H, (byte) (on >> 8));
-    writeRegByteWrapped(__ALL_LED_OFF_L, (byte) (off & 0xFF));
-    writeRegByteWrapped(__ALL_LED_OFF_H, (byte) (off >> 8));
+  public synchronized long getSkippedBytes() {
+    return skippedBytes;
+  }
+
+  private void fillChannel(int index, int on, int off) {
+    int offset = CHANNEL_SIZE * index;
+    channelBuffer[offset] = (byte) (on & 0xFF);
+    channelBuffer[offset + 1] = (byte) (on >> 8);
+    channelBuffer[offset + 2] = (byte) (off & 0xFF);
+    channelBuffer[offset + 3] = (byte) (off >> 8);
+  }
+
+  /**
+   * Writes the registers of the given number of consecutive channels, from the buffer, skipping
+   * the bytes at either end that are the same as in the shadow registers. The changed bytes
+   * in between are written in a single transaction, if any.
+   */
+  private void writeLedsWrapped(int fromChannel, int count) {
+    int offset = CHANNEL_SIZE * fromChannel;
+    int length = CHANNEL_SIZE * count;
+    int first = 0;
+    while (first < length && isShadowed(offset, first)) {
+      first++;
+    }
+
+    if (first == length) {
+      skippedWrites++;
+      skippedBytes += length;
+      return;
+    }
+
+    int last = length - 1;
+    while (isShadowed(offset, last)) {
+      last--;
+    }
+
+    System.arraycopy(channelBuffer, 0, shadowRegisters, offset, length);
+    boolean written = writeChannelsWrapped(__LED0_ON_L + offset + first, first, last - first + 1);
+    for (int channel = fromChannel; channel < fromChannel + count; channel++) {
+      shadowKnown[channel] = written;
+    }
+    skippedBytes += length - (last - first + 1);
+  }
+
+  /**
+   * Whether the byte at the given index of the buffer is already in the shadow registers.
+   */
+  private boolean isShadowed(int offset, int index) {
+    return shadowKnown[(offset + index) / CHANNEL_SIZE]
+        && shadowRegisters[offset + index] == channelBuffer[index];
+  }
+
+  /**
+   * Writes length bytes of the buffer, from the given index, starting at the given register and
+   * relying on auto-increment. Returns whether they were written.
+   */
+  private boolean writeChannelsWrapped(int reg, int index, int length) {
+    if (index > 0) {
+      System.arraycopy(channelBuffer, index, channelBuffer, 0, length);
+    }
+
+    try {
+      i2c.writeRegBuffer(reg, channelBuffer, length);
+    } catch (IOException e) {
+      Timber.e(e, "writeRegBuffer to 0x%02X failed.", reg);
+      return false;
+    }
+
+    if (debug) {
+      Timber.d("Wrote to registers 0x%02X-0x%02X.", reg, reg + length - 1);
+    }
+
+    return true;
   }
 
   private void sleepWrapped(double seconds) {
@@ -0,0 +1,71 @@
+package com.zugaldia.robocar.hardware.adafruit2348;
+
+import java.util.Arrays;
+
+/**
+ * The commands and speeds to send to the four motors of an {@link AdafruitMotorHat} at once,
+ * see {@link AdafruitMotorHat#apply(MotorFrame)}. Motors (or just their command or speed) that
+ * aren't set are left as they are.
+ * <p>
+ * <p>Instances can be reused after {@link #clear()}, and are not thread-safe.
+ */
+public class MotorFrame {
+
+  public static final int UNCHANGED = -1;
+
+  private static final int MOTOR_COUNT = 4;
+
+  private final int[] commands = new int[MOTOR_COUNT];
+  private final int[] speeds = new int[MOTOR_COUNT];
+
+  public MotorFrame() {
+    clear();
+  }
+
+  /**
+   * Sets the command ({@link AdafruitMotorHat#FORWARD}, {@link AdafruitMotorHat#BACKWARD} or
+   * {@link AdafruitMotorHat#RELEASE}) of the given motor (1 to 4).
+   */
+  public MotorFrame setCommand(int motor, int command) {
+    commands[checkMotor(motor)] = command;
+    return this;
+  }
+
+  /**
+   * Sets the speed (0 to 255) of the given motor (1 to 4).
+   */
+  public MotorFrame setSpeed(int motor, int speed) {
+    speeds[checkMotor(motor)] = speed;
+    return this;
+  }
+
+  /**
+   * The command of the given motor (1 to 4), or {@link #UNCHANGED}.
+   */
+  public int getCommand(int motor) {
+    return commands[checkMotor(motor)];
+  }
+
+  /**
+   * The speed of the given motor (1 to 4), or {@link #UNCHANGED}.
+   */
+  public int getSpeed(int motor) {
+    return speeds[checkMotor(motor)];
+  }
+
+  /**
+   * Leaves all motors unchanged.
+   */
+  public MotorFrame clear() {
+    Arrays.fill(commands, UNCHANGED);
+    Arrays.fill(speeds, UNCHANGED);
+    return this;
+  }
+
+  private static int checkMotor(int motor) {
+    if ((motor < 1) || (motor > MOTOR_COUNT)) {
+      throw new RuntimeException("MotorHAT Motor must be between 1 and 4 inclusive");
+    }
+    return motor - 1;
+  }
+}
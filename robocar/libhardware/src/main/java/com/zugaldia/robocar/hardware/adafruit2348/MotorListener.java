@@ -0,0 +1,20 @@
+package com.zugaldia.robocar.hardware.adafruit2348;
+
+/**
+ * Notified of every command sent to the motors of an {@link AdafruitMotorHat}, e.g. to record
+ * them. Called on the thread that sent the command, so it must return quickly.
+ */
+public interface MotorListener {
+
+  /**
+   * A speed (0 to 255) was set on the given motor (1 to 4).
+   */
+  void onSpeed(int motor, int speed);
+
+  /**
+   * A command ({@link AdafruitMotorHat#FORWARD}, {@link AdafruitMotorHat#BACKWARD} or
+   * {@link AdafruitMotorHat#RELEASE}) was sent to the given motor (1 to 4).
+   */
+  void onRun(int motor, int command);
+
+}
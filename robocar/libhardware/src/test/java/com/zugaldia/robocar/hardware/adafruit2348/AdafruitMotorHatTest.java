@@ -0,0 +1,104 @@
+package com.zugaldia.robocar.hardware.adafruit2348;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AdafruitMotorHatTest {
+
+  private static final int[] COMMANDS = new int[] {
+      AdafruitMotorHat.FORWARD, AdafruitMotorHat.BACKWARD,
+      AdafruitMotorHat.BACKWARD, AdafruitMotorHat.FORWARD};
+
+  @Test
+  public void testApplySingleTransaction() {
+    I2cRecorder recorder = new I2cRecorder();
+    AdafruitMotorHat motorHat = new AdafruitMotorHat(new AdafruitPwm(recorder.getDevice(), false));
+    recorder.clear();
+
+    // All 12 channels (2 to 13) are consecutive
+    MotorFrame frame = new MotorFrame();
+    for (int num = 1; num <= 4; num++) {
+      frame.setSpeed(num, 100 + num).setCommand(num, COMMANDS[num - 1]);
+    }
+    motorHat.apply(frame);
+    assertEquals(1, recorder.getTransactionCount());
+    assertEquals(101, motorHat.getMotor(1).getLastSpeed());
+  }
+
+  @Test
+  public void testApplyMatchesMotorCalls() {
+    I2cRecorder batched = new I2cRecorder();
+    AdafruitMotorHat batchedHat = new AdafruitMotorHat(new AdafruitPwm(batched.getDevice(), false));
+    I2cRecorder sequential = new I2cRecorder();
+    AdafruitMotorHat sequentialHat =
+        new AdafruitMotorHat(new AdafruitPwm(sequential.getDevice(), false));
+
+    MotorFrame frame = new MotorFrame();
+    for (int num = 1; num <= 4; num++) {
+      frame.setSpeed(num, 64 * num).setCommand(num, COMMANDS[num - 1]);
+      sequentialHat.getMotor(num).setSpeed(64 * num);
+      sequentialHat.getMotor(num).run(COMMANDS[num - 1]);
+    }
+    batchedHat.apply(frame);
+    assertChannelsEqual(sequential, batched);
+
+    // Then release a single motor
+    batched.clear();
+    batchedHat.apply(frame.clear().setCommand(2, AdafruitMotorHat.RELEASE));
+    sequentialHat.getMotor(2).run(AdafruitMotorHat.RELEASE);
+    assertChannelsEqual(sequential, batched);
+    assertEquals(1, batched.getTransactionCount());
+  }
+
+  @Test
+  public void testApplyPartialFrame() {
+    I2cRecorder recorder = new I2cRecorder();
+    AdafruitMotorHat motorHat = new AdafruitMotorHat(new AdafruitPwm(recorder.getDevice(), false));
+    recorder.clear();
+
+    // Direction pins of motors 1 (9, 10) and 3 (3, 4): two bursts
+    motorHat.apply(new MotorFrame()
+        .setCommand(1, AdafruitMotorHat.FORWARD)
+        .setCommand(3, AdafruitMotorHat.FORWARD));
+    assertEquals(2, recorder.getTransactionCount());
+
+    // Unchanged speeds aren't written again, like with setSpeed
+    recorder.clear();
+    motorHat.apply(new MotorFrame().setSpeed(1, 128));
+    motorHat.apply(new MotorFrame().setSpeed(1, 128));
+    motorHat.apply(new MotorFrame());
+    assertEquals(1, recorder.getTransactionCount());
+  }
+
+  @Test
+  public void testApplyNotifiesListener() {
+    I2cRecorder recorder = new I2cRecorder();
+    AdafruitMotorHat motorHat = new AdafruitMotorHat(new AdafruitPwm(recorder.getDevice(), false));
+    final int[] speeds = new int[] {-1, -1, -1, -1};
+    final int[] commands = new int[] {-1, -1, -1, -1};
+    motorHat.setMotorListener(new MotorListener() {
+      @Override
+      public void onSpeed(int motor, int speed) {
+        speeds[motor - 1] = speed;
+      }
+
+      @Override
+      public void onRun(int motor, int command) {
+        commands[motor - 1] = command;
+      }
+    });
+
+    motorHat.apply(new MotorFrame().setSpeed(2, 300).setCommand(4, AdafruitMotorHat.RELEASE));
+    assertArrayEquals(new int[] {-1, 255, -1, -1}, speeds);
+    assertArrayEquals(new int[] {-1, -1, -1, AdafruitMotorHat.RELEASE}, commands);
+  }
+
+  private static void assertChannelsEqual(I2cRecorder expected, I2cRecorder actual) {
+    for (int channel = 0; channel < AdafruitPwm.CHANNEL_COUNT; channel++) {
+      int reg = I2cRecorder.LED0_ON_L + 4 * channel;
+      assertArrayEquals("Channel " + channel, expected.getChannel(reg), actual.getChannel(reg));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.zugaldia.robocar.hardware.adafruit2348;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdafruitPwmTest {
+
+  private I2cRecorder recorder;
+  private AdafruitPwm pwm;
+
+  @Before
+  public void setUp() {
+    recorder = new I2cRecorder();
+    pwm = new AdafruitPwm(recorder.getDevice(), false);
+  }
+
+  @Test
+  public void testResetEnablesAutoIncrement() {
+    assertTrue((recorder.getRegister(I2cRecorder.MODE1) & I2cRecorder.MODE1_AI) != 0);
+
+    // All channels were turned off with a single burst, after auto-increment was enabled
+    assertArrayEquals(new int[] {0, 0}, recorder.getChannel(I2cRecorder.ALL_LED_ON_L));
+    assertEquals("readRegByte[0]", recorder.getTransactions().get(0));
+    assertTrue(recorder.getTransactions().get(2).startsWith("writeRegBuffer[250,"));
+  }
+
+  @Test
+  public void testSetPwmSingleTransaction() {
+    recorder.clear();
+    pwm.setPwm(8, 0, 4095);
+    assertEquals(1, recorder.getTransactionCount());
+    assertArrayEquals(new int[] {0, 4095}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4 * 8));
+
+    pwm.setPwm(0, 4096, 0);
+    assertEquals(2, recorder.getTransactionCount());
+    assertArrayEquals(new int[] {4096, 0}, recorder.getChannel(I2cRecorder.LED0_ON_L));
+
+    // Neighbouring channels are left alone
+    assertArrayEquals(new int[] {0, 0}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4));
+  }
+
+  @Test
+  public void testSetPwmFreqKeepsAutoIncrement() {
+    pwm.setPwmFreq(1600);
+    assertEquals(3, recorder.getRegister(I2cRecorder.PRESCALE));
+    assertTrue((recorder.getRegister(I2cRecorder.MODE1) & I2cRecorder.MODE1_AI) != 0);
+
+    recorder.clear();
+    pwm.setPwm(13, 0, 2048);
+    assertEquals(1, recorder.getTransactionCount());
+    assertArrayEquals(new int[] {0, 2048}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4 * 13));
+  }
+
+  @Test
+  public void testUnchangedChannelSkipped() {
+    pwm.setPwm(2, 0, 1024);
+    recorder.clear();
+    pwm.setPwm(2, 0, 1024);
+    pwm.setPwmRange(2, 2, new int[] {0, 0, 0}, new int[] {0, 0, 1024});
+    assertEquals(0, recorder.getTransactionCount());
+    assertEquals(2, pwm.getSkippedWrites());
+  }
+
+  @Test
+  public void testOnlyChangedBytesWritten() {
+    // From 0: only OFF_H (0x10) changes
+    pwm.setPwm(0, 0, 4096);
+    assertEquals("writeRegBuffer 0x09 1", recorder.getLastBufferWrite());
+    assertEquals(3, pwm.getSkippedBytes());
+
+    // Then ON_H and OFF_H, with OFF_L in between
+    pwm.setPwm(0, 4096, 0);
+    assertEquals("writeRegBuffer 0x07 3", recorder.getLastBufferWrite());
+    assertArrayEquals(new int[] {4096, 0}, recorder.getChannel(I2cRecorder.LED0_ON_L));
+
+    // Channels 1 and 3 change, 2 doesn't but is in between
+    int[] on = new int[AdafruitPwm.CHANNEL_COUNT];
+    int[] off = new int[AdafruitPwm.CHANNEL_COUNT];
+    on[0] = 4096;
+    off[1] = 100;
+    off[3] = 200;
+    pwm.setPwmRange(0, 4, on, off);
+    assertEquals("writeRegBuffer 0x0C 9", recorder.getLastBufferWrite());
+    assertArrayEquals(new int[] {0, 100}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4));
+    assertArrayEquals(new int[] {0, 200}, recorder.getChannel(I2cRecorder.LED0_ON_L + 12));
+  }
+
+  @Test
+  public void testFailedWriteRetried() {
+    recorder.failNextWrite();
+    pwm.setPwm(5, 0, 512);
+    assertArrayEquals(new int[] {0, 0}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4 * 5));
+
+    // The channel is unknown after the failure, so all of it is written again
+    recorder.clear();
+    pwm.setPwm(5, 0, 512);
+    assertEquals(1, recorder.getTransactionCount());
+    assertEquals("writeRegBuffer 0x1A 4", recorder.getLastBufferWrite());
+    assertArrayEquals(new int[] {0, 512}, recorder.getChannel(I2cRecorder.LED0_ON_L + 4 * 5));
+  }
+}
@@ -0,0 +1,122 @@
+package com.zugaldia.robocar.hardware.adafruit2348;
+
+import com.google.android.things.pio.I2cDevice;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * A fake PCA9685 behind an {@link I2cDevice}: keeps the register values, and records every
+ * transaction. Like the chip, buffer writes only go to consecutive registers when the MODE1
+ * auto-increment bit is set, otherwise they all land in the first one. The next write can be
+ * made to fail, see {@link #failNextWrite()}.
+ */
+class I2cRecorder {
+
+  static final int MODE1 = 0x00;
+  static final int MODE1_AI = 0x20;
+  static final int LED0_ON_L = 0x06;
+  static final int ALL_LED_ON_L = 0xFA;
+  static final int PRESCALE = 0xFE;
+
+  // MODE1 at power-on: SLEEP and ALLCALL
+  private static final byte MODE1_RESET = 0x11;
+
+  private final byte[] registers = new byte[256];
+  private final List<String> transactions = new ArrayList<>();
+  private final I2cDevice device;
+  private boolean failNextWrite;
+
+  I2cRecorder() {
+    registers[MODE1] = MODE1_RESET;
+    device = mock(I2cDevice.class, new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws IOException {
+        return handle(invocation.getMethod().getName(), invocation.getArguments());
+      }
+    });
+  }
+
+  private synchronized Object handle(String method, Object[] args) throws IOException {
+    transactions.add(method + Arrays.toString(args));
+    if (failNextWrite && method.startsWith("write")) {
+      failNextWrite = false;
+      throw new IOException("Fake write failure");
+    }
+
+    switch (method) {
+      case "readRegByte":
+        return registers[(int) args[0]];
+      case "writeRegByte":
+        registers[(int) args[0]] = (byte) args[1];
+        return null;
+      case "writeRegBuffer":
+        int reg = (int) args[0];
+        byte[] buffer = (byte[]) args[1];
+        int increment = (registers[MODE1] & MODE1_AI) != 0 ? 1 : 0;
+        for (int i = 0; i < (int) args[2]; i++) {
+          registers[(reg + i * increment) & 0xFF] = buffer[i];
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  I2cDevice getDevice() {
+    return device;
+  }
+
+  synchronized int getRegister(int reg) {
+    return registers[reg] & 0xFF;
+  }
+
+  /**
+   * The ON and OFF counts of the channel starting at the given register.
+   */
+  synchronized int[] getChannel(int reg) {
+    return new int[] {
+        (registers[reg] & 0xFF) | (registers[reg + 1] & 0xFF) << 8,
+        (registers[reg + 2] & 0xFF) | (registers[reg + 3] & 0xFF) << 8};
+  }
+
+  synchronized int getTransactionCount() {
+    return transactions.size();
+  }
+
+  synchronized List<String> getTransactions() {
+    return new ArrayList<>(transactions);
+  }
+
+  synchronized void failNextWrite() {
+    failNextWrite = true;
+  }
+
+  /**
+   * The register and length of the last buffer write, e.g. "writeRegBuffer 0x08 2".
+   */
+  synchronized String getLastBufferWrite() {
+    for (int i = transactions.size() - 1; i >= 0; i--) {
+      String transaction = transactions.get(i);
+      if (transaction.startsWith("writeRegBuffer")) {
+        String[] args = transaction.substring("writeRegBuffer[".length(),
+            transaction.length() - 1).split(", ");
+        return String.format(Locale.US, "writeRegBuffer 0x%02X %s",
+            Integer.parseInt(args[0]), args[2]);
+      }
+    }
+    return null;
+  }
+
+  synchronized void clear() {
+    transactions.clear();
+  }
+}
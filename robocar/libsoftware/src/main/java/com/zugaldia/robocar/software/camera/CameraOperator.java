@@ -15,12 +15,13 @@ import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.support.v4.app.ActivityCompat;
+import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -31,23 +32,46 @@ import timber.log.Timber;
  * close the session once the training data has been collected. It uses the default camera, at
  * the lowest resolution, using automatic settings (3A; do we need to lock focus?). Files are stored
  * in external storage for easier access.
+ * <p>
+ * <p>Besides one-off photos ({@link #takePicture()}), frames can be streamed at sensor rate
+ * with {@link #startStreaming(int)}: a single repeating request keeps 3A converged across
+ * frames instead of re-running it for every photo.
+ * <p>
+ * <p>The output format is JPEG by default (for photos meant to be stored), consumers that
+ * process frames on the fly should ask for YUV_420_888 to avoid the encode/decode round trip.
+ * <p>
+ * <p>A session can also have a second, larger, JPEG output for recording (see
+ * {@link #startSession(ImageReader.OnImageAvailableListener, ImageReader.OnImageAvailableListener,
+ * int, int)}): the stream only feeds the first output, while photos are taken on both. The two
+ * images of a photo have the same {@link android.media.Image#getTimestamp()} (the sensor
+ * timestamp), which can be used to match them.
  */
 
 public class CameraOperator implements SessionCallback.SessionCallbackListener {
 
   public static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmmssSSS", Locale.US);
   public static final String ROBOCAR_FOLDER = "robocar";
+  public static final int IMAGE_WIDTH = 320;
+  public static final int IMAGE_HEIGHT = 240;
+  public static final int DEFAULT_FPS = 30;
+  public static final int RECORDING_WIDTH = 640;
+  public static final int RECORDING_HEIGHT = 480;
 
   private static final int CAMERA_INDEX = 0;
-  private static final int IMAGE_WIDTH = 320;
-  private static final int IMAGE_HEIGHT = 240;
-  private static final int IMAGE_FORMAT = ImageFormat.JPEG;
+  private static final int DEFAULT_IMAGE_FORMAT = ImageFormat.JPEG;
+  private static final int RECORDING_FORMAT = ImageFormat.JPEG;
   private static final int MAX_IMAGES = 5;
 
   private CameraOperatorListener listener;
+  private int imageFormat;
+  private int imageWidth;
+  private int imageHeight;
 
   private boolean inSession;
+  private boolean streaming;
   private boolean autofocusSupported = false;
+  private boolean continuousAutofocusSupported = false;
+  private Range<Integer>[] fpsRanges;
 
   private DeviceCallback deviceCallback;
   private SessionCallback sessionCallback;
@@ -57,10 +81,31 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
   private Handler backgroundHandler;
 
   private ImageReader imageReader;
+  private ImageReader recordingReader;
 
   public CameraOperator(Context context, CameraOperatorListener listener) {
+    this(context, listener, DEFAULT_IMAGE_FORMAT);
+  }
+
+  /**
+   * Same as {@link #CameraOperator(Context, CameraOperatorListener)}, with images in the given
+   * {@link ImageFormat} (e.g. JPEG or YUV_420_888).
+   */
+  public CameraOperator(Context context, CameraOperatorListener listener, int imageFormat) {
+    this(context, listener, imageFormat, IMAGE_WIDTH, IMAGE_HEIGHT);
+  }
+
+  /**
+   * Same as {@link #CameraOperator(Context, CameraOperatorListener, int)}, with images of the
+   * given size (it must be supported by the camera).
+   */
+  public CameraOperator(Context context, CameraOperatorListener listener, int imageFormat,
+                        int imageWidth, int imageHeight) {
     Timber.d("Building camera training object.");
     this.listener = listener;
+    this.imageFormat = imageFormat;
+    this.imageWidth = imageWidth;
+    this.imageHeight = imageHeight;
 
     try {
       init(context);
@@ -69,6 +114,18 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
     }
   }
 
+  public int getImageFormat() {
+    return imageFormat;
+  }
+
+  public int getImageWidth() {
+    return imageWidth;
+  }
+
+  public int getImageHeight() {
+    return imageHeight;
+  }
+
   public boolean isInSession() {
     return inSession;
   }
@@ -77,6 +134,10 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
     return autofocusSupported;
   }
 
+  public boolean isStreaming() {
+    return streaming;
+  }
+
   private void init(Context context) throws CameraAccessException {
     inSession = false;
 
@@ -140,6 +201,18 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
   }
 
   public void startSession(ImageReader.OnImageAvailableListener onImageAvailableListener) {
+    startSession(onImageAvailableListener, null, 0, 0);
+  }
+
+  /**
+   * Starts a session with a second, JPEG, output of the given size for recording, if a
+   * listener is given. Photos are then taken on both outputs, while streaming only feeds the
+   * first one, so that the analysis can run on small frames at a high rate while larger ones
+   * are recorded at a lower rate.
+   */
+  public void startSession(ImageReader.OnImageAvailableListener onImageAvailableListener,
+                           ImageReader.OnImageAvailableListener onRecordingAvailableListener,
+                           int recordingWidth, int recordingHeight) {
     Timber.d("Starting a session.");
     if (inSession) {
       Timber.d("Session already started, end it first.");
@@ -152,9 +225,20 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
       return;
     }
 
-    imageReader = ImageReader.newInstance(IMAGE_WIDTH, IMAGE_HEIGHT, IMAGE_FORMAT, MAX_IMAGES);
+    imageReader = ImageReader.newInstance(
+        imageWidth, imageHeight, imageFormat, getMaxImages(onImageAvailableListener));
     imageReader.setOnImageAvailableListener(onImageAvailableListener, backgroundHandler);
-    List<Surface> outputs = Collections.singletonList(imageReader.getSurface());
+    List<Surface> outputs = new ArrayList<>();
+    outputs.add(imageReader.getSurface());
+    if (onRecordingAvailableListener != null) {
+      Timber.d("Adding a %dx%d recording output.", recordingWidth, recordingHeight);
+      recordingReader = ImageReader.newInstance(recordingWidth, recordingHeight,
+          RECORDING_FORMAT, getMaxImages(onRecordingAvailableListener));
+      recordingReader.setOnImageAvailableListener(
+          onRecordingAvailableListener, backgroundHandler);
+      outputs.add(recordingReader.getSurface());
+    }
+
     sessionCallback = new SessionCallback(this);
     try {
       Timber.d("Creating a camera session.");
@@ -178,9 +262,13 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
     }
 
     try {
-      CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(
-          CameraDevice.TEMPLATE_STILL_CAPTURE);
+      // While streaming, the video snapshot template doesn't disrupt the stream
+      CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(streaming
+          ? CameraDevice.TEMPLATE_VIDEO_SNAPSHOT : CameraDevice.TEMPLATE_STILL_CAPTURE);
       builder.addTarget(imageReader.getSurface());
+      if (recordingReader != null) {
+        builder.addTarget(recordingReader.getSurface());
+      }
       // The camera device's autoexposure routine is active, with no flash control
       builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
       // The camera device's auto-white balance routine is active
@@ -197,6 +285,105 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
     }
   }
 
+  /**
+   * Starts streaming frames to the image reader with a repeating request, at the given frame
+   * rate if the camera supports it (the closest supported range otherwise).
+   */
+  public void startStreaming(int fps) {
+    Timber.d("Starting to stream at %d fps.", fps);
+    if (!inSession) {
+      Timber.d("Cannot stream because no session is started.");
+      return;
+    }
+
+    CameraDevice cameraDevice = deviceCallback != null ? deviceCallback.getCameraDevice() : null;
+    if (cameraDevice == null) {
+      Timber.e("Cannot open a repeating request because no camera device is opened.");
+      return;
+    }
+
+    try {
+      // The record template favors a steady frame rate over image quality
+      CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(
+          CameraDevice.TEMPLATE_RECORD);
+      builder.addTarget(imageReader.getSurface());
+      builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+      builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+      builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+      if (continuousAutofocusSupported) {
+        builder.set(CaptureRequest.CONTROL_AF_MODE,
+            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+      }
+
+      Range<Integer> fpsRange = getFpsRange(fps);
+      if (fpsRange != null) {
+        Timber.d("Selected fps range: %s.", fpsRange);
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+      }
+
+      // No capture callback: frames are only consumed through the image reader
+      sessionCallback.getSession().setRepeatingRequest(builder.build(), null, backgroundHandler);
+      streaming = true;
+    } catch (CameraAccessException e) {
+      Timber.e(e, "Failed to create a repeating request.");
+    }
+  }
+
+  public void stopStreaming() {
+    Timber.d("Stopping streaming.");
+    if (!streaming) {
+      return;
+    }
+
+    try {
+      sessionCallback.getSession().stopRepeating();
+    } catch (CameraAccessException e) {
+      Timber.e(e, "Failed to stop the repeating request.");
+    }
+    streaming = false;
+  }
+
+  /**
+   * Picks the fps range for a target frame rate: a fixed one if available (for a steady
+   * exposure), or the one with the target as upper bound and the highest lower bound, or
+   * failing that the narrowest one that contains it.
+   */
+  private Range<Integer> getFpsRange(int fps) {
+    if (fpsRanges == null) {
+      return null;
+    }
+
+    Range<Integer> best = null;
+    for (Range<Integer> range : fpsRanges) {
+      if (range.getUpper() == fps) {
+        if (best == null || best.getUpper() != fps || range.getLower() > best.getLower()) {
+          best = range;
+        }
+      } else if (range.contains(fps) && (best == null
+          || (best.getUpper() != fps && width(range) < width(best)))) {
+        best = range;
+      }
+    }
+
+    return best;
+  }
+
+  private static int width(Range<Integer> range) {
+    return range.getUpper() - range.getLower();
+  }
+
+  /**
+   * Images a reader must hold for the listener, more than the default if it's a dispatcher with
+   * several consumers.
+   */
+  private static int getMaxImages(ImageReader.OnImageAvailableListener listener) {
+    if (listener instanceof FrameDispatcher) {
+      return Math.max(MAX_IMAGES, ((FrameDispatcher) listener).getRequiredImages());
+    }
+
+    return MAX_IMAGES;
+  }
+
   public void endSession() {
     Timber.d("Ending a session.");
     if (!inSession) {
@@ -204,13 +391,20 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
       return;
     }
 
-    captureCallback.closeSession();
+    streaming = false;
+    if (captureCallback != null) {
+      captureCallback.closeSession();
+    }
     sessionCallback.closeSession();
     deviceCallback.closeDevice();
     if (imageReader != null) {
       imageReader.close();
       imageReader = null;
     }
+    if (recordingReader != null) {
+      recordingReader.close();
+      recordingReader = null;
+    }
 
     stopBackgroundThread();
     inSession = false;
@@ -238,12 +432,12 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
       StreamConfigurationMap configs = characteristics.get(
           CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
       for (int format : configs.getOutputFormats()) {
-        if (format == IMAGE_FORMAT) {
+        if (format == imageFormat) {
           Timber.d("Getting sizes for format: %d.", format);
           for (Size s : configs.getOutputSizes(format)) {
             Timber.d("Supported size: %s", s.toString());
-            // It should include IMAGE_WIDTH x IMAGE_HEIGHT
-            if (s.getWidth() == IMAGE_WIDTH && s.getHeight() == IMAGE_HEIGHT) {
+            // It should include imageWidth x imageHeight
+            if (s.getWidth() == imageWidth && s.getHeight() == imageHeight) {
               Timber.d("(currently selected ^^^)", s.toString());
             }
           }
@@ -290,10 +484,17 @@ public class CameraOperator implements SessionCallback.SessionCallbackListener {
       for (int mode : modes) {
         if (mode == CameraMetadata.CONTROL_AF_MODE_AUTO) {
           autofocusSupported = true;
-          break;
+        } else if (mode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) {
+          continuousAutofocusSupported = true;
         }
       }
 
+      fpsRanges = characteristics.get(
+          CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+      for (Range<Integer> range : fpsRanges) {
+        Timber.d("Supported fps range: %s.", range);
+      }
+
       if (isAutofocusSupported()) {
         Timber.d("Autofocus is supported.");
       } else {
@@ -0,0 +1,360 @@
+package com.zugaldia.robocar.software.camera;
+
+import android.media.Image;
+
+import com.zugaldia.robocar.dataset.Segment;
+import com.zugaldia.robocar.dataset.SegmentWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Writes dataset photos to a folder on its own I/O thread, so that recording never stutters
+ * the camera consumers: {@link #append(long, int[], Image)} only copies the photo into one of a
+ * fixed pool of direct buffers and returns, the image can be released right away.
+ * <p>
+ * <p>Photos are appended, with their timestamp and motor speeds, to {@link Segment} files.
+ * Queued photos are written in batches, and synced to storage together, periodically, instead
+ * of one by one. Photos are only dropped (and counted) if all the buffers are waiting to be
+ * written, i.e. if storage can't keep up with the recording rate for longer than the pool can
+ * absorb.
+ */
+public class DatasetWriter {
+
+  // Enough to absorb more than a second of backlog at 10 FPS
+  public static final int DEFAULT_BUFFER_COUNT = 16;
+
+  // A 640x480 JPEG, buffers grow if a photo doesn't fit
+  public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+
+  // Photos written before syncing, and max time between syncs
+  private static final int MAX_UNSYNCED_RECORDS = 32;
+  private static final long SYNC_INTERVAL_MS = 1000;
+
+  // Segments are rolled over past this size, to bound what's lost if one gets corrupted
+  private static final long MAX_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  private static final String THREAD_NAME = "DATASET_WRITER";
+
+  /**
+   * A photo waiting to be written.
+   */
+  private static class Entry {
+
+    ByteBuffer buffer;
+    long timestamp;
+    final int[] speeds = new int[Segment.MOTOR_COUNT];
+
+    Entry(int bufferSize) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+  }
+
+  // Queued by stop(), the I/O thread isn't interrupted as that would close the channels
+  private static final Entry STOP = new Entry(0);
+
+  private final File root;
+  private final String segmentName;
+  private final BlockingQueue<Entry> freeEntries;
+  private final BlockingQueue<Entry> pendingEntries;
+
+  // Only accessed by the I/O thread
+  private final List<Entry> batch = new ArrayList<>();
+  private SegmentWriter segment;
+  private int segmentCount;
+  private int unsyncedRecords;
+  private long lastSyncMillis;
+
+  private Thread thread;
+  private volatile boolean running;
+
+  private volatile long submitted;
+  private volatile long written;
+  private volatile long dropped;
+  private volatile long failed;
+  private volatile long bytesWritten;
+  private volatile long writeNanos;
+  private volatile long syncs;
+  private volatile long syncNanos;
+
+  /**
+   * Creates a writer of segments named after the given name (name-0.seg, name-1.seg, etc.), see
+   * {@link #append(long, int[], Image)}.
+   */
+  public DatasetWriter(File root, String segmentName) {
+    this(root, segmentName, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a writer of segments to the given folder (created if needed), with a pool of the
+   * given number of buffers.
+   */
+  public DatasetWriter(File root, String segmentName, int bufferCount, int bufferSize) {
+    this.root = root;
+    this.segmentName = segmentName;
+    if (!root.isDirectory() && !root.mkdirs()) {
+      Timber.e("Failed to create dataset folder: %s.", root.getAbsolutePath());
+    }
+
+    freeEntries = new ArrayBlockingQueue<>(bufferCount);
+    pendingEntries = new ArrayBlockingQueue<>(bufferCount + 1);
+    for (int i = 0; i < bufferCount; i++) {
+      freeEntries.add(new Entry(bufferSize));
+    }
+  }
+
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+
+    running = true;
+    lastSyncMillis = System.currentTimeMillis();
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, THREAD_NAME);
+    thread.start();
+  }
+
+  /**
+   * Writes the photos still queued, syncs and closes all the files and stops the I/O thread.
+   */
+  public synchronized void stop() {
+    if (thread == null) {
+      return;
+    }
+
+    running = false;
+    pendingEntries.add(STOP);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Timber.e(e, "Failed to stop the dataset writer.");
+      Thread.currentThread().interrupt();
+    }
+
+    thread = null;
+    logStats();
+  }
+
+  /**
+   * Queues the JPEG photo (the first plane of the image) to be appended to the current segment
+   * with its sensor timestamp and the given motor speeds. The image isn't held: it can be
+   * closed or released as soon as this returns. Returns false if the photo was dropped because
+   * the writer is behind (or stopped).
+   */
+  public boolean append(long timestamp, int[] speeds, Image image) {
+    return append(timestamp, speeds, image.getPlanes()[0].getBuffer());
+  }
+
+  /**
+   * Queues the remaining bytes of the buffer (its position is left untouched) to be appended
+   * to the current segment. Never blocks, but must not be called concurrently.
+   */
+  public boolean append(long timestamp, int[] speeds, ByteBuffer data) {
+    Entry entry = queue(data);
+    if (entry != null) {
+      entry.timestamp = timestamp;
+      System.arraycopy(speeds, 0, entry.speeds, 0, Segment.MOTOR_COUNT);
+      pendingEntries.add(entry);
+    }
+
+    return entry != null;
+  }
+
+  /**
+   * Copies the data into a free entry, returns null if there's none (the photo is dropped).
+   * The entry must then be added to the pending ones, which is never full: there are more
+   * pending slots than entries.
+   */
+  private Entry queue(ByteBuffer data) {
+    submitted++;
+    Entry entry = running ? freeEntries.poll() : null;
+    if (entry == null) {
+      dropped++;
+      return null;
+    }
+
+    ByteBuffer source = data.duplicate();
+    if (entry.buffer.capacity() < source.remaining()) {
+      entry.buffer = ByteBuffer.allocateDirect(source.remaining());
+    }
+
+    entry.buffer.clear();
+    entry.buffer.put(source);
+    entry.buffer.flip();
+    return entry;
+  }
+
+  private void writeLoop() {
+    boolean stopping = false;
+    while (!stopping) {
+      try {
+        Entry entry = pendingEntries.poll(SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+          batch.add(entry);
+          pendingEntries.drainTo(batch);
+          stopping = writeBatch();
+        }
+      } catch (InterruptedException e) {
+        Timber.e(e, "Dataset writer interrupted.");
+        stopping = true;
+      }
+
+      if (unsyncedRecords >= MAX_UNSYNCED_RECORDS
+          || System.currentTimeMillis() - lastSyncMillis >= SYNC_INTERVAL_MS) {
+        sync();
+      }
+    }
+
+    sync();
+    closeSegment();
+  }
+
+  /**
+   * Writes the batch, returns whether it ended with the stop request.
+   */
+  private boolean writeBatch() {
+    boolean stopping = false;
+    for (Entry entry : batch) {
+      if (entry == STOP) {
+        stopping = true;
+        continue;
+      }
+
+      long start = System.nanoTime();
+      int size = entry.buffer.remaining();
+      try {
+        appendRecord(entry);
+        written++;
+        bytesWritten += size;
+      } catch (IOException e) {
+        failed++;
+        Timber.e(e, "Failed to write a photo.");
+      } finally {
+        writeNanos += System.nanoTime() - start;
+        freeEntries.add(entry);
+      }
+    }
+
+    batch.clear();
+    return stopping;
+  }
+
+  private void appendRecord(Entry entry) throws IOException {
+    if (segment != null && segment.getSize() >= MAX_SEGMENT_BYTES) {
+      closeSegment();
+    }
+    if (segment == null) {
+      File file = new File(root, segmentName + "-" + segmentCount++ + Segment.EXTENSION);
+      segment = new SegmentWriter(file);
+      Timber.d("Recording to segment: %s.", file.getAbsolutePath());
+    }
+
+    segment.append(entry.timestamp, entry.speeds, entry.buffer);
+    unsyncedRecords++;
+  }
+
+  /**
+   * Writes the index of the current segment and closes it.
+   */
+  private void closeSegment() {
+    if (segment == null) {
+      return;
+    }
+
+    try {
+      segment.close();
+    } catch (IOException e) {
+      Timber.e(e, "Failed to close segment %s.", segment.getFile());
+    }
+    segment = null;
+    unsyncedRecords = 0;
+  }
+
+  private void sync() {
+    lastSyncMillis = System.currentTimeMillis();
+    if (unsyncedRecords == 0) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      segment.sync();
+    } catch (IOException e) {
+      Timber.e(e, "Failed to sync segment %s.", segment.getFile());
+    }
+
+    unsyncedRecords = 0;
+    syncs++;
+    syncNanos += System.nanoTime() - start;
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  public long getWritten() {
+    return written;
+  }
+
+  /**
+   * Photos dropped because all the buffers were waiting to be written.
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Number of photos queued and not written yet.
+   */
+  public int getBacklog() {
+    return pendingEntries.size();
+  }
+
+  /**
+   * Write throughput while writing (excluding syncs), in MB/s.
+   */
+  public double getThroughputMbps() {
+    long nanos = writeNanos;
+    return nanos == 0 ? 0 : bytesWritten / 1e6 / (nanos / 1e9);
+  }
+
+  public long getSyncs() {
+    return syncs;
+  }
+
+  public double getAverageSyncMs() {
+    long count = syncs;
+    return count == 0 ? 0 : syncNanos / 1e6 / count;
+  }
+
+  public void logStats() {
+    Timber.d(toString());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "%d photos submitted, %d written (%.1f MB, %.1f MB/s), %d dropped, %d failed, "
+            + "%d queued, %d syncs (%.1f ms avg)",
+        submitted, written, bytesWritten / 1e6, getThroughputMbps(), dropped, failed,
+        getBacklog(), syncs, getAverageSyncMs());
+  }
+}
@@ -0,0 +1,51 @@
+package com.zugaldia.robocar.software.camera;
+
+import android.media.Image;
+
+/**
+ * A camera image handed to a {@link FrameConsumer}. The image may be shared with other
+ * consumers: it must not be closed, only released (once) through {@link #release()}.
+ */
+public class DispatchedFrame {
+
+  private final FrameDispatcher.SharedImage sharedImage;
+  private final FrameDispatcher.Slot slot;
+  private boolean released;
+
+  DispatchedFrame(FrameDispatcher.SharedImage sharedImage, FrameDispatcher.Slot slot) {
+    this.sharedImage = sharedImage;
+    this.slot = slot;
+  }
+
+  public Image getImage() {
+    return sharedImage.image;
+  }
+
+  /**
+   * The sensor timestamp of the image, in nanoseconds.
+   */
+  public long getTimestamp() {
+    return sharedImage.timestamp;
+  }
+
+  /**
+   * Gives the frame back, the image can't be accessed afterwards.
+   */
+  public void release() {
+    if (released) {
+      return;
+    }
+
+    released = true;
+    slot.release(sharedImage);
+  }
+
+  /**
+   * Gives the frame back without it ever reaching the consumer. Must be called while holding
+   * the dispatcher lock.
+   */
+  void discard() {
+    released = true;
+    slot.discard(sharedImage);
+  }
+}
@@ -0,0 +1,15 @@
+package com.zugaldia.robocar.software.camera;
+
+/**
+ * Receives camera frames from a {@link FrameDispatcher}, on a worker of its
+ * {@link FrameExecutor}. Calls are never concurrent, but may come from different threads.
+ */
+public interface FrameConsumer {
+
+  /**
+   * Called with a new frame, which must be released once done with (possibly later, from
+   * another thread). The next frame isn't delivered until then.
+   */
+  void onFrame(DispatchedFrame frame);
+
+}
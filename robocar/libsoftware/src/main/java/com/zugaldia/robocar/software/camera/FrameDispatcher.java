@@ -0,0 +1,373 @@
+package com.zugaldia.robocar.software.camera;
+
+import android.media.Image;
+import android.media.ImageReader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+import timber.log.Timber;
+
+/**
+ * Hands the images of an {@link ImageReader} to one or more {@link FrameConsumer}s, on the
+ * workers of a {@link FrameExecutor}, with a latest-frame-wins policy: a consumer has at most a
+ * fixed number of frames in flight (one by default), and at most one more waiting. When a new
+ * frame arrives while a consumer is busy, the waiting one is stale: it's dropped (and counted)
+ * and replaced.
+ * <p>
+ * <p>This way consumers always work on the freshest image, and the camera never runs out of
+ * buffers as long as the reader can hold, for every consumer, its frames in flight plus one
+ * waiting, plus one being acquired. The dispatcher must be the only listener of the reader.
+ * <p>
+ * <p>A consumer is never called concurrently, even if it holds several frames and the
+ * executor has several workers. If the executor drops the delivery of a consumer, its frames
+ * are released and counted as dropped.
+ */
+public class FrameDispatcher implements ImageReader.OnImageAvailableListener {
+
+  /**
+   * An image shared by the consumers, closed once all of them have released it.
+   */
+  static class SharedImage {
+
+    final Image image;
+    final long timestamp;
+    private int references;
+
+    SharedImage(Image image, int references) {
+      this.image = image;
+      this.timestamp = image.getTimestamp();
+      this.references = references;
+    }
+
+    /**
+     * Must be called while holding the dispatcher lock.
+     */
+    void release() {
+      if (--references == 0) {
+        image.close();
+      }
+    }
+  }
+
+  /**
+   * The state of a consumer: the frames it holds and its stats. Frames are handed to the
+   * consumer in order by a single task, scheduled on the executor when the first one is
+   * pending.
+   */
+  class Slot implements FrameExecutor.Task {
+
+    final String name;
+    final FrameConsumer consumer;
+    final int maxInFlight;
+
+    final Queue<DispatchedFrame> pending = new ArrayDeque<>();
+    boolean scheduled;
+    int inFlight;
+    SharedImage waiting;
+
+    long delivered;
+    long dropped;
+
+    Slot(String name, FrameConsumer consumer, int maxInFlight) {
+      this.name = name;
+      this.consumer = consumer;
+      this.maxInFlight = maxInFlight;
+    }
+
+    void release(SharedImage sharedImage) {
+      boolean schedule = false;
+      synchronized (FrameDispatcher.this) {
+        sharedImage.release();
+        inFlight--;
+        if (waiting != null) {
+          SharedImage next = waiting;
+          waiting = null;
+          schedule = deliver(this, next);
+        }
+      }
+
+      if (schedule) {
+        executor.execute(this);
+      }
+    }
+
+    /**
+     * Must be called while holding the dispatcher lock.
+     */
+    void discard(SharedImage sharedImage) {
+      sharedImage.release();
+      inFlight--;
+      delivered--;
+      dropped++;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        DispatchedFrame frame;
+        synchronized (FrameDispatcher.this) {
+          frame = pending.poll();
+          if (frame == null) {
+            scheduled = false;
+            FrameDispatcher.this.notifyAll();
+            return;
+          }
+        }
+
+        try {
+          consumer.onFrame(frame);
+        } catch (RuntimeException e) {
+          Timber.e(e, "Consumer %s failed to process a frame.", name);
+          frame.release();
+        }
+      }
+    }
+
+    @Override
+    public void onRejected() {
+      synchronized (FrameDispatcher.this) {
+        scheduled = false;
+        discardPending(this);
+        if (waiting != null) {
+          waiting.release();
+          waiting = null;
+          dropped++;
+        }
+        FrameDispatcher.this.notifyAll();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s: %d frames delivered, %d dropped",
+          name, delivered, dropped);
+    }
+  }
+
+  private final FrameExecutor executor;
+  private final List<Slot> slots = new ArrayList<>();
+  private boolean running;
+
+  // Frames that couldn't be acquired from the reader
+  private long failed;
+
+  /**
+   * Creates a dispatcher delivering on the executor shared by all the camera consumers.
+   */
+  public FrameDispatcher() {
+    this(FrameExecutor.getShared());
+  }
+
+  public FrameDispatcher(FrameExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Adds a consumer with a single frame in flight. Consumers can only be added before
+   * {@link #start()}.
+   */
+  public void addConsumer(String name, FrameConsumer consumer) {
+    addConsumer(name, consumer, 1);
+  }
+
+  /**
+   * Adds a consumer that can hold up to the given number of frames at a time, e.g. to process
+   * them in a pipeline.
+   */
+  public synchronized void addConsumer(String name, FrameConsumer consumer, int maxInFlight) {
+    if (running) {
+      throw new IllegalStateException("Consumers must be added before starting.");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("A consumer needs at least a frame in flight.");
+    }
+
+    slots.add(new Slot(name, consumer, maxInFlight));
+  }
+
+  /**
+   * Number of images the reader must be able to hold for the camera never to block.
+   */
+  public synchronized int getRequiredImages() {
+    int images = 1;
+    for (Slot slot : slots) {
+      images += slot.maxInFlight + 1;
+    }
+
+    return images;
+  }
+
+  public synchronized void start() {
+    running = true;
+  }
+
+  /**
+   * Stops delivering frames. Frames waiting are released, the ones in flight must still be
+   * released by their consumers. Waits for the consumers being called to return, so that no
+   * frame arrives after this does. Must not be called from a consumer.
+   */
+  public void stop() {
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      for (Slot slot : slots) {
+        discardPending(slot);
+        if (slot.waiting != null) {
+          slot.waiting.release();
+          slot.waiting = null;
+        }
+      }
+
+      try {
+        while (isDelivering()) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Timber.e(e, "Interrupted while waiting for the consumers.");
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    logStats();
+  }
+
+  @Override
+  public void onImageAvailable(ImageReader reader) {
+    Image image;
+    try {
+      // Also closes the images that arrived in the meantime
+      image = reader.acquireLatestImage();
+    } catch (IllegalStateException e) {
+      // All the images are held, should not happen if getRequiredImages() was honored
+      synchronized (this) {
+        failed++;
+      }
+      Timber.w("Failed to acquire an image (max images %d).", reader.getMaxImages());
+      return;
+    }
+
+    if (image == null) {
+      return;
+    }
+
+    List<Slot> toSchedule = new ArrayList<>();
+    synchronized (this) {
+      if (!running || slots.isEmpty()) {
+        image.close();
+        return;
+      }
+
+      SharedImage sharedImage = new SharedImage(image, slots.size());
+      for (Slot slot : slots) {
+        if (slot.inFlight < slot.maxInFlight) {
+          if (deliver(slot, sharedImage)) {
+            toSchedule.add(slot);
+          }
+        } else {
+          if (slot.waiting != null) {
+            slot.waiting.release();
+            slot.dropped++;
+          }
+          slot.waiting = sharedImage;
+        }
+      }
+    }
+
+    // Outside the lock: dropping a task may call back into another dispatcher
+    for (Slot slot : toSchedule) {
+      executor.execute(slot);
+    }
+  }
+
+  /**
+   * Queues the frame for the consumer. Must be called while holding the lock, returns whether
+   * the slot must then be scheduled on the executor (outside the lock).
+   */
+  private boolean deliver(Slot slot, SharedImage sharedImage) {
+    if (!running) {
+      sharedImage.release();
+      return false;
+    }
+
+    slot.inFlight++;
+    slot.delivered++;
+    slot.pending.add(new DispatchedFrame(sharedImage, slot));
+    if (slot.scheduled) {
+      return false;
+    }
+
+    slot.scheduled = true;
+    return true;
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  private void discardPending(Slot slot) {
+    DispatchedFrame frame;
+    while ((frame = slot.pending.poll()) != null) {
+      frame.discard();
+    }
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  private boolean isDelivering() {
+    for (Slot slot : slots) {
+      if (slot.scheduled) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Frames delivered to the named consumer.
+   */
+  public synchronized long getDelivered(String name) {
+    return getSlot(name).delivered;
+  }
+
+  /**
+   * Stale frames dropped before the named consumer could take them.
+   */
+  public synchronized long getDropped(String name) {
+    return getSlot(name).dropped;
+  }
+
+  /**
+   * Frames that couldn't be acquired from the reader at all.
+   */
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  public synchronized void logStats() {
+    for (Slot slot : slots) {
+      Timber.d("Dispatcher %s", slot);
+    }
+    if (failed > 0) {
+      Timber.w("Dispatcher failed to acquire %d frames.", failed);
+    }
+    Timber.d("Frame executor: %s", executor);
+  }
+
+  private Slot getSlot(String name) {
+    for (Slot slot : slots) {
+      if (slot.name.equals(name)) {
+        return slot;
+      }
+    }
+
+    throw new IllegalArgumentException("Unknown consumer: " + name);
+  }
+}
@@ -0,0 +1,214 @@
+package com.zugaldia.robocar.software.camera;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * A bounded pool of worker threads shared by the camera consumers (see
+ * {@link FrameDispatcher}), instead of a thread per consumer or per frame. Both the number of
+ * threads and the number of waiting tasks are fixed; when the queue is full, either the new
+ * task or the oldest waiting one is dropped, depending on the {@link RejectionPolicy}. Dropped
+ * tasks are told so (to release their frames) and counted, as is the time tasks wait in the
+ * queue.
+ */
+public class FrameExecutor {
+
+  public static final int DEFAULT_THREADS = 2;
+  public static final int DEFAULT_QUEUE_SIZE = 8;
+
+  /**
+   * What to drop when the queue is full.
+   */
+  public enum RejectionPolicy {
+    DROP_NEWEST,
+    DROP_OLDEST
+  }
+
+  /**
+   * A task that can be dropped instead of run.
+   */
+  public interface Task extends Runnable {
+
+    /**
+     * Called instead of {@link #run()} if the task is dropped, possibly on the submitting
+     * thread.
+     */
+    void onRejected();
+  }
+
+  private static FrameExecutor sharedExecutor;
+
+  private final ThreadPoolExecutor executor;
+  private final RejectionPolicy rejectionPolicy;
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * Creates a pool with the given number of threads and of waiting tasks.
+   */
+  public FrameExecutor(int threads, int queueSize, RejectionPolicy rejectionPolicy) {
+    if (threads < 1 || queueSize < 1) {
+      throw new IllegalArgumentException(String.format(Locale.US,
+          "Invalid frame executor: %d threads, queue of %d.", threads, queueSize));
+    }
+
+    this.rejectionPolicy = rejectionPolicy;
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new WorkerFactory(),
+        new RejectionHandler());
+  }
+
+  /**
+   * Pool shared by all the camera consumers, created on first use with the default size.
+   */
+  public static synchronized FrameExecutor getShared() {
+    if (sharedExecutor == null) {
+      sharedExecutor = new FrameExecutor(
+          DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, RejectionPolicy.DROP_OLDEST);
+    }
+
+    return sharedExecutor;
+  }
+
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Runs the task on a worker thread, or drops it (or the oldest waiting one) if the queue is
+   * full. Never blocks.
+   */
+  public void execute(Task task) {
+    submitted.incrementAndGet();
+    executor.execute(new TimedTask(task));
+  }
+
+  /**
+   * Stops the workers once the waiting tasks have run. Not meant for the shared pool.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  /**
+   * Number of tasks dropped because the queue was full.
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  public long getCompleted() {
+    return completed.get();
+  }
+
+  /**
+   * Number of tasks waiting for a worker.
+   */
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  public double getAverageWaitMs() {
+    long count = completed.get();
+    return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+  }
+
+  public double getMaxWaitMs() {
+    return maxWaitNanos.get() / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "%d tasks submitted, %d rejected, %d completed, %.1f ms avg wait, %.1f ms max wait",
+        getSubmitted(), getRejected(), getCompleted(), getAverageWaitMs(), getMaxWaitMs());
+  }
+
+  /**
+   * Records how long the task waited in the queue.
+   */
+  private class TimedTask implements Runnable {
+
+    private final Task task;
+    private final long submittedNanos = System.nanoTime();
+
+    TimedTask(Task task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      long waitNanos = System.nanoTime() - submittedNanos;
+      totalWaitNanos.addAndGet(waitNanos);
+      long max = maxWaitNanos.get();
+      while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+        max = maxWaitNanos.get();
+      }
+
+      try {
+        task.run();
+      } finally {
+        completed.incrementAndGet();
+      }
+    }
+
+    void reject() {
+      rejected.incrementAndGet();
+      task.onRejected();
+    }
+  }
+
+  private class RejectionHandler implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+      if (pool.isShutdown()) {
+        ((TimedTask) runnable).reject();
+        return;
+      }
+
+      if (rejectionPolicy == RejectionPolicy.DROP_OLDEST) {
+        BlockingQueue<Runnable> queue = pool.getQueue();
+        Runnable oldest = queue.poll();
+        if (oldest != null) {
+          ((TimedTask) oldest).reject();
+        }
+        if (queue.offer(runnable)) {
+          return;
+        }
+      }
+
+      Timber.d("Frame executor full, dropping a task.");
+      ((TimedTask) runnable).reject();
+    }
+  }
+
+  private static class WorkerFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "FRAME_WORKER_" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -3,6 +3,8 @@ package com.zugaldia.robocar.software.controller.nes30;
 import android.support.annotation.IntDef;
 import android.view.KeyEvent;
 
+import com.zugaldia.robocar.software.recorder.FlightRecorder;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayDeque;
@@ -44,6 +46,7 @@ public class Nes30Manager implements KeyEvent.Callback {
 
   private Deque<Integer> history = null;
   private Nes30Listener listener = null;
+  private FlightRecorder flightRecorder = null;
 
   private Deque<Integer> konami = new ArrayDeque<>(Arrays.asList(
       BUTTON_UP_CODE, BUTTON_UP_CODE, BUTTON_DOWN_CODE, BUTTON_DOWN_CODE,
@@ -67,8 +70,19 @@ public class Nes30Manager implements KeyEvent.Callback {
     this.listener = listener;
   }
 
+  /**
+   * Records the key presses, or not if null.
+   */
+  public void setFlightRecorder(FlightRecorder flightRecorder) {
+    this.flightRecorder = flightRecorder;
+  }
+
   @Override
   public boolean onKeyDown(int keyCode, KeyEvent event) {
+    if (flightRecorder != null) {
+      flightRecorder.recordKey(keyCode, true);
+    }
+
     addKeyToHistory(keyCode);
     if (listener != null) {
       listener.onKeyPress(keyCode, true);
@@ -80,6 +94,10 @@ public class Nes30Manager implements KeyEvent.Callback {
 
   @Override
   public boolean onKeyUp(int keyCode, KeyEvent event) {
+    if (flightRecorder != null) {
+      flightRecorder.recordKey(keyCode, false);
+    }
+
     if (listener != null) {
       listener.onKeyPress(keyCode, false);
       return true;
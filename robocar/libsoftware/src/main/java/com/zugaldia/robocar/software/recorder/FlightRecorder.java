@@ -0,0 +1,521 @@
+package com.zugaldia.robocar.software.recorder;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.os.SystemClock;
+
+import com.zugaldia.robocar.dataset.Segment;
+import com.zugaldia.robocar.dataset.SegmentWriter;
+import com.zugaldia.robocar.software.camera.DispatchedFrame;
+import com.zugaldia.robocar.software.camera.FrameConsumer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Always-on recorder of the last seconds of driving: camera frames, motor commands and input
+ * events are kept in a fixed-size ring file mapped in memory, so that when the car crashes or
+ * loses the lane, {@link #trigger()} can freeze the window and export it for analysis.
+ * <p>
+ * <p>Recording is meant to cost next to nothing: an event is a few absolute writes to the
+ * mapping in a fixed-size slot, claimed with an atomic counter, without allocating or locking.
+ * Frames (as a {@link FrameConsumer}, so they're dropped rather than slowing down the camera)
+ * are sampled at a fixed rate and copied into fixed-size slots, NV21 for YUV_420_888 images and
+ * as is for JPEG ones. The mapping survives the app being killed: on the next start, the
+ * previous ring is renamed to {@value #PREVIOUS_RING_FILENAME} before a new one is created.
+ * <p>
+ * <p>An export writes events.csv and a dataset segment of the frames (see {@link Segment}, with
+ * the motor speeds at the time of each frame) to a flight-(date) folder, on its own thread.
+ * The export waits for the writers already past the freeze to finish, so it never reads a slot
+ * being written. Recording resumes once done.
+ */
+public class FlightRecorder implements FrameConsumer {
+
+  public static final int DEFAULT_SECONDS = 10;
+  public static final int DEFAULT_FRAME_RATE = 10;
+
+  // Event types and their arguments
+  public static final int EVENT_MOTOR_SPEED = 1; // motor, speed
+  public static final int EVENT_MOTOR_RUN = 2; // motor, command
+  public static final int EVENT_KEY = 3; // key code, 1 if down
+  public static final int EVENT_HTTP = 4; // endpoint code, left and right speeds if any
+  public static final int EVENT_TRIGGER = 5;
+
+  private static final String[] EVENT_NAMES = {
+      "", "motor_speed", "motor_run", "key", "http", "trigger"};
+
+  // Events kept per second, e.g. 4 motors at 30 Hz, speed and direction
+  private static final int EVENT_RATE = 512;
+
+  private static final String RING_FILENAME = "flight-recorder.ring";
+  private static final String PREVIOUS_RING_FILENAME = "flight-recorder-previous.ring";
+  private static final String EVENTS_FILENAME = "events.csv";
+  private static final String FRAMES_FILENAME = "frames" + Segment.EXTENSION;
+  private static final int JPEG_QUALITY = 90;
+
+  // Header: magic, version, seconds, event capacity, frame slots and frame slot size (ints)
+  private static final int MAGIC = 0x52434652; // RCFR
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+
+  // Event: sequence, timestamp (longs), type and three arguments (ints)
+  private static final int EVENT_SIZE = 32;
+
+  // Frame: sequence, timestamp, sensor timestamp (longs), length, width, height, format (ints)
+  private static final int FRAME_HEADER_SIZE = 40;
+
+  // Sequence of a slot being written
+  private static final long WRITING = -1;
+
+  private final File root;
+  private final int seconds;
+  private final long frameIntervalNanos;
+  private final int eventCapacity;
+  private final int frameSlots;
+  private final int frameSlotSize;
+  private final int framesOffset;
+
+  private MappedByteBuffer ring;
+
+  private final AtomicLong eventSequence = new AtomicLong();
+  private final AtomicInteger writers = new AtomicInteger();
+  private volatile long frameSequence;
+  private long lastFrameNanos;
+  private volatile boolean frozen;
+  private volatile long skippedFrames;
+  private volatile int exports;
+
+  /**
+   * Creates a recorder of the last {@link #DEFAULT_SECONDS} seconds, with frames of up to the
+   * given size in bytes.
+   */
+  public FlightRecorder(File root, int maxFrameBytes) {
+    this(root, DEFAULT_SECONDS, DEFAULT_FRAME_RATE, maxFrameBytes);
+  }
+
+  /**
+   * Creates a recorder of the last given seconds, keeping frames at the given rate. The ring
+   * file is created in the root folder (the previous one, if any, is kept), recording never
+   * fails: if the file can't be mapped, nothing is recorded.
+   */
+  public FlightRecorder(File root, int seconds, int frameRate, int maxFrameBytes) {
+    this.root = root;
+    this.seconds = seconds;
+    frameIntervalNanos = 1000000000L / frameRate;
+    eventCapacity = seconds * EVENT_RATE;
+    frameSlots = seconds * frameRate;
+    frameSlotSize = FRAME_HEADER_SIZE + maxFrameBytes;
+    framesOffset = HEADER_SIZE + eventCapacity * EVENT_SIZE;
+
+    long size = framesOffset + (long) frameSlots * frameSlotSize;
+    File file = new File(root, RING_FILENAME);
+    keepPreviousRing(file);
+    try {
+      RandomAccessFile output = new RandomAccessFile(file, "rw");
+      try {
+        output.setLength(size);
+        ring = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        // The mapping stays valid
+        output.close();
+      }
+    } catch (IOException e) {
+      Timber.e(e, "Failed to map the flight recorder, nothing will be recorded.");
+      return;
+    }
+
+    ring.putInt(0, MAGIC);
+    ring.putInt(4, VERSION);
+    ring.putInt(8, seconds);
+    ring.putInt(12, eventCapacity);
+    ring.putInt(16, frameSlots);
+    ring.putInt(20, frameSlotSize);
+    for (int i = 0; i < eventCapacity; i++) {
+      ring.putLong(HEADER_SIZE + i * EVENT_SIZE, WRITING);
+    }
+    for (int i = 0; i < frameSlots; i++) {
+      ring.putLong(framesOffset + i * frameSlotSize, WRITING);
+    }
+    Timber.d("Flight recorder: %d s, %d events, %d frames (%.1f MB).",
+        seconds, eventCapacity, frameSlots, size / 1e6);
+  }
+
+  /**
+   * Renames the ring left by the previous run, if its header is valid, so that it isn't
+   * overwritten. Replaces the one kept before.
+   */
+  private void keepPreviousRing(File file) {
+    if (file.length() < HEADER_SIZE) {
+      return;
+    }
+
+    boolean valid;
+    try {
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      try {
+        valid = input.readInt() == MAGIC && input.readInt() == VERSION;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      Timber.e(e, "Failed to read the previous flight recorder.");
+      return;
+    }
+
+    File previous = new File(root, PREVIOUS_RING_FILENAME);
+    if (valid && !file.renameTo(previous)) {
+      Timber.e("Failed to keep the previous flight recorder as %s.", previous.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Records an event, see the EVENT_ constants. Can be called from any thread, never blocks nor
+   * allocates.
+   */
+  public void recordEvent(int type, int arg1, int arg2, int arg3) {
+    if (ring == null) {
+      return;
+    }
+
+    // Counted before checking the freeze, so the export can wait for writers already past it
+    writers.incrementAndGet();
+    try {
+      if (frozen) {
+        return;
+      }
+
+      long sequence = eventSequence.getAndIncrement();
+      int offset = HEADER_SIZE + (int) (sequence % eventCapacity) * EVENT_SIZE;
+      ring.putLong(offset, WRITING);
+      ring.putLong(offset + 8, SystemClock.elapsedRealtimeNanos());
+      ring.putInt(offset + 16, type);
+      ring.putInt(offset + 20, arg1);
+      ring.putInt(offset + 24, arg2);
+      ring.putInt(offset + 28, arg3);
+      ring.putLong(offset, sequence);
+    } finally {
+      writers.decrementAndGet();
+    }
+  }
+
+  public void recordMotorSpeed(int motor, int speed) {
+    recordEvent(EVENT_MOTOR_SPEED, motor, speed, 0);
+  }
+
+  public void recordMotorRun(int motor, int command) {
+    recordEvent(EVENT_MOTOR_RUN, motor, command, 0);
+  }
+
+  public void recordKey(int keyCode, boolean isDown) {
+    recordEvent(EVENT_KEY, keyCode, isDown ? 1 : 0, 0);
+  }
+
+  /**
+   * Keeps the frame if the previous one is old enough, and releases it.
+   */
+  @Override
+  public void onFrame(DispatchedFrame frame) {
+    writers.incrementAndGet();
+    try {
+      long now = SystemClock.elapsedRealtimeNanos();
+      if (ring == null || frozen || now - lastFrameNanos < frameIntervalNanos) {
+        return;
+      }
+
+      lastFrameNanos = now;
+      recordFrame(frame.getImage(), now, frame.getTimestamp());
+    } finally {
+      writers.decrementAndGet();
+      frame.release();
+    }
+  }
+
+  private void recordFrame(Image image, long timestamp, long sensorTimestamp) {
+    long sequence = frameSequence;
+    int offset = framesOffset + (int) (sequence % frameSlots) * frameSlotSize;
+    ring.putLong(offset, WRITING);
+
+    int format = image.getFormat();
+    int length;
+    if (format == ImageFormat.YUV_420_888) {
+      format = ImageFormat.NV21;
+      length = copyNv21(image, offset + FRAME_HEADER_SIZE);
+    } else if (format == ImageFormat.JPEG) {
+      length = copyJpeg(image, offset + FRAME_HEADER_SIZE);
+    } else {
+      length = -1;
+    }
+
+    if (length < 0) {
+      // The slot is left marked as being written, i.e. empty
+      skippedFrames++;
+      return;
+    }
+
+    ring.putLong(offset + 8, timestamp);
+    ring.putLong(offset + 16, sensorTimestamp);
+    ring.putInt(offset + 24, length);
+    ring.putInt(offset + 28, image.getWidth());
+    ring.putInt(offset + 32, image.getHeight());
+    ring.putInt(offset + 36, format);
+    ring.putLong(offset, sequence);
+    frameSequence = sequence + 1;
+  }
+
+  /**
+   * Returns the length, or -1 if it doesn't fit.
+   */
+  private int copyNv21(Image image, int offset) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int length = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    if (length > frameSlotSize - FRAME_HEADER_SIZE) {
+      return -1;
+    }
+
+    Image.Plane[] planes = image.getPlanes();
+    ByteBuffer luma = planes[0].getBuffer();
+    int lumaStride = planes[0].getRowStride();
+    int position = offset;
+    for (int row = 0; row < height; row++) {
+      int source = row * lumaStride;
+      for (int col = 0; col < width; col++) {
+        ring.put(position++, luma.get(source + col));
+      }
+    }
+
+    ByteBuffer u = planes[1].getBuffer();
+    ByteBuffer v = planes[2].getBuffer();
+    int chromaStride = planes[1].getRowStride();
+    int chromaPixelStride = planes[1].getPixelStride();
+    for (int row = 0; row < (height + 1) / 2; row++) {
+      int source = row * chromaStride;
+      for (int col = 0; col < (width + 1) / 2; col++, source += chromaPixelStride) {
+        ring.put(position++, v.get(source));
+        ring.put(position++, u.get(source));
+      }
+    }
+
+    return length;
+  }
+
+  private int copyJpeg(Image image, int offset) {
+    ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+    int length = jpeg.remaining();
+    if (length > frameSlotSize - FRAME_HEADER_SIZE) {
+      return -1;
+    }
+
+    int start = jpeg.position();
+    for (int i = 0; i < length; i++) {
+      ring.put(offset + i, jpeg.get(start + i));
+    }
+
+    return length;
+  }
+
+  /**
+   * Freezes the recording and exports the window on a background thread. Returns false if an
+   * export is already running (or nothing is being recorded).
+   */
+  public synchronized boolean trigger() {
+    if (ring == null || frozen) {
+      return false;
+    }
+
+    recordEvent(EVENT_TRIGGER, 0, 0, 0);
+    frozen = true;
+    final long triggerNanos = SystemClock.elapsedRealtimeNanos();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          export(triggerNanos);
+        } finally {
+          frozen = false;
+        }
+      }
+    }, "FLIGHT_RECORDER_EXPORT").start();
+    return true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  public int getExportCount() {
+    return exports;
+  }
+
+  /**
+   * Frames that didn't fit in a slot, or in an unsupported format.
+   */
+  public long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /**
+   * A record read back from the ring when exporting.
+   */
+  private static class Record implements Comparable<Record> {
+    long timestamp;
+    int offset;
+
+    Record(long timestamp, int offset) {
+      this.timestamp = timestamp;
+      this.offset = offset;
+    }
+
+    @Override
+    public int compareTo(Record other) {
+      return timestamp < other.timestamp ? -1 : (timestamp == other.timestamp ? 0 : 1);
+    }
+  }
+
+  private void export(long triggerNanos) {
+    // New writers see the freeze, the ones already past it are short
+    while (writers.get() > 0) {
+      Thread.yield();
+    }
+
+    long start = triggerNanos - seconds * 1000000000L;
+    List<Record> events = readRecords(
+        HEADER_SIZE, eventCapacity, EVENT_SIZE, eventSequence.get(), start);
+    List<Record> frames = readRecords(
+        framesOffset, frameSlots, frameSlotSize, frameSequence, start);
+
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmssSSS", Locale.US);
+    File folder = new File(root, "flight-" + dateFormat.format(new Date()));
+    if (!folder.mkdirs()) {
+      Timber.e("Failed to create %s.", folder.getAbsolutePath());
+      return;
+    }
+
+    try {
+      exportEvents(events, new File(folder, EVENTS_FILENAME));
+      exportFrames(frames, events, new File(folder, FRAMES_FILENAME));
+    } catch (IOException e) {
+      Timber.e(e, "Failed to export the flight recorder.");
+      return;
+    }
+
+    exports++;
+    Timber.d("Flight recorder exported to %s: %d events, %d frames.",
+        folder.getAbsolutePath(), events.size(), frames.size());
+  }
+
+  /**
+   * Reads the valid slots (written, not overwritten and in the window), sorted by time. Only
+   * called once all the writers are done, so the slots don't change while they're exported.
+   */
+  private List<Record> readRecords(int regionOffset, int slots, int slotSize, long next,
+                                   long start) {
+    List<Record> records = new ArrayList<>();
+    for (long sequence = Math.max(0, next - slots); sequence < next; sequence++) {
+      int offset = regionOffset + (int) (sequence % slots) * slotSize;
+      long timestamp = ring.getLong(offset + 8);
+      if (ring.getLong(offset) == sequence && timestamp >= start) {
+        records.add(new Record(timestamp, offset));
+      }
+    }
+
+    Record[] sorted = records.toArray(new Record[records.size()]);
+    Arrays.sort(sorted);
+    return Arrays.asList(sorted);
+  }
+
+  private void exportEvents(List<Record> events, File file) throws IOException {
+    PrintWriter writer = new PrintWriter(file);
+    try {
+      writer.println("timestamp,event,arg1,arg2,arg3");
+      for (Record event : events) {
+        int type = ring.getInt(event.offset + 16);
+        writer.println(String.format(Locale.US, "%d,%s,%d,%d,%d", event.timestamp,
+            type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : String.valueOf(type),
+            ring.getInt(event.offset + 20), ring.getInt(event.offset + 24),
+            ring.getInt(event.offset + 28)));
+      }
+    } finally {
+      writer.close();
+    }
+
+    if (writer.checkError()) {
+      throw new IOException("Failed to write " + file);
+    }
+  }
+
+  private void exportFrames(List<Record> frames, List<Record> events, File file)
+      throws IOException {
+    int[] speeds = new int[Segment.MOTOR_COUNT];
+    Arrays.fill(speeds, -1);
+    int nextEvent = 0;
+
+    SegmentWriter writer = new SegmentWriter(file);
+    try {
+      for (Record frame : frames) {
+        // Motor speeds at the time of the frame
+        for (; nextEvent < events.size()
+            && events.get(nextEvent).timestamp <= frame.timestamp; nextEvent++) {
+          int offset = events.get(nextEvent).offset;
+          int motor = ring.getInt(offset + 20);
+          if (ring.getInt(offset + 16) == EVENT_MOTOR_SPEED
+              && motor >= 1 && motor <= Segment.MOTOR_COUNT) {
+            speeds[motor - 1] = ring.getInt(offset + 24);
+          }
+        }
+
+        byte[] photo = readPhoto(frame.offset);
+        if (photo != null) {
+          writer.append(ring.getLong(frame.offset + 16), speeds, ByteBuffer.wrap(photo));
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Returns the frame as JPEG.
+   */
+  private byte[] readPhoto(int offset) {
+    int length = ring.getInt(offset + 24);
+    int width = ring.getInt(offset + 28);
+    int height = ring.getInt(offset + 32);
+    int format = ring.getInt(offset + 36);
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = ring.get(offset + FRAME_HEADER_SIZE + i);
+    }
+
+    if (format == ImageFormat.JPEG) {
+      return data;
+    }
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    YuvImage image = new YuvImage(data, ImageFormat.NV21, width, height, null);
+    if (!image.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, output)) {
+      Timber.w("Failed to encode a frame.");
+      return null;
+    }
+
+    return output.toByteArray();
+  }
+}
@@ -20,4 +20,9 @@ public interface HTTPRequestListener {
   RobocarResponse onMove(RobocarMove move);
 
   RobocarResponse onSpeed(RobocarSpeed speed);
+
+  /**
+   * Freezes and exports the flight recorder.
+   */
+  RobocarResponse onFlightRecorder();
 }
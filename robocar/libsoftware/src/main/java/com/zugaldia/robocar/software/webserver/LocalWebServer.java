@@ -5,6 +5,7 @@ import android.net.wifi.WifiManager;
 import android.text.format.Formatter;
 
 import com.google.gson.GsonBuilder;
+import com.zugaldia.robocar.software.recorder.FlightRecorder;
 import com.zugaldia.robocar.software.webserver.models.RobocarMove;
 import com.zugaldia.robocar.software.webserver.models.RobocarResponse;
 import com.zugaldia.robocar.software.webserver.models.RobocarSpeed;
@@ -29,8 +30,17 @@ public class LocalWebServer extends NanoHTTPD {
   public static final String ENDPOINT_GET_STATUS = "api/status";
   public static final String ENDPOINT_POST_MOVE = "api/move";
   public static final String ENDPOINT_POST_SPEED = "api/speed";
+  public static final String ENDPOINT_POST_FLIGHT_RECORDER = "api/flight-recorder";
+
+  // Endpoints as recorded by the flight recorder
+  public static final int CODE_UNKNOWN = 0;
+  public static final int CODE_STATUS = 1;
+  public static final int CODE_MOVE = 2;
+  public static final int CODE_SPEED = 3;
+  public static final int CODE_FLIGHT_RECORDER = 4;
 
   private HTTPRequestListener requestListener;
+  private FlightRecorder flightRecorder;
 
   public LocalWebServer(HTTPRequestListener requestListener) {
     super(8080);
@@ -42,15 +52,27 @@ public class LocalWebServer extends NanoHTTPD {
     this.requestListener = requestListener;
   }
 
+  /**
+   * Records the requests, or not if null.
+   */
+  public void setFlightRecorder(FlightRecorder flightRecorder) {
+    this.flightRecorder = flightRecorder;
+  }
+
   @Override
   public Response serve(IHTTPSession session) {
     requestListener.onRequest(session);
 
+    // Requests are recorded before they're handled, so that a flight recorder export they
+    // trigger (or the events they cause) comes after them
     Object result = null;
+    int code = CODE_UNKNOWN;
     switch (session.getMethod()) {
       case GET:
         switch (session.getUri()) {
           case ENDPOINT_ROOT + ENDPOINT_GET_STATUS:
+            code = CODE_STATUS;
+            recordRequest(code, 0, 0);
             result = requestListener.onStatus();
             break;
           default:
@@ -62,12 +84,26 @@ public class LocalWebServer extends NanoHTTPD {
         switch (session.getUri()) {
           case ENDPOINT_ROOT + ENDPOINT_POST_MOVE:
             RobocarMove move = (RobocarMove) readPostAsObject(session, RobocarMove.class);
+            code = CODE_MOVE;
+            recordRequest(code, 0, 0);
             result = requestListener.onMove(move);
             break;
           case ENDPOINT_ROOT + ENDPOINT_POST_SPEED:
             RobocarSpeed speed = (RobocarSpeed)readPostAsObject(session, RobocarSpeed.class);
+            code = CODE_SPEED;
+            if (speed != null) {
+              recordRequest(code, speed.getLeft() != null ? speed.getLeft() : 0,
+                  speed.getRight() != null ? speed.getRight() : 0);
+            } else {
+              recordRequest(code, 0, 0);
+            }
             result = requestListener.onSpeed(speed);
             break;
+          case ENDPOINT_ROOT + ENDPOINT_POST_FLIGHT_RECORDER:
+            code = CODE_FLIGHT_RECORDER;
+            recordRequest(code, 0, 0);
+            result = requestListener.onFlightRecorder();
+            break;
           default:
             // No action.
             break;
@@ -78,6 +114,10 @@ public class LocalWebServer extends NanoHTTPD {
         break;
     }
 
+    if (code == CODE_UNKNOWN) {
+      recordRequest(code, 0, 0);
+    }
+
     if (result == null) {
       result = new RobocarResponse(404, String.format(
           "Unknown %s endpoint: %s", session.getMethod(), session.getUri()));
@@ -86,6 +126,12 @@ public class LocalWebServer extends NanoHTTPD {
     return buildResponse(result);
   }
 
+  private void recordRequest(int code, int left, int right) {
+    if (flightRecorder != null) {
+      flightRecorder.recordEvent(FlightRecorder.EVENT_HTTP, code, left, right);
+    }
+  }
+
   private Response buildResponse(Object object) {
     return newFixedLengthResponse(Response.Status.OK, APPLICATION_JSON,
         new GsonBuilder().create().toJson(object));
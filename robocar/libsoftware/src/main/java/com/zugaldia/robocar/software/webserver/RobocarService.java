@@ -25,4 +25,7 @@ public interface RobocarService {
   @POST(LocalWebServer.ENDPOINT_POST_SPEED)
   Call<RobocarResponse> postSpeed(@Body RobocarSpeed speed);
 
+  @POST(LocalWebServer.ENDPOINT_POST_FLIGHT_RECORDER)
+  Call<RobocarResponse> postFlightRecorder();
+
 }
@@ -0,0 +1,210 @@
+package com.zugaldia.robocar.software.camera;
+
+import com.zugaldia.robocar.dataset.Segment;
+import com.zugaldia.robocar.dataset.SegmentReader;
+import com.zugaldia.robocar.dataset.SegmentRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetWriterTest {
+
+  private static final String SEGMENT_NAME = "test";
+  private static final long TIMEOUT_MS = 5000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Holds the I/O thread when it opens a segment, before the first photo is written
+  private final CountDownLatch ioGate = new CountDownLatch(1);
+  private final Timber.Tree gateTree = new Timber.Tree() {
+    @Override
+    protected void log(int priority, String tag, String message, Throwable throwable) {
+      if (message.startsWith("Recording to segment")) {
+        try {
+          ioGate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  };
+
+  private File root;
+  private DatasetWriter writer;
+
+  @Before
+  public void setUp() throws IOException {
+    Timber.plant(gateTree);
+    root = folder.newFolder();
+  }
+
+  @After
+  public void tearDown() {
+    ioGate.countDown();
+    if (writer != null) {
+      writer.stop();
+    }
+    Timber.uproot(gateTree);
+  }
+
+  @Test
+  public void testDroppedWhenPoolExhausted() throws IOException {
+    writer = new DatasetWriter(root, SEGMENT_NAME, 2, DatasetWriter.DEFAULT_BUFFER_SIZE);
+    writer.start();
+
+    // Both buffers are held until the I/O thread gets going
+    assertTrue(writer.append(1, speeds(1), photo(1, 100)));
+    assertTrue(writer.append(2, speeds(2), photo(2, 100)));
+    assertFalse(writer.append(3, speeds(3), photo(3, 100)));
+    assertEquals(1, writer.getDropped());
+
+    ioGate.countDown();
+    writer.stop();
+    assertEquals(2, writer.getWritten());
+    assertRecords(segment(0), 1, 2);
+  }
+
+  @Test
+  public void testBufferGrows() throws IOException {
+    ioGate.countDown();
+    writer = new DatasetWriter(root, SEGMENT_NAME, 1, DatasetWriter.DEFAULT_BUFFER_SIZE);
+    writer.start();
+
+    int large = DatasetWriter.DEFAULT_BUFFER_SIZE * 2 + 1;
+    assertTrue(append(1, large));
+    waitForWritten(1);
+    assertTrue(append(2, 10));
+    writer.stop();
+
+    assertEquals(0, writer.getDropped());
+    SegmentReader reader = segment(0);
+    assertEquals(large, reader.get(0).getPhotoSize());
+    assertRecords(reader, 1, 2);
+  }
+
+  @Test
+  public void testStopDrainsBacklog() throws Exception {
+    writer = new DatasetWriter(root, SEGMENT_NAME, 8, DatasetWriter.DEFAULT_BUFFER_SIZE);
+    writer.start();
+    for (int i = 1; i <= 8; i++) {
+      assertTrue(append(i, 100));
+    }
+
+    // Stop while the photos are still queued, the stop request lands behind them
+    Thread stopper = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writer.stop();
+      }
+    });
+    stopper.start();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (stopper.getState() != Thread.State.WAITING
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    ioGate.countDown();
+    stopper.join(TIMEOUT_MS);
+    assertFalse(stopper.isAlive());
+
+    assertEquals(8, writer.getWritten());
+    assertEquals(0, writer.getBacklog());
+    assertTrue(writer.getSyncs() >= 1);
+    SegmentReader reader = segment(0);
+    assertTrue(reader.isIndexed());
+    assertRecords(reader, 1, 2, 3, 4, 5, 6, 7, 8);
+
+    // Nothing is accepted once stopped
+    assertFalse(append(9, 100));
+  }
+
+  @Test
+  public void testRestartAfterStop() throws IOException {
+    ioGate.countDown();
+    writer = new DatasetWriter(root, SEGMENT_NAME, 4, DatasetWriter.DEFAULT_BUFFER_SIZE);
+    writer.start();
+    for (int i = 1; i <= 4; i++) {
+      assertTrue(append(i, 100));
+    }
+    writer.stop();
+
+    // The batch ended at the stop request: every buffer is back and nothing is left queued
+    writer.start();
+    for (int i = 5; i <= 8; i++) {
+      assertTrue(append(i, 100));
+    }
+    writer.stop();
+
+    assertEquals(8, writer.getWritten());
+    assertEquals(0, writer.getDropped());
+    assertRecords(segment(0), 1, 2, 3, 4);
+    assertRecords(segment(1), 5, 6, 7, 8);
+  }
+
+  private boolean append(long timestamp, int size) {
+    return writer.append(timestamp, speeds(timestamp), photo(timestamp, size));
+  }
+
+  private void waitForWritten(long count) {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (writer.getWritten() < count && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+    assertEquals(count, writer.getWritten());
+  }
+
+  private SegmentReader segment(int index) throws IOException {
+    return new SegmentReader(new File(root, SEGMENT_NAME + "-" + index + Segment.EXTENSION));
+  }
+
+  /**
+   * Checks the segment holds the records written by {@link #append(long, int)} with the given
+   * timestamps, in order.
+   */
+  private static void assertRecords(SegmentReader reader, long... timestamps)
+      throws IOException {
+    assertEquals(timestamps.length, reader.size());
+    for (int i = 0; i < timestamps.length; i++) {
+      SegmentRecord record = reader.get(i);
+      assertEquals(timestamps[i], record.getTimestamp());
+      assertArrayEquals(speeds(timestamps[i]), record.getSpeeds());
+      ByteBuffer expected = photo(timestamps[i], record.getPhotoSize());
+      assertEquals(expected, record.getPhoto());
+    }
+    reader.close();
+  }
+
+  private static int[] speeds(long timestamp) {
+    int[] speeds = new int[Segment.MOTOR_COUNT];
+    for (int motor = 0; motor < speeds.length; motor++) {
+      speeds[motor] = (int) timestamp * 10 + motor;
+    }
+    return speeds;
+  }
+
+  private static ByteBuffer photo(long timestamp, int size) {
+    ByteBuffer photo = ByteBuffer.allocateDirect(size);
+    for (int i = 0; i < size; i++) {
+      photo.put((byte) (timestamp + i));
+    }
+    photo.flip();
+    return photo;
+  }
+}
@@ -0,0 +1,177 @@
+package com.zugaldia.robocar.software.camera;
+
+import android.media.Image;
+import android.media.ImageReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FrameDispatcherTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  // Time to wait for a frame that shouldn't arrive
+  private static final long NO_FRAME_MS = 100;
+
+  private FrameExecutor executor;
+  private FrameDispatcher dispatcher;
+  private ImageReader reader;
+
+  @Before
+  public void setUp() {
+    executor = new FrameExecutor(1, FrameExecutor.DEFAULT_QUEUE_SIZE,
+        FrameExecutor.RejectionPolicy.DROP_NEWEST);
+    dispatcher = new FrameDispatcher(executor);
+    reader = mock(ImageReader.class);
+  }
+
+  @After
+  public void tearDown() {
+    dispatcher.stop();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testImageClosedAfterLastConsumer() throws InterruptedException {
+    HoldingConsumer first = new HoldingConsumer();
+    HoldingConsumer second = new HoldingConsumer();
+    dispatcher.addConsumer("first", first);
+    dispatcher.addConsumer("second", second);
+    dispatcher.start();
+
+    Image image = dispatch();
+    DispatchedFrame firstFrame = first.next();
+    DispatchedFrame secondFrame = second.next();
+    assertSame(image, firstFrame.getImage());
+    assertSame(image, secondFrame.getImage());
+
+    firstFrame.release();
+    verify(image, never()).close();
+
+    // Releasing twice doesn't count twice
+    firstFrame.release();
+    verify(image, never()).close();
+
+    secondFrame.release();
+    secondFrame.release();
+    verify(image, times(1)).close();
+  }
+
+  @Test
+  public void testStaleFrameDropped() throws InterruptedException {
+    HoldingConsumer consumer = new HoldingConsumer();
+    dispatcher.addConsumer("consumer", consumer);
+    dispatcher.start();
+
+    Image first = dispatch();
+    DispatchedFrame firstFrame = consumer.next();
+
+    // The consumer is busy: the second image waits, and is replaced by the third
+    Image second = dispatch();
+    Image third = dispatch();
+    verify(second, times(1)).close();
+    assertNull(consumer.poll());
+
+    firstFrame.release();
+    verify(first, times(1)).close();
+    DispatchedFrame thirdFrame = consumer.next();
+    assertSame(third, thirdFrame.getImage());
+    thirdFrame.release();
+    verify(third, times(1)).close();
+
+    assertEquals(2, dispatcher.getDelivered("consumer"));
+    assertEquals(1, dispatcher.getDropped("consumer"));
+  }
+
+  @Test
+  public void testMaxInFlight() throws InterruptedException {
+    HoldingConsumer consumer = new HoldingConsumer();
+    dispatcher.addConsumer("consumer", consumer, 2);
+    dispatcher.start();
+    assertEquals(4, dispatcher.getRequiredImages());
+
+    dispatch();
+    dispatch();
+    Image third = dispatch();
+    DispatchedFrame firstFrame = consumer.next();
+    assertNotNull(consumer.next());
+    assertNull(consumer.poll());
+
+    // A frame in flight is released, the waiting one goes
+    firstFrame.release();
+    assertSame(third, consumer.next().getImage());
+    assertEquals(0, dispatcher.getDropped("consumer"));
+  }
+
+  @Test
+  public void testStopReleasesWaitingFrames() throws InterruptedException {
+    HoldingConsumer consumer = new HoldingConsumer();
+    dispatcher.addConsumer("consumer", consumer);
+    dispatcher.start();
+
+    Image first = dispatch();
+    DispatchedFrame firstFrame = consumer.next();
+    Image waiting = dispatch();
+
+    dispatcher.stop();
+    verify(waiting, times(1)).close();
+
+    // The frame in flight stays valid until the consumer releases it
+    verify(first, never()).close();
+    firstFrame.release();
+    verify(first, times(1)).close();
+
+    // Images arriving after stop() are closed right away
+    Image late = dispatch();
+    verify(late, times(1)).close();
+    assertNull(consumer.poll());
+  }
+
+  /**
+   * Makes a new image available to the dispatcher, as the camera would.
+   */
+  private Image dispatch() {
+    Image image = mock(Image.class);
+    when(reader.acquireLatestImage()).thenReturn(image);
+    dispatcher.onImageAvailable(reader);
+    return image;
+  }
+
+  /**
+   * Keeps the frames until the test releases them.
+   */
+  private static class HoldingConsumer implements FrameConsumer {
+
+    private final BlockingQueue<DispatchedFrame> frames = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onFrame(DispatchedFrame frame) {
+      frames.add(frame);
+    }
+
+    DispatchedFrame next() throws InterruptedException {
+      DispatchedFrame frame = frames.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull("No frame delivered", frame);
+      return frame;
+    }
+
+    DispatchedFrame poll() throws InterruptedException {
+      return frames.poll(NO_FRAME_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+}
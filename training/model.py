@@ -55,15 +55,17 @@ with open(INPUT_DATA_FILE) as csv_file:
             # Format is center,left,right,steering,throttle,brake,speed
             steering = float(line[3])
 
-            # Augment the data right away so that it gets randomized
-            lines.append({'path': line[0], 'steering': steering, 'flip': False})  # center
-            lines.append({'path': line[1], 'steering': steering + CORRECTION, 'flip': False})  # left
-            lines.append({'path': line[2], 'steering': steering - CORRECTION, 'flip': False})  # right
-
-            # Augment data by flipping the images horizontally
-            lines.append({'path': line[0], 'steering': steering, 'flip': True})  # center
-            lines.append({'path': line[1], 'steering': steering + CORRECTION, 'flip': True})  # left
-            lines.append({'path': line[2], 'steering': steering - CORRECTION, 'flip': True})  # right
+            # Augment the data right away so that it gets randomized. Side cameras are optional
+            # (the robocar only has a center one, see DrivingLogConverter)
+            samples = [(line[0], steering),  # center
+                       (line[1], steering + CORRECTION),  # left
+                       (line[2], steering - CORRECTION)]  # right
+            for path, sample_steering in samples:
+                if path.strip():
+                    lines.append({'path': path, 'steering': sample_steering, 'flip': False})
+
+                    # Augment data by flipping the images horizontally
+                    lines.append({'path': path, 'steering': sample_steering, 'flip': True})
 
 train_samples, validation_samples = train_test_split(lines, test_size=TEST_SIZE)
 print('Samples found: %d (training: %d, validation: %d).'